@@ -0,0 +1,49 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ConsulClientUtil.chooseClient 基准测试
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ChooseClientBenchmark {
+
+  @Param({"3", "5", "7"})
+  private int nodes;
+
+  private final String key = "172.16.18.174";
+
+  private List<String> clients;
+
+  @Setup
+  public void setUp() {
+    this.clients = new ArrayList<>(nodes);
+    for (int i = 0; i < nodes; i++) {
+      this.clients.add("172.16.94." + (i + 1) + ":8500");
+    }
+  }
+
+  @Benchmark
+  public String chooseClient() {
+    return ConsulClientUtil.chooseClient(key, clients);
+  }
+}
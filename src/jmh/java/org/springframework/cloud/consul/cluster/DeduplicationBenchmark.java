@@ -0,0 +1,110 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.health.model.HealthService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.commons.util.InetUtils;
+import org.springframework.cloud.commons.util.InetUtilsProperties;
+import org.springframework.cloud.consul.discovery.ConsulDiscoveryProperties;
+import org.springframework.cloud.consul.discovery.ConsulServer;
+
+/**
+ * 多点注册结果集去重的基准测试
+ *
+ * CustomConsulServerList.transformResponse 与 CustomConsulDiscoveryClient.getInstances,
+ * 其中getInstances使用返回固定结果集的ConsulClient, 不包含网络开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DeduplicationBenchmark {
+
+  @Param({"10", "1000", "10000"})
+  private int instances;
+
+  @Param({"3", "5", "7"})
+  private int duplication;
+
+  private List<HealthService> healthServices;
+
+  private CustomConsulServerList serverList;
+
+  private CustomConsulDiscoveryClient discoveryClient;
+
+  @Setup
+  public void setUp() {
+    this.healthServices = HealthServiceFixtures.duplicatedHealthServices(instances, duplication);
+
+    ConsulDiscoveryProperties properties = new ConsulDiscoveryProperties(
+        new InetUtils(new InetUtilsProperties()));
+    ConsulClient cannedClient = new CannedHealthConsulClient(this.healthServices);
+    this.serverList = new CustomConsulServerList(cannedClient, properties);
+    this.discoveryClient = new CustomConsulDiscoveryClient(cannedClient, properties);
+  }
+
+  @Benchmark
+  public List<ConsulServer> serverListTransformResponse() {
+    return serverList.transformResponse(healthServices);
+  }
+
+  @Benchmark
+  public List<ServiceInstance> discoveryClientGetInstances() {
+    return discoveryClient.getInstances(HealthServiceFixtures.SERVICE_NAME);
+  }
+
+  /**
+   * 总是返回同一结果集的ConsulClient
+   */
+  private static class CannedHealthConsulClient extends ConsulClient {
+
+    private final Response<List<HealthService>> response;
+
+    CannedHealthConsulClient(List<HealthService> healthServices) {
+      super();
+      this.response = new Response<>(healthServices, 1L, true, 0L);
+    }
+
+    @Override
+    public Response<List<HealthService>> getHealthServices(String serviceName,
+        boolean onlyPassing, QueryParams queryParams) {
+      return response;
+    }
+
+    @Override
+    public Response<List<HealthService>> getHealthServices(String serviceName, String tag,
+        boolean onlyPassing, QueryParams queryParams) {
+      return response;
+    }
+
+    @Override
+    public Response<List<HealthService>> getHealthServices(String serviceName,
+        boolean onlyPassing, QueryParams queryParams, String token) {
+      return response;
+    }
+
+    @Override
+    public Response<List<HealthService>> getHealthServices(String serviceName, String tag,
+        boolean onlyPassing, QueryParams queryParams, String token) {
+      return response;
+    }
+  }
+}
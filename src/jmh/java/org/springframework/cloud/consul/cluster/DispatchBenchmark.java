@@ -0,0 +1,74 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.kv.model.GetValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ClusterConsulClient 相对于普通 ConsulClient 的调度开销
+ *
+ * 两者都通过本机HTTP访问进程内的 FakeConsulCluster, 差值即 RetryTemplate 与节点选择的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DispatchBenchmark {
+
+  private static final String KEY = "benchmark/key";
+
+  @Param({"1", "3"})
+  private int agents;
+
+  private FakeConsulCluster cluster;
+
+  private ConsulClient plainClient;
+
+  private ClusterConsulClient clusterClient;
+
+  @Setup
+  public void setUp() throws IOException {
+    this.cluster = new FakeConsulCluster(agents);
+
+    this.plainClient = new ConsulClient("127.0.0.1", this.cluster.getAgent(0).getPort());
+    this.plainClient.setKVValue(KEY, "value");
+
+    ClusterConsulProperties properties = new ClusterConsulProperties();
+    properties.setClusterNodes(this.cluster.getClusterNodes());
+    properties.setClusterClientKey("127.0.0.1");
+    this.clusterClient = new ClusterConsulClient(properties);
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.clusterClient.getConsulClientsExecutor().shutdownNow();
+    this.cluster.close();
+  }
+
+  @Benchmark
+  public Response<GetValue> plainConsulClient() {
+    return plainClient.getKVValue(KEY);
+  }
+
+  @Benchmark
+  public Response<GetValue> clusterConsulClient() {
+    return clusterClient.getKVValue(KEY);
+  }
+}
@@ -0,0 +1,84 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ecwid.consul.v1.health.model.Check;
+import com.ecwid.consul.v1.health.model.Check.CheckStatus;
+import com.ecwid.consul.v1.health.model.HealthService;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * 基准测试数据: 模拟多点注册后getHealthServices返回的重复结果集
+ *
+ * 数据完全由参数决定(不使用随机数), 保证不同提交间的基准结果可比
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class HealthServiceFixtures {
+
+  public static final String SERVICE_NAME = "benchmark-service";
+
+  /**
+   * 生成 instances 个实例, 每个实例在 duplication 个consul节点上各注册一份
+   *
+   * 与consul的返回顺序一致: 先按节点, 再按实例
+   */
+  public static List<HealthService> duplicatedHealthServices(int instances, int duplication) {
+    List<HealthService> healthServices = new ArrayList<>(instances * duplication);
+    for (int agent = 0; agent < duplication; agent++) {
+      for (int instance = 0; instance < instances; instance++) {
+        healthServices.add(healthService(agent, instance));
+      }
+    }
+
+    return healthServices;
+  }
+
+  private static HealthService healthService(int agent, int instance) {
+    String nodeName = "consul-agent-" + agent;
+    String instanceId = SERVICE_NAME + "-" + instance;
+
+    HealthService.Node node = new HealthService.Node();
+    node.setNode(nodeName);
+    node.setAddress("10.0." + agent + ".1");
+
+    Map<String, String> meta = new HashMap<>();
+    meta.put("zone", "zone-" + (instance % 3));
+
+    HealthService.Service service = new HealthService.Service();
+    service.setId(instanceId);
+    service.setService(SERVICE_NAME);
+    service.setAddress("172.16." + (instance / 250) + "." + (instance % 250 + 1));
+    service.setPort(8080);
+    service.setTags(Arrays.asList("secure=false", "version=1"));
+    service.setMeta(meta);
+    service.setCreateIndex(10L + instance);
+    service.setModifyIndex(10L + instance);
+
+    Check serfCheck = new Check();
+    serfCheck.setNode(nodeName);
+    serfCheck.setCheckId("serfHealth");
+    serfCheck.setName("Serf Health Status");
+    serfCheck.setStatus(CheckStatus.PASSING);
+
+    Check serviceCheck = new Check();
+    serviceCheck.setNode(nodeName);
+    serviceCheck.setCheckId("service:" + instanceId);
+    serviceCheck.setName("Service '" + SERVICE_NAME + "' check");
+    serviceCheck.setServiceId(instanceId);
+    serviceCheck.setServiceName(SERVICE_NAME);
+    serviceCheck.setStatus(CheckStatus.PASSING);
+
+    HealthService healthService = new HealthService();
+    healthService.setNode(node);
+    healthService.setService(service);
+    healthService.setChecks(Collections.unmodifiableList(Arrays.asList(serfCheck, serviceCheck)));
+
+    return healthService;
+  }
+}
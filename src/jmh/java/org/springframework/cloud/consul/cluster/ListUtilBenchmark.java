@@ -0,0 +1,73 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.consul.ConsulProperties;
+
+/**
+ * ListUtil.isSame 基准测试
+ *
+ * ConsulClientHolder 指向不可达端口, 仅在Setup阶段做一次(失败的)健康检测
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ListUtilBenchmark {
+
+  @Param({"3", "7", "15"})
+  private int nodes;
+
+  private List<ConsulClientHolder> listOne;
+
+  private List<ConsulClientHolder> sameReversed;
+
+  private List<ConsulClientHolder> differentLast;
+
+  @Setup
+  public void setUp() {
+    this.listOne = createHolders(nodes, 0);
+    this.sameReversed = new ArrayList<>(this.listOne);
+    Collections.reverse(this.sameReversed);
+    this.differentLast = new ArrayList<>(this.listOne.subList(0, nodes - 1));
+    this.differentLast.addAll(createHolders(1, nodes));
+  }
+
+  @Benchmark
+  public boolean isSameWhenSame() {
+    return ListUtil.isSame(listOne, sameReversed);
+  }
+
+  @Benchmark
+  public boolean isSameWhenDifferent() {
+    return ListUtil.isSame(listOne, differentLast);
+  }
+
+  private static List<ConsulClientHolder> createHolders(int count, int offset) {
+    List<ConsulClientHolder> holders = new ArrayList<>(count);
+    for (int i = offset; i < offset + count; i++) {
+      ConsulProperties properties = new ConsulProperties();
+      properties.setHost("127.0.0." + (i + 1));
+      properties.setPort(1);
+      holders.add(new ConsulClientHolder(properties));
+    }
+
+    return holders;
+  }
+}
@@ -0,0 +1,307 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.agent.model.NewService;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * ClusterConsulClient 的故障切换与吞吐负载测试
+ *
+ * 用N个线程按比例混合执行KV读、服务发现读与心跳(agentCheckPass)，
+ * 期间按 FaultEvent 脚本停止、拖慢、恢复伪consul agent，
+ * 最后输出吞吐、延迟分位数、每个事件的故障检测耗时、切换耗时及事件窗口内失败的请求数。
+ *
+ * 运行: ./gradlew loadTest -Pharness.threads=16 -Pharness.events="10:kill:current;25:restore:last"
+ *
+ * 参数(系统属性):
+ *
+ * harness.agents(3), harness.threads(8), harness.duration秒(60), harness.mix(kv:70,discovery:20,heartbeat:10),
+ *
+ * harness.events, harness.healthCheckInterval毫秒(10000, 与ClusterConsulProperties默认值一致)
+ */
+@Slf4j
+public class ClusterConsulLoadHarness {
+
+  private static final String SERVICE_NAME = "loadtest";
+
+  private static final String SERVICE_ID = "loadtest-1";
+
+  private static final String CHECK_ID = "service:" + SERVICE_ID;
+
+  private static final int KEY_COUNT = 100;
+
+  private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private enum Operation {
+    KV, DISCOVERY, HEARTBEAT
+  }
+
+  private final int agents = Integer.getInteger("harness.agents", 3);
+
+  private final int threads = Integer.getInteger("harness.threads", 8);
+
+  private final long durationSeconds = Long.getLong("harness.duration", 60);
+
+  private final long healthCheckInterval = Long.getLong("harness.healthCheckInterval", 10000);
+
+  private final int[] weights = parseMix(System.getProperty("harness.mix", "kv:70,discovery:20,heartbeat:10"));
+
+  private final List<FaultEvent> events = FaultEvent.parse(System.getProperty("harness.events",
+      "10:kill:current;25:restore:last;35:slow:current:2000;50:heal:last"));
+
+  private final LatencyHistogram[] latencies = {new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+
+  /**
+   * 以100毫秒为窗口统计的成功/失败请求数
+   */
+  private final AtomicLongArray successes;
+
+  private final AtomicLongArray failures;
+
+  private long startNanos;
+
+  public ClusterConsulLoadHarness() {
+    int windows = (int) (TimeUnit.SECONDS.toNanos(durationSeconds) / WINDOW_NANOS) + 1;
+    this.successes = new AtomicLongArray(windows);
+    this.failures = new AtomicLongArray(windows);
+  }
+
+  public static void main(String[] args) throws Exception {
+    new ClusterConsulLoadHarness().run();
+  }
+
+  public void run() throws Exception {
+    try (FakeConsulCluster cluster = new FakeConsulCluster(agents)) {
+      ClusterConsulProperties properties = new ClusterConsulProperties();
+      properties.setClusterNodes(cluster.getClusterNodes());
+      properties.setClusterClientKey("127.0.0.1");
+      properties.setHealthCheckInterval(healthCheckInterval);
+      ClusterConsulClient client = new ClusterConsulClient(properties);
+      try {
+        prepare(client);
+        execute(cluster, client);
+      } finally {
+        client.getConsulClientsExecutor().shutdownNow();
+      }
+    }
+  }
+
+  private void prepare(ClusterConsulClient client) {
+    for (int i = 0; i < KEY_COUNT; i++) {
+      client.setKVValue(key(i), "value-" + i);
+    }
+    NewService.Check check = new NewService.Check();
+    check.setTtl("60s");
+    NewService newService = new NewService();
+    newService.setId(SERVICE_ID);
+    newService.setName(SERVICE_NAME);
+    newService.setAddress("127.0.0.1");
+    newService.setPort(8080);
+    newService.setCheck(check);
+    client.agentServiceRegister(newService);
+    client.agentCheckPass(CHECK_ID);
+  }
+
+  private void execute(FakeConsulCluster cluster, ClusterConsulClient client) throws InterruptedException {
+    ExecutorService workers = Executors.newFixedThreadPool(threads + 2);
+    CountDownLatch done = new CountDownLatch(threads);
+    this.startNanos = System.nanoTime();
+    long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+    for (int i = 0; i < threads; i++) {
+      Random random = new Random(i);
+      workers.execute(() -> {
+        try {
+          while (System.nanoTime() < endNanos) {
+            invoke(client, chooseOperation(random), random);
+          }
+        } finally {
+          done.countDown();
+        }
+      });
+    }
+    workers.execute(() -> fireEvents(cluster, client, endNanos));
+    workers.execute(() -> monitorEvents(client, endNanos));
+
+    done.await();
+    workers.shutdownNow();
+    workers.awaitTermination(5, TimeUnit.SECONDS);
+    report();
+  }
+
+  private void invoke(ClusterConsulClient client, Operation operation, Random random) {
+    long begin = System.nanoTime();
+    boolean success = true;
+    try {
+      switch (operation) {
+        case KV:
+          client.getKVValue(key(random.nextInt(KEY_COUNT)));
+          break;
+        case DISCOVERY:
+          client.getHealthServices(SERVICE_NAME, true, QueryParams.DEFAULT);
+          break;
+        case HEARTBEAT:
+          success = client.agentCheckPass(CHECK_ID) != null;
+          break;
+        default:
+          break;
+      }
+    } catch (Exception e) {
+      success = false;
+    }
+    long end = System.nanoTime();
+    latencies[operation.ordinal()].record(end - begin);
+    int window = window(end);
+    if (window < successes.length()) {
+      (success ? successes : failures).incrementAndGet(window);
+    }
+  }
+
+  private Operation chooseOperation(Random random) {
+    int value = random.nextInt(weights[0] + weights[1] + weights[2]);
+    if (value < weights[0]) {
+      return Operation.KV;
+    }
+    return value < weights[0] + weights[1] ? Operation.DISCOVERY : Operation.HEARTBEAT;
+  }
+
+  private void fireEvents(FakeConsulCluster cluster, ClusterConsulClient client, long endNanos) {
+    FaultEvent previous = null;
+    for (FaultEvent event : events) {
+      long fireAt = startNanos + TimeUnit.MILLISECONDS.toNanos(event.getOffsetMillis());
+      if (fireAt >= endNanos) {
+        break;
+      }
+      try {
+        TimeUnit.NANOSECONDS.sleep(Math.max(0, fireAt - System.nanoTime()));
+        event.apply(cluster, client, previous);
+        log.info(CommonConstant.LOG_PREFIX + ">>> fired {} <<<", event);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        log.warn(CommonConstant.LOG_PREFIX + ">>> fire {} failed: {} <<<", event, e.getMessage());
+      }
+      previous = event;
+    }
+  }
+
+  /**
+   * 轮询ClusterConsulClient内部状态, 记录故障被检测到及切换完成的时刻
+   */
+  private void monitorEvents(ClusterConsulClient client, long endNanos) {
+    while (System.nanoTime() < endNanos && !Thread.currentThread().isInterrupted()) {
+      long now = System.nanoTime();
+      for (FaultEvent event : events) {
+        FakeConsulAgent agent = event.getAgent();
+        if (event.getFiredAtNanos() == 0 || agent == null) {
+          continue;
+        }
+        Optional<ConsulClientHolder> holder = client.getConsulClients().stream()
+            .filter(consulClient -> consulClient.getClientId().equals(agent.getConnect())).findFirst();
+        boolean healthy = holder.map(ConsulClientHolder::isHealthy).orElse(false);
+        if (event.getDetectedAtNanos() == 0 && healthy != event.getAction().isFailure()) {
+          event.setDetectedAtNanos(now);
+        }
+        if (event.getFailedOverAtNanos() == 0 && event.isWasCurrent() && event.getAction().isFailure()
+            && !client.getCurrentClient().getClientId().equals(agent.getConnect())) {
+          event.setFailedOverAtNanos(now);
+        }
+      }
+      try {
+        TimeUnit.MILLISECONDS.sleep(5);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void report() {
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    StringBuilder report = new StringBuilder(4096);
+    report.append(String.format("%n==== ClusterConsulClient load harness: agents=%d threads=%d duration=%ds "
+        + "healthCheckInterval=%dms ====%n", agents, threads, durationSeconds, healthCheckInterval));
+    report.append(String.format("%-10s %10s %10s %9s %9s %9s %9s %9s%n",
+        "operation", "requests", "req/s", "p50(ms)", "p90(ms)", "p99(ms)", "p999(ms)", "max(ms)"));
+    for (Operation operation : Operation.values()) {
+      LatencyHistogram histogram = latencies[operation.ordinal()];
+      report.append(String.format("%-10s %10d %10.0f %9.2f %9.2f %9.2f %9.2f %9.2f%n", operation,
+          histogram.getCount(), histogram.getCount() / seconds, histogram.percentileMicros(50) / 1000.0,
+          histogram.percentileMicros(90) / 1000.0, histogram.percentileMicros(99) / 1000.0,
+          histogram.percentileMicros(99.9) / 1000.0, histogram.getMaxMicros() / 1000.0));
+    }
+    report.append(String.format("failed requests: %d%n%n", sum(failures, 0, failures.length())));
+
+    report.append(String.format("%-40s %14s %14s %10s %10s%n",
+        "event", "detect(ms)", "failover(ms)", "lost", "ok"));
+    for (int i = 0; i < events.size(); i++) {
+      FaultEvent event = events.get(i);
+      if (event.getFiredAtNanos() == 0) {
+        continue;
+      }
+      int from = window(event.getFiredAtNanos());
+      int to = i + 1 < events.size() && events.get(i + 1).getFiredAtNanos() > 0
+          ? window(events.get(i + 1).getFiredAtNanos()) : failures.length();
+      report.append(String.format("%-40s %14s %14s %10d %10d%n", event,
+          elapsed(event, event.getDetectedAtNanos()), event.isWasCurrent() && event.getAction().isFailure()
+              ? elapsed(event, event.getFailedOverAtNanos()) : "-",
+          sum(failures, from, to), sum(successes, from, to)));
+    }
+
+    report.append(String.format("%ntimeline (per second): second, ok, failed%n"));
+    for (int second = 0; second * 10 < successes.length(); second++) {
+      int from = second * 10;
+      int to = Math.min(from + 10, successes.length());
+      report.append(String.format("%4d %8d %8d%n", second, sum(successes, from, to), sum(failures, from, to)));
+    }
+    log.info(report.toString());
+  }
+
+  private int window(long nanos) {
+    return (int) Math.max(0, (nanos - startNanos) / WINDOW_NANOS);
+  }
+
+  private static String elapsed(FaultEvent event, long atNanos) {
+    return atNanos == 0 ? "not seen" : String.format("%.1f", (atNanos - event.getFiredAtNanos()) / 1e6);
+  }
+
+  private static long sum(AtomicLongArray array, int from, int to) {
+    long total = 0;
+    for (int i = from; i < Math.min(to, array.length()); i++) {
+      total += array.get(i);
+    }
+    return total;
+  }
+
+  private static String key(int i) {
+    return "loadtest/key-" + i;
+  }
+
+  private static int[] parseMix(String mix) {
+    int[] result = new int[Operation.values().length];
+    List<String> unknown = new ArrayList<>();
+    for (String item : mix.split(CommonConstant.SEPARATOR_COMMA)) {
+      String[] parts = item.trim().split(CommonConstant.SEPARATOR_COLON);
+      try {
+        result[Operation.valueOf(parts[0].toUpperCase()).ordinal()] = Integer.parseInt(parts[1]);
+      } catch (RuntimeException e) {
+        unknown.add(item);
+      }
+    }
+    if (!unknown.isEmpty() || result[0] + result[1] + result[2] <= 0) {
+      throw new BadConfigException("Bad harness.mix: " + mix + ", expected for example kv:70,discovery:20,heartbeat:10");
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,153 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 负载测试过程中对agent施加的一次故障或恢复
+ *
+ * 格式: 偏移秒数:动作:目标[:参数], 多个事件以分号分隔, 例如
+ *
+ * 10:kill:current;25:restore:last;35:slow:current:2000;50:heal:last
+ *
+ * 目标: current(事件发生时的currentClient), last(上一个事件的目标) 或 agent下标
+ *
+ * 动作: kill, restore, slow(参数为毫秒), hang, error(参数为状态码), heal
+ */
+public class FaultEvent {
+
+  public enum Action {
+    KILL, RESTORE, SLOW, HANG, ERROR, HEAL;
+
+    boolean isFailure() {
+      return this != RESTORE && this != HEAL;
+    }
+  }
+
+  @Getter
+  private final long offsetMillis;
+
+  @Getter
+  private final Action action;
+
+  private final String target;
+
+  private final String argument;
+
+  /**
+   * 执行时刻(纳秒)
+   */
+  @Getter
+  @Setter
+  private volatile long firedAtNanos;
+
+  /**
+   * 实际作用的agent
+   */
+  @Getter
+  @Setter
+  private volatile FakeConsulAgent agent;
+
+  /**
+   * 事件发生时该agent是否为currentClient
+   */
+  @Getter
+  @Setter
+  private volatile boolean wasCurrent;
+
+  /**
+   * 检测到agent状态变化(故障: 被标记为不健康, 恢复: 重新被标记为健康)的时刻
+   */
+  @Getter
+  @Setter
+  private volatile long detectedAtNanos;
+
+  /**
+   * currentClient切换离开该agent的时刻
+   */
+  @Getter
+  @Setter
+  private volatile long failedOverAtNanos;
+
+  public FaultEvent(long offsetMillis, Action action, String target, String argument) {
+    this.offsetMillis = offsetMillis;
+    this.action = action;
+    this.target = target;
+    this.argument = argument;
+  }
+
+  public static List<FaultEvent> parse(String spec) {
+    List<FaultEvent> events = new ArrayList<>();
+    if (StringUtils.isBlank(spec)) {
+      return events;
+    }
+    for (String item : spec.split(CommonConstant.SEPARATOR_SEMICOLON)) {
+      if (StringUtils.isBlank(item)) {
+        continue;
+      }
+      List<String> parts = Arrays.asList(item.trim().split(CommonConstant.SEPARATOR_COLON));
+      if (parts.size() < 3) {
+        throw new BadConfigException("Bad fault event: " + item + ", expected offset:action:target[:argument]");
+      }
+      events.add(new FaultEvent(TimeUnit.SECONDS.toMillis(Long.parseLong(parts.get(0))),
+          Action.valueOf(parts.get(1).toUpperCase()), parts.get(2), parts.size() > 3 ? parts.get(3) : null));
+    }
+
+    return events;
+  }
+
+  /**
+   * 对目标agent执行该事件
+   */
+  public void apply(FakeConsulCluster cluster, ClusterConsulClient client, FaultEvent previous) throws IOException {
+    String currentClientId = client.getCurrentClient().getClientId();
+    FakeConsulAgent targetAgent;
+    if ("current".equals(target)) {
+      targetAgent = cluster.findAgent(currentClientId);
+    } else if ("last".equals(target)) {
+      targetAgent = previous.getAgent();
+    } else {
+      targetAgent = cluster.getAgent(Integer.parseInt(target));
+    }
+    this.agent = targetAgent;
+    this.wasCurrent = targetAgent.getConnect().equals(currentClientId);
+    this.firedAtNanos = System.nanoTime();
+
+    switch (action) {
+      case KILL:
+        targetAgent.stop();
+        break;
+      case RESTORE:
+        targetAgent.heal();
+        targetAgent.start();
+        break;
+      case SLOW:
+        targetAgent.setLatencyMillis(Long.parseLong(argument));
+        break;
+      case HANG:
+        targetAgent.hang();
+        break;
+      case ERROR:
+        targetAgent.setErrorStatus(argument == null ? 500 : Integer.parseInt(argument));
+        break;
+      case HEAL:
+        targetAgent.heal();
+        break;
+      default:
+        break;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return (offsetMillis / 1000) + "s " + action + (agent != null ? " " + agent.getConnect() : " " + target)
+        + (argument != null ? " " + argument : "");
+  }
+}
@@ -0,0 +1,150 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.agent.model.Member;
+import com.ecwid.consul.v1.catalog.model.Node;
+import com.google.common.hash.Hashing;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 从集群成员中发现额外的consul agent
+ *
+ * 定期通过 AgentClient.getAgentMembers 读取LAN成员，只保留存活(alive)的client agent(role=node)，
+ * 按segment及节点元数据(CatalogClient.getCatalogNodes 中的Meta)过滤；成员信息中只有gossip端口，
+ * HTTP端口取自节点元数据 http_port，没有时使用配置的默认端口。
+ * 候选节点超过上限时按 clusterClientKey 与节点的散列值排序后取前若干个，不同实例选中不同的子集，读负载随agent数量分散。
+ * 发现的agent只分担读请求，注册类写入及注册日志的重放只发往配置的节点，agent离开节点池时无需注销。
+ */
+@Slf4j
+public class AgentDiscovery {
+
+  /**
+   * 节点元数据中agent的HTTP端口，例如 node_meta { http_port = "8500" }
+   */
+  static final String HTTP_PORT_META = "http_port";
+
+  private static final int MEMBER_ALIVE = 1;
+
+  private static final String ROLE_TAG = "role";
+
+  private static final String CLIENT_ROLE = "node";
+
+  private static final String SEGMENT_TAG = "segment";
+
+  private final ConsulClient client;
+
+  private final ClusterConsulProperties properties;
+
+  /**
+   * 最近一次发现的节点，host:port 格式，不包括 spring.cloud.consul.cluster.nodes 中配置的节点
+   */
+  @Getter
+  private volatile List<String> discoveredNodes = Collections.emptyList();
+
+  public AgentDiscovery(ConsulClient client, ClusterConsulProperties properties) {
+    this.client = client;
+    this.properties = properties;
+  }
+
+  /**
+   * 重新发现一次，失败时保留上一次的结果
+   *
+   * @return 发现的节点是否有变化
+   */
+  public boolean refresh() {
+    try {
+      List<Member> members = client.getAgentMembers().getValue();
+      List<Node> nodes = client.getCatalogNodes(QueryParams.DEFAULT).getValue();
+      List<String> tmpDiscoveredNodes = select(members, nodes);
+      if (tmpDiscoveredNodes.equals(this.discoveredNodes)) {
+        return false;
+      }
+
+      log.info(CommonConstant.LOG_PREFIX + ">>> Discovered consul agents changed: {} -> {} <<<", this.discoveredNodes,
+          tmpDiscoveredNodes);
+      this.discoveredNodes = tmpDiscoveredNodes;
+      return true;
+    } catch (Exception e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Discover consul agents failed: {} <<<", e.getMessage());
+      return false;
+    }
+  }
+
+  List<String> select(List<Member> members, List<Node> nodes) {
+    if (members == null) {
+      return Collections.emptyList();
+    }
+
+    Map<String, Map<String, String>> nodeMetas = new HashMap<>();
+    if (nodes != null) {
+      for (Node node : nodes) {
+        nodeMetas.put(node.getNode(), node.getMeta() == null ? Collections.emptyMap() : node.getMeta());
+      }
+    }
+
+    Set<String> staticNodes = staticNodes(properties);
+    Set<String> candidates = new LinkedHashSet<>();
+    for (Member member : members) {
+      Map<String, String> tags = member.getTags() == null ? Collections.emptyMap() : member.getTags();
+      Map<String, String> meta = nodeMetas.get(member.getName());
+      if (member.getStatus() != MEMBER_ALIVE || !CLIENT_ROLE.equals(tags.get(ROLE_TAG)) || meta == null
+          || !matches(tags, meta)) {
+        continue;
+      }
+
+      String port = StringUtils.defaultIfBlank(meta.get(HTTP_PORT_META),
+          String.valueOf(properties.getAgentDiscoveryPort()));
+      String connect = member.getAddress() + CommonConstant.SEPARATOR_COLON + port;
+      if (!staticNodes.contains(connect)) {
+        candidates.add(connect);
+      }
+    }
+
+    String key = StringUtils.defaultString(properties.getClusterClientKey());
+    List<String> selected = new ArrayList<>(candidates);
+    selected.sort(Comparator.comparingLong((String connect) -> Hashing.murmur3_128()
+        .hashString(key + CommonConstant.SEPARATOR_COLON + connect, StandardCharsets.UTF_8).asLong())
+        .thenComparing(Comparator.naturalOrder()));
+    selected = new ArrayList<>(selected.subList(0, Math.min(properties.getAgentDiscoveryMaxAgents(),
+        selected.size())));
+    Collections.sort(selected);
+
+    return selected;
+  }
+
+  /**
+   * spring.cloud.consul.cluster.nodes 中配置的节点，host:port 格式(配置的节点可能带有可用区: host:port:zone)
+   */
+  static Set<String> staticNodes(ClusterConsulProperties properties) {
+    return properties.getClusterNodes().stream()
+        .map(connect -> connect.split(CommonConstant.SEPARATOR_COLON))
+        .map(connects -> connects[0] + CommonConstant.SEPARATOR_COLON + connects[1]).collect(Collectors.toSet());
+  }
+
+  /**
+   * segment一致，并且节点元数据包含配置的全部键值
+   */
+  private boolean matches(Map<String, String> tags, Map<String, String> meta) {
+    String segment = properties.getAgentDiscoverySegment();
+    if (segment != null && !segment.equals(StringUtils.defaultString(tags.get(SEGMENT_TAG)))) {
+      return false;
+    }
+
+    return properties.getAgentDiscoveryNodeMeta().entrySet().stream()
+        .allMatch(entry -> entry.getValue().equals(meta.get(entry.getKey())));
+  }
+}
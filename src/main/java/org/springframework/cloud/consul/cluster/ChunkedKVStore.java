@@ -0,0 +1,290 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import com.ecwid.consul.v1.kv.model.GetBinaryValue;
+import com.ecwid.consul.v1.kv.model.GetValue;
+import com.ecwid.consul.v1.kv.model.PutParams;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+/**
+ * 分块存储超过consul单个value大小限制(默认512KB)的KV值
+ *
+ * 值按chunkSize拆分写入 key.chunks/generation/序号，全部写入后通过事务以CAS方式把key上的清单(manifest)
+ * 切换到新的generation，再删除旧generation的分块；读取方看到的总是一个完整的generation。
+ * 不超过chunkSize的值直接写入key本身，与普通KV值一样。
+ */
+@Slf4j
+public class ChunkedKVStore {
+
+  private static final byte[] MANIFEST_MAGIC = {0, 'C', 'K', 'M'};
+
+  private static final String CHUNK_SUFFIX = ".chunks/";
+
+  /**
+   * 清单切换或读取时遇到并发修改的重试次数
+   */
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final ClusterConsulClient client;
+
+  private final KVValueCodec codec;
+
+  private final Executor executor;
+
+  private final int chunkSize;
+
+  public ChunkedKVStore(ClusterConsulClient client, KVValueCodec codec, Executor executor, int chunkSize) {
+    this.client = client;
+    this.codec = codec;
+    this.executor = executor;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * 写入一个(可能超过大小限制的)值，最后写入者生效
+   */
+  public void set(String key, byte[] value, String token) {
+    String generation = null;
+    if (value.length > chunkSize) {
+      generation = UUID.randomUUID().toString();
+      writeChunks(key, generation, value, token);
+    }
+    byte[] content = generation == null ? codec.encode(value) : new Manifest(generation,
+        (value.length + chunkSize - 1) / chunkSize, value.length).toBytes();
+
+    for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+      GetBinaryValue current = client.getKVBinaryValue(key, token).getValue();
+      long currentIndex = current == null ? 0 : current.getModifyIndex();
+      KVTxnResponse response = client.executeKVTxn(KVTxn.atomic().cas(key, content, currentIndex), token);
+      if (response.isSuccess()) {
+        Manifest previous = current == null ? null : Manifest.parse(current.getValue());
+        if (previous != null) {
+          deleteChunks(key, previous.generation, token);
+        }
+        log.debug(CommonConstant.LOG_PREFIX + ">>> Chunked KV value set => key: {}  ===  size: {}  ===  generation: {} <<<",
+            key, value.length, generation);
+        return;
+      }
+      //只有CAS冲突(并发修改)才重新读取后重试，其他错误(例如ACL拒绝)原样抛出
+      if (!response.getErrors().stream().allMatch(KVTxnResponse.TxnError::isIndexConflict)) {
+        if (generation != null) {
+          deleteChunks(key, generation, token);
+        }
+        throw new IllegalStateException("Set chunked KV value " + key + " failed: " + response.getErrors());
+      }
+      log.debug(CommonConstant.LOG_PREFIX + ">>> Chunked KV manifest of {} changed concurrently, attempt: {} <<<", key, attempt);
+    }
+
+    if (generation != null) {
+      deleteChunks(key, generation, token);
+    }
+    throw new IllegalStateException("Chunked KV value " + key + " keeps being modified concurrently");
+  }
+
+  /**
+   * 读取一个值，分块存储时重新组装
+   *
+   * @param parallel - true 时并行逐个读取分块；false 时分块数不超过64的值在一个事务中读取，得到一致的快照
+   * @return key不存在时返回null
+   */
+  public byte[] get(String key, String token, boolean parallel) {
+    for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+      GetBinaryValue current = client.getKVBinaryValue(key, token).getValue();
+      if (current == null) {
+        return null;
+      }
+      Manifest manifest = Manifest.parse(current.getValue());
+      if (manifest == null) {
+        return current.getValue();
+      }
+
+      byte[][] chunks = parallel || manifest.chunks > KVTxn.MAX_OPERATIONS - 1
+          ? readChunksInParallel(key, manifest, token)
+          : readChunksInTxn(key, current.getModifyIndex(), manifest, token);
+      if (chunks != null) {
+        return assemble(manifest, chunks);
+      }
+      //读取分块期间清单已切换，旧generation的分块可能已被删除
+      log.debug(CommonConstant.LOG_PREFIX + ">>> Chunked KV value {} changed while reading, attempt: {} <<<", key, attempt);
+    }
+
+    throw new IllegalStateException("Chunked KV value " + key + " keeps being modified concurrently");
+  }
+
+  /**
+   * 删除一个值及其分块
+   */
+  public void delete(String key, String token) {
+    GetBinaryValue current = client.getKVBinaryValue(key, token).getValue();
+    client.deleteKVValue(key, token);
+    Manifest manifest = current == null ? null : Manifest.parse(current.getValue());
+    if (manifest != null) {
+      deleteChunks(key, manifest.generation, token);
+    }
+  }
+
+  private void writeChunks(String key, String generation, byte[] value, String token) {
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (int offset = 0, index = 0; offset < value.length; offset += chunkSize, index++) {
+      String chunkKey = chunkKey(key, generation, index);
+      byte[] chunk = Arrays.copyOfRange(value, offset, Math.min(offset + chunkSize, value.length));
+      futures.add(CompletableFuture.runAsync(() -> {
+        if (!Boolean.TRUE.equals(client.setKVBinaryValue(chunkKey, chunk, token, (PutParams) null).getValue())) {
+          throw new IllegalStateException("Write chunk " + chunkKey + " failed");
+        }
+      }, executor));
+    }
+
+    try {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    } catch (CompletionException e) {
+      deleteChunks(key, generation, token);
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+    }
+  }
+
+  /**
+   * 在一个事务中校验清单未变化并读取全部分块，清单已变化时返回null
+   */
+  private byte[][] readChunksInTxn(String key, long manifestIndex, Manifest manifest, String token) {
+    KVTxn txn = KVTxn.atomic().checkIndex(key, manifestIndex);
+    for (int index = 0; index < manifest.chunks; index++) {
+      txn.get(chunkKey(key, manifest.generation, index));
+    }
+    KVTxnResponse response = client.executeKVTxn(txn, token);
+    if (!response.isSuccess()) {
+      return null;
+    }
+
+    Map<String, GetValue> values = new HashMap<>();
+    response.getResults().forEach(result -> values.put(result.getKey(), result));
+    byte[][] chunks = new byte[manifest.chunks][];
+    for (int index = 0; index < manifest.chunks; index++) {
+      GetValue value = values.get(chunkKey(key, manifest.generation, index));
+      if (value == null) {
+        return null;
+      }
+      chunks[index] = codec.decode(value.getValue() == null ? new byte[0] : Base64.getDecoder().decode(value.getValue()));
+    }
+    return chunks;
+  }
+
+  /**
+   * 并行读取全部分块，有分块不存在时返回null
+   */
+  private byte[][] readChunksInParallel(String key, Manifest manifest, String token) {
+    List<CompletableFuture<GetBinaryValue>> futures = new ArrayList<>();
+    for (int index = 0; index < manifest.chunks; index++) {
+      String chunkKey = chunkKey(key, manifest.generation, index);
+      futures.add(CompletableFuture.supplyAsync(() -> client.getKVBinaryValue(chunkKey, token).getValue(), executor));
+    }
+
+    byte[][] chunks = new byte[manifest.chunks][];
+    for (int index = 0; index < manifest.chunks; index++) {
+      GetBinaryValue value;
+      try {
+        value = futures.get(index).join();
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+      }
+      if (value == null) {
+        return null;
+      }
+      chunks[index] = value.getValue() == null ? new byte[0] : value.getValue();
+    }
+    return chunks;
+  }
+
+  private static byte[] assemble(Manifest manifest, byte[][] chunks) {
+    byte[] value = new byte[manifest.size];
+    int offset = 0;
+    for (byte[] chunk : chunks) {
+      if (offset + chunk.length > value.length) {
+        throw new IllegalStateException("Chunks of generation " + manifest.generation + " exceed size " + manifest.size);
+      }
+      System.arraycopy(chunk, 0, value, offset, chunk.length);
+      offset += chunk.length;
+    }
+    if (offset != value.length) {
+      throw new IllegalStateException("Chunks of generation " + manifest.generation + " are incomplete: " + offset
+          + "/" + manifest.size);
+    }
+    return value;
+  }
+
+  private void deleteChunks(String key, String generation, String token) {
+    try {
+      client.deleteKVValues(chunkPrefix(key, generation), token);
+    } catch (Exception e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Delete chunks of {} generation {} failed: {} <<<", key, generation,
+          e.getMessage());
+    }
+  }
+
+  static String chunkPrefix(String key, String generation) {
+    return key + CHUNK_SUFFIX + generation + CommonConstant.SEPARATOR_VIRGULE;
+  }
+
+  static String chunkKey(String key, String generation, int index) {
+    return chunkPrefix(key, generation) + index;
+  }
+
+  /**
+   * 清单: 魔数 + generation;分块数;总大小
+   */
+  private static class Manifest {
+
+    private final String generation;
+
+    private final int chunks;
+
+    private final int size;
+
+    Manifest(String generation, int chunks, int size) {
+      this.generation = generation;
+      this.chunks = chunks;
+      this.size = size;
+    }
+
+    byte[] toBytes() {
+      byte[] body = StringUtils.joinWith(CommonConstant.SEPARATOR_SEMICOLON, generation, chunks, size)
+          .getBytes(StandardCharsets.UTF_8);
+      byte[] bytes = Arrays.copyOf(MANIFEST_MAGIC, MANIFEST_MAGIC.length + body.length);
+      System.arraycopy(body, 0, bytes, MANIFEST_MAGIC.length, body.length);
+      return bytes;
+    }
+
+    static Manifest parse(byte[] bytes) {
+      if (bytes == null || bytes.length <= MANIFEST_MAGIC.length
+          || !Arrays.equals(MANIFEST_MAGIC, Arrays.copyOf(bytes, MANIFEST_MAGIC.length))) {
+        return null;
+      }
+
+      String[] fields = new String(bytes, MANIFEST_MAGIC.length, bytes.length - MANIFEST_MAGIC.length,
+          StandardCharsets.UTF_8).split(CommonConstant.SEPARATOR_SEMICOLON);
+      if (fields.length != 3) {
+        return null;
+      }
+      //以魔数开头但字段不合法的值不是清单，按普通值处理
+      int chunks = NumberUtils.toInt(fields[1], -1);
+      int size = NumberUtils.toInt(fields[2], -1);
+      if (StringUtils.isEmpty(fields[0]) || chunks <= 0 || size < 0) {
+        return null;
+      }
+      return new Manifest(fields[0], chunks, size);
+    }
+  }
+}
@@ -3,12 +3,26 @@ package org.springframework.cloud.consul.cluster;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -16,6 +30,8 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -66,11 +82,11 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang3.ObjectUtils;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.cloud.consul.ConsulProperties;
 import org.springframework.retry.RetryCallback;
 import org.springframework.retry.RetryContext;
 import org.springframework.retry.RetryListener;
-import org.springframework.retry.policy.SimpleRetryPolicy;
 import org.springframework.retry.support.RetryTemplate;
 
 /**
@@ -123,14 +139,31 @@ import org.springframework.retry.support.RetryTemplate;
 @Slf4j
 public class ClusterConsulClient extends ConsulClient implements AclClient, AgentClient,
     CatalogClient, CoordinateClient, EventClient, HealthClient, KeyValueClient,
-    QueryClient, SessionClient, StatusClient, RetryListener {
+    QueryClient, SessionClient, StatusClient, RetryListener, DisposableBean {
 
   private static final String CURRENT_CLIENT_KEY = "currentClient";
 
+  private static final String TRIED_CLIENTS_KEY = "triedClients";
+
   @Getter
   private final ScheduledExecutorService consulClientsExecutor = Executors
       .newScheduledThreadPool(Runtime.getRuntime().availableProcessors() * 4);
 
+  /**
+   * 配置了deadline时执行每次尝试的线程池。超时的尝试在HTTP请求返回前仍占用线程，
+   * 因此线程数以 deadlineMaxConcurrency 为上限，用尽时立即失败而不是堆积线程
+   */
+  private final ExecutorService deadlineExecutor;
+
+  /**
+   * 注册类写入(包括重放与修复)的线程池，写入挂起的节点不占用 consulClientsExecutor 中定时任务的线程
+   */
+  private final ExecutorService registrationExecutor = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "cluster-consul-registration");
+    thread.setDaemon(true);
+    return thread;
+  });
+
   /**
    * ConsulClient配置
    */
@@ -144,11 +177,16 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   private List<ConsulClientHolder> consulClients;
 
   /**
-   * 重试RetryTemplate
+   * 重试RetryTemplate(DEFAULT分类)
    */
   @Getter
   private final RetryTemplate retryTemplate;
 
+  /**
+   * 按方法分类的重试RetryTemplate
+   */
+  private final Map<OperationFamily, RetryTemplate> retryTemplates;
+
   /**
    * 当前正在使用的ConsulClient
    */
@@ -161,8 +199,56 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   private Set<String> clientIdSet;
 
-  private NewService currentNewService;
-  private String currentToken;
+  /**
+   * 注册日志，节点重新加入时重放
+   */
+  @Getter
+  private final RegistrationJournal registrationJournal = new RegistrationJournal();
+
+  /**
+   * 节点坐标缓存，仅在 rttOrdering=COORDINATES 时创建
+   */
+  @Getter
+  private NodeCoordinateCache nodeCoordinateCache;
+
+  /**
+   * 从集群成员中发现的agent，仅在 agentDiscovery=true 时创建
+   */
+  @Getter
+  private AgentDiscovery agentDiscovery;
+
+  /**
+   * 多点写入(注册、注销、维护模式)
+   */
+  @Getter
+  private final QuorumRegistrar quorumRegistrar = new QuorumRegistrar(this.registrationExecutor);
+
+  /**
+   * KV二进制值编解码(压缩)
+   */
+  private final KVValueCodec kvValueCodec;
+
+  /**
+   * 超过大小限制的KV值的分块存储
+   */
+  private final ChunkedKVStore chunkedKVStore;
+
+  /**
+   * session续约管理
+   */
+  @Getter
+  private final SessionRenewalManager sessionRenewalManager;
+
+  /**
+   * KV写缓冲，仅在 kvWriteBufferWindow 大于0时创建
+   */
+  @Getter
+  private KVWriteBuffer kvWriteBuffer;
+
+  /**
+   * prepared query结果缓存，未开启时为null
+   */
+  private PreparedQueryCache preparedQueryCache;
 
   /**
    * 集群节点在出错时切换的锁
@@ -172,44 +258,81 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   public ClusterConsulClient(ClusterConsulProperties clusterConsulProperties) {
     super();
     this.clusterConsulProperties = clusterConsulProperties;
+    this.deadlineExecutor = new ThreadPoolExecutor(0, clusterConsulProperties.getDeadlineMaxConcurrency(), 60,
+        TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, "cluster-consul-deadline");
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.kvValueCodec = new KVValueCodec(clusterConsulProperties.getKvCompression(),
+        clusterConsulProperties.getKvCompressionThreshold());
+    this.chunkedKVStore = new ChunkedKVStore(this, this.kvValueCodec, this.consulClientsExecutor,
+        clusterConsulProperties.getKvChunkSize());
     this.consulClientHealthMap = Maps.newConcurrentMap();
     this.clientIdSet = Sets.newHashSet();
     // 创建所有集群节点
     this.consulClients = createConsulClients();
     // 创建重试模板
-    this.retryTemplate = createRetryTemplate();
+    this.retryTemplates = new EnumMap<>(OperationFamily.class);
+    for (OperationFamily family : OperationFamily.values()) {
+      this.retryTemplates.put(family, createRetryTemplate(family));
+    }
+    this.retryTemplate = this.retryTemplates.get(OperationFamily.DEFAULT);
     // 初始化客户端
     this.currentClient = initCurrentConsulClient();
     this.scheduleConsulClientsHealthCheck();
     this.scheduleConsulClientsCreate();
+    this.scheduleNodeCoordinatesRefresh();
+    this.scheduleRegistrationAntiEntropy();
+    this.scheduleAgentDiscovery();
+    this.sessionRenewalManager = new SessionRenewalManager(this, this.consulClientsExecutor,
+        clusterConsulProperties.getSessionRenewalTick(), clusterConsulProperties.getSessionRenewalBatchSize(),
+        clusterConsulProperties.getSessionRenewalConcurrency());
+    if (clusterConsulProperties.getKvWriteBufferWindow() > 0) {
+      this.kvWriteBuffer = new KVWriteBuffer(this::executeKVTxn, this.consulClientsExecutor,
+          clusterConsulProperties.getKvWriteBufferWindow());
+    }
+    if (clusterConsulProperties.isPreparedQueryCache()) {
+      this.preparedQueryCache = new PreparedQueryCache(this::loadPreparedQuery, this.consulClientsExecutor,
+          clusterConsulProperties.getPreparedQueryCacheTtl(), clusterConsulProperties.getPreparedQueryCacheMaxSize());
+    }
   }
 
-  //重新注册
-  private void agentServiceReregister() {
-    Response<Void> result = null;
-    for (ConsulClientHolder consulClient : this.consulClients) {
-      if (consulClient.isHealthy()) {
-        if (ObjectUtils.isNotEmpty(this.currentNewService)) {
-          if (ObjectUtils.isNotEmpty(this.currentToken)) {
-            result = consulClient.getClient().agentServiceRegister(this.currentNewService, this.currentToken);
-          } else {
-            result = consulClient.getClient().agentServiceRegister(this.currentNewService);
-          }
-        }
-      }
+  /**
+   * 关闭时提交KV写缓冲中剩余的写入，停止续约session及prepared query结果的刷新
+   */
+  @Override
+  public void destroy() {
+    if (this.kvWriteBuffer != null) {
+      this.kvWriteBuffer.close();
+    }
+    if (this.preparedQueryCache != null) {
+      this.preparedQueryCache.close();
     }
+    this.sessionRenewalManager.close();
+  }
 
-    if (ObjectUtils.isNotEmpty(this.currentNewService)) {
-      if (ObjectUtils.isNotEmpty(this.currentToken)) {
-        log.debug(
-            CommonConstant.LOG_PREFIX + ">>> function agentServiceReregister => currentNewService: {}  ===  currentToken: {} ===  result: {} <<<",
-            this.currentNewService, this.currentToken, result);
-      } else {
-        log.debug(
-            CommonConstant.LOG_PREFIX + ">>> function agentServiceReregister => currentNewService: {}  ===  result: {} <<<",
-            this.currentNewService, result);
-      }
+  /**
+   * 向重新加入的节点并行重放注册日志，不等待重放完成
+   */
+  protected CompletableFuture<Void> replayRegistrationJournal(List<ConsulClientHolder> rejoinedClients) {
+    if (this.registrationJournal.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
     }
+
+    //自动发现的agent不写入注册信息
+    Set<String> staticNodes = AgentDiscovery.staticNodes(this.clusterConsulProperties);
+    rejoinedClients = rejoinedClients.stream()
+        .filter(consulClient -> staticNodes.contains(consulClient.getClientId())).collect(Collectors.toList());
+    if (rejoinedClients.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    log.info(CommonConstant.LOG_PREFIX + ">>> Replay registration journal on rejoined ConsulClients: {} <<<",
+        rejoinedClients);
+    return CompletableFuture.allOf(rejoinedClients.stream()
+        .map(consulClient -> this.registrationJournal.replay(consulClient, this.quorumRegistrar))
+        .toArray(CompletableFuture[]::new));
   }
 
   /**
@@ -227,15 +350,17 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
       properties.setTls(clusterConsulProperties.getTls());
       properties.setHost(connects[0]);
       properties.setPort(Integer.parseInt(connects[1]));
+      // 可选的第三段为节点所在可用区: host:port:zone
+      String zone = connects.length > 2 ? connects[2] : null;
 
-      ConsulClientHolder consulClientHolder = new ConsulClientHolder(properties);
+      ConsulClientHolder consulClientHolder = new ConsulClientHolder(properties, zone);
       clientIdSet.add(consulClientHolder.getClientId());
 
       return consulClientHolder;
     }).filter(ConsulClientHolder::isHealthy).sorted().collect(Collectors.toList()); // 排序
 
-    //consul agent数小于配置的consul agent数，说明有consul节点不可用。告警。
-    if (tmpConsulClients.size() < this.clusterConsulProperties.getClusterNodes().size()) {
+    //consul agent数小于配置(及自动发现)的consul agent数，说明有consul节点不可用。告警。
+    if (tmpConsulClients.size() < connectList.size()) {
       log.warn(CommonConstant.LOG_PREFIX + ">>> Some consul clients are not available. Please check.");
     }
 
@@ -261,15 +386,41 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
    */
   protected List<String> prepareConnectList() {
     List<String> connectList = this.clusterConsulProperties.getClusterNodes();
+    if (this.agentDiscovery != null && !this.agentDiscovery.getDiscoveredNodes().isEmpty()) {
+      connectList = new ArrayList<>(connectList);
+      connectList.addAll(this.agentDiscovery.getDiscoveredNodes());
+    }
     log.info(CommonConstant.LOG_PREFIX + ">>> Connect list: " + connectList + " <<<");
 
     return connectList;
   }
 
   /**
-   * 创建重试 RetryTemplate， 默认使用SimpleRetryPolicy(maxAttempts定为consulClients.size() + 1)
+   * 创建重试 RetryTemplate， 使用 ClusterRetryPolicy(只重试未尝试过的节点，受重试预算限制)
+   * 及 DecorrelatedJitterBackOffPolicy，参数取自 spring.cloud.consul.operation-retry.[family]
    */
-  protected RetryTemplate createRetryTemplate() {
+  protected RetryTemplate createRetryTemplate(OperationFamily family) {
+    ClusterConsulProperties.RetrySettings settings = this.clusterConsulProperties.getRetrySettings(family);
+    //默认每个节点最多尝试一次，包括自动发现的agent(实际次数受未尝试的节点数限制)
+    int maxNodes = this.clusterConsulProperties.getClusterNodes().size()
+        + (this.clusterConsulProperties.isAgentDiscovery() ? this.clusterConsulProperties.getAgentDiscoveryMaxAgents() : 0);
+    int maxAttempts = settings.getMaxAttempts() != null ? settings.getMaxAttempts() : maxNodes;
+
+    RetryTemplate tmpRetryTemplate = new RetryTemplate();
+    tmpRetryTemplate.setRetryPolicy(new ClusterRetryPolicy(family, maxAttempts, createRetryableExceptions(),
+        new RetryBudget(settings.getBudgetRatio(), settings.getBudgetMaxTokens()), this::hasUntriedConsulClient));
+    tmpRetryTemplate.setBackOffPolicy(
+        new DecorrelatedJitterBackOffPolicy(settings.getBackOffBase(), settings.getBackOffCap()));
+    tmpRetryTemplate.setListeners(new RetryListener[]{this});
+    log.debug(CommonConstant.LOG_PREFIX + ">>> Retry template of {} created: {} <<<", family, settings);
+
+    return tmpRetryTemplate;
+  }
+
+  /**
+   * 重试的前提条件(异常)
+   */
+  protected Map<Class<? extends Throwable>, Boolean> createRetryableExceptions() {
     Map<Class<? extends Throwable>, Boolean> retryableExceptions = null;
 
     if (CollectionUtils.isNotEmpty(clusterConsulProperties.getRetryableExceptions())) {
@@ -282,13 +433,81 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
       retryableExceptions = createDefaultRetryableExceptions();
     }
 
-    RetryTemplate tmpRetryTemplate = new RetryTemplate();
-    SimpleRetryPolicy retryPolicy = new SimpleRetryPolicy(this.clusterConsulProperties.getClusterNodes().size(),
-        retryableExceptions, true);
-    tmpRetryTemplate.setRetryPolicy(retryPolicy);
-    tmpRetryTemplate.setListeners(new RetryListener[]{this});
+    return retryableExceptions;
+  }
 
-    return tmpRetryTemplate;
+  /**
+   * 使用给定分类的RetryTemplate执行
+   */
+  protected <T> T execute(OperationFamily family, RetryCallback<T, RuntimeException> callback) {
+    return execute(family, null, callback);
+  }
+
+  /**
+   * 使用给定分类的RetryTemplate执行，配置了deadline时每次尝试只使用剩余的时间，期限用尽后立即失败
+   *
+   * @param queryParams - 用于识别阻塞查询，可为空
+   */
+  protected <T> T execute(OperationFamily family, QueryParams queryParams,
+      RetryCallback<T, RuntimeException> callback) {
+    RetryTemplate tmpRetryTemplate = this.retryTemplates.get(family);
+    long deadline = getDeadline(family, queryParams);
+    if (deadline <= 0) {
+      return tmpRetryTemplate.execute(callback);
+    }
+
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline);
+    return tmpRetryTemplate.execute(context -> {
+      // 退避时间不超过剩余的期限
+      context.setAttribute(DecorrelatedJitterBackOffPolicy.DEADLINE_NANOS_KEY, deadlineNanos);
+      long remaining = deadlineNanos - System.nanoTime();
+      if (remaining <= 0) {
+        throw new DeadlineExceededException(family + " deadline " + deadline + "ms exceeded before attempt "
+            + (context.getRetryCount() + 1));
+      }
+
+      Future<T> future;
+      try {
+        future = this.deadlineExecutor.submit(() -> callback.doWithRetry(context));
+      } catch (RejectedExecutionException e) {
+        throw new DeadlineExceededException(family + " rejected: " + this.clusterConsulProperties
+            .getDeadlineMaxConcurrency() + " attempts with deadline are already in flight");
+      }
+      try {
+        return future.get(remaining, TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        future.cancel(true);
+        throw new DeadlineExceededException(family + " deadline " + deadline + "ms exceeded in attempt "
+            + (context.getRetryCount() + 1));
+      } catch (InterruptedException e) {
+        future.cancel(true);
+        Thread.currentThread().interrupt();
+        throw new DeadlineExceededException(family + " call interrupted");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+      }
+    });
+  }
+
+  /**
+   * 调用的总期限(毫秒)，阻塞查询为 wait + wait/16 + 余量
+   */
+  private long getDeadline(OperationFamily family, QueryParams queryParams) {
+    long deadline = this.clusterConsulProperties.getRetrySettings(family).getDeadline();
+    if (deadline > 0 && queryParams != null && queryParams.getWaitTime() > 0) {
+      long waitMillis = TimeUnit.SECONDS.toMillis(queryParams.getWaitTime());
+      deadline = Math.max(deadline,
+          waitMillis + waitMillis / 16 + this.clusterConsulProperties.getBlockingQueryDeadlineMargin());
+    }
+
+    return deadline;
   }
 
   /**
@@ -317,7 +536,9 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   }
 
   private ConsulClientHolder chooseClient(String key, List<ConsulClientHolder> clients) {
-    ConsulClientHolder chooseClient = ConsulClientUtil.chooseClient(key, clients);
+    ConsulClientHolder chooseClient = isLocalityAffinity()
+        ? ConsulClientUtil.chooseClient(key, clients, this::localityTier)
+        : ConsulClientUtil.chooseClient(key, clients);
     log.info(CommonConstant.LOG_PREFIX + ">>>  Hash Key: {}  ==== Hash List: {}  ====  Hash Result: {} <<<", key, clients, chooseClient);
 
     return chooseClient;
@@ -356,13 +577,87 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
     }
   }
 
+  /**
+   * 节点列表替换后，当前节点改为新列表中的同一节点(旧的ConsulClientHolder不再做健康检测)；
+   * 当前节点已不在列表中(例如自动发现的agent离开集群)时重新选择
+   */
+  protected void rebindCurrentConsulClient() {
+    try {
+      this.chooseLock.lock();
+      String currentClientId = this.currentClient.getClientId();
+      ConsulClientHolder sameClient = this.consulClients.stream()
+          .filter(consulClient -> consulClient.getClientId().equals(currentClientId)).findFirst().orElse(null);
+      if (ObjectUtils.isNotEmpty(sameClient)) {
+        this.currentClient = sameClient;
+        return;
+      }
+
+      List<ConsulClientHolder> availableClients = this.consulClients.stream()
+          .filter(ConsulClientHolder::isHealthy).sorted()
+          .collect(Collectors.toList());
+      ConsulClientHolder choosedClient = chooseClient(this.clusterConsulProperties.getClusterClientKey(),
+          ObjectUtils.isNotEmpty(availableClients) ? availableClients : this.consulClients);
+      if (ObjectUtils.isNotEmpty(choosedClient)) {
+        log.info(CommonConstant.LOG_PREFIX + ">>> ConsulClient[{}] was removed, switch to {} <<<", currentClientId,
+            choosedClient);
+        this.currentClient = choosedClient;
+      } else {
+        log.error(CommonConstant.LOG_PREFIX + ">>> No consul client is available!!!");
+      }
+    } finally {
+      this.chooseLock.unlock();
+    }
+  }
+
+  /**
+   * LOCALITY策略下，如果有比当前节点更近的健康节点(例如本机agent恢复)，则切换回去
+   */
+  protected void preferLocalityConsulClient() {
+    if (!isLocalityAffinity()) {
+      return;
+    }
+
+    try {
+      this.chooseLock.lock();
+      List<ConsulClientHolder> availableClients = this.consulClients.stream()
+          .filter(ConsulClientHolder::isHealthy).sorted()
+          .collect(Collectors.toList());
+      ConsulClientHolder choosedClient = chooseClient(
+          this.clusterConsulProperties.getClusterClientKey(), availableClients);
+      if (ObjectUtils.isNotEmpty(choosedClient) && this.currentClient.isHealthy()
+          && localityTier(choosedClient) < localityTier(this.currentClient)) {
+        log.info(CommonConstant.LOG_PREFIX + ">>> Switch to nearer ConsulClient : {} <<<", choosedClient);
+        this.currentClient = choosedClient;
+      }
+    } finally {
+      this.chooseLock.unlock();
+    }
+  }
+
+  private boolean isLocalityAffinity() {
+    return this.clusterConsulProperties.getAgentAffinity() == ClusterConsulProperties.AgentAffinity.LOCALITY;
+  }
+
+  private int localityTier(ConsulClientHolder client) {
+    return ConsulClientUtil.localityTier(client.getProperties().getHost(), client.getZone(),
+        this.clusterConsulProperties.getClusterClientKey(), this.clusterConsulProperties.getLocalZone());
+  }
+
   /**
    * 获取重试的ConsulClient
    *
    * @param context - 重试上下文
    */
   protected ConsulClient getRetryConsulClient(RetryContext context) {
-    context.setAttribute(CURRENT_CLIENT_KEY, this.currentClient);
+    return getRetryConsulClientHolder(context).getClient();
+  }
+
+  /**
+   * 获取重试的ConsulClientHolder，需要使用 ConsulRawClient 时调用
+   *
+   * @param context - 重试上下文
+   */
+  protected ConsulClientHolder getRetryConsulClientHolder(RetryContext context) {
     int retryCount = context.getRetryCount();
     if ((!this.currentClient.isHealthy())
         && (CollectionUtils.isNotEmpty(this.consulClients))) {
@@ -370,12 +665,51 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
           this.currentClient);
       chooseConsulClient();
     }
+
+    ConsulClientHolder client = this.currentClient;
+    Set<String> triedClients = getTriedClients(context);
+    if (triedClients.contains(client.getClientId())) {
+      // 当前节点在本次调用中已经失败过，换一个未尝试过的健康节点
+      ConsulClientHolder untriedClient = chooseClient(this.clusterConsulProperties.getClusterClientKey(),
+          getUntriedConsulClients(triedClients));
+      if (ObjectUtils.isNotEmpty(untriedClient)) {
+        client = untriedClient;
+      }
+    }
+    triedClients.add(client.getClientId());
+    context.setAttribute(CURRENT_CLIENT_KEY, client);
     if (retryCount > 0) {
-      log.info(CommonConstant.LOG_PREFIX + ">>> Using current ConsulClient[{}] for retry {} <<<",
-          this.currentClient, retryCount);
+      log.info(CommonConstant.LOG_PREFIX + ">>> Using ConsulClient[{}] for retry {} <<<",
+          client, retryCount);
     }
 
-    return this.currentClient.getClient();
+    return client;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Set<String> getTriedClients(RetryContext context) {
+    Set<String> triedClients = (Set<String>) context.getAttribute(TRIED_CLIENTS_KEY);
+    if (triedClients == null) {
+      triedClients = new HashSet<>();
+      context.setAttribute(TRIED_CLIENTS_KEY, triedClients);
+    }
+
+    return triedClients;
+  }
+
+  private List<ConsulClientHolder> getUntriedConsulClients(Set<String> triedClients) {
+    return this.consulClients.stream()
+        .filter(client -> client.isHealthy() && !triedClients.contains(client.getClientId())).sorted()
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * 本次调用是否还有未尝试过的健康节点，没有经过 getRetryConsulClient 的调用总是可以重试(多点注册见 writeQuorum)
+   */
+  private boolean hasUntriedConsulClient(RetryContext context) {
+    Set<String> triedClients = getTriedClients(context);
+
+    return triedClients.isEmpty() || !getUntriedConsulClients(triedClients).isEmpty();
   }
 
   @Override
@@ -388,14 +722,19 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   public final <T, E extends Throwable> void close(RetryContext context,
       RetryCallback<T, E> callback, Throwable throwable) {
     context.removeAttribute(CURRENT_CLIENT_KEY);
+    context.removeAttribute(TRIED_CLIENTS_KEY);
   }
 
   /**
-   * 每次ConsulClient调用出错之后且在下次重试之前调用该方法
+   * 每次ConsulClient调用出错之后且在下次重试之前调用该方法，请求本身的错误(例如session不存在)及期限用尽不标记节点不健康
    */
   @Override
   public <T, E extends Throwable> void onError(RetryContext context,
       RetryCallback<T, E> callback, Throwable throwable) {
+    //请求本身的错误、调用期限用尽都不说明当前节点不健康
+    if (ClusterRetryPolicy.isRequestError(throwable) || throwable instanceof DeadlineExceededException) {
+      return;
+    }
     ConsulClientHolder tmpCurrentClient = (ConsulClientHolder) context
         .getAttribute(CURRENT_CLIENT_KEY);
     if (ObjectUtils.isNotEmpty(tmpCurrentClient)) {
@@ -418,11 +757,36 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
         clusterConsulProperties.getHealthCheckInterval(), TimeUnit.MILLISECONDS);
   }
 
+  /**
+   * 定期刷新节点坐标
+   */
+  protected void scheduleNodeCoordinatesRefresh() {
+    if (clusterConsulProperties.getRttOrdering() != InstanceRttOrdering.effectiveMode(clusterConsulProperties)) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> rttOrdering={} has no effect when services are registered on {} "
+          + "nodes <<<", clusterConsulProperties.getRttOrdering(), clusterConsulProperties.getClusterNodes().size());
+    }
+    if (clusterConsulProperties.getRttOrdering() != ClusterConsulProperties.RttOrdering.COORDINATES) {
+      return;
+    }
+
+    this.nodeCoordinateCache = new NodeCoordinateCache(this);
+    consulClientsExecutor.scheduleWithFixedDelay(this.nodeCoordinateCache::refresh, 0,
+        clusterConsulProperties.getCoordinateRefreshInterval(), TimeUnit.MILLISECONDS);
+  }
+
   /**
    * 对全部的ConsulClient检测一次健康状况
    */
   protected void checkConsulClientsHealth() {
+    Map<String, Boolean> previousHealthMap = this.consulClientHealthMap;
     this.consulClientHealthMap = checkAllConsulClientsHealth();
+    //由不健康恢复为健康的节点视为重新加入
+    replayRegistrationJournal(this.consulClients.stream()
+        .filter(consulClient -> consulClient.isHealthy()
+            && Boolean.FALSE.equals(previousHealthMap.get(consulClient.getClientId())))
+        .collect(Collectors.toList()));
+    repairPendingRegistrations();
+    preferLocalityConsulClient();
 
     boolean allHealthy = isAllConsulClientsHealthy();
     if (allHealthy) {
@@ -443,6 +807,14 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
     log.warn(CommonConstant.LOG_PREFIX + ">>> some consul clients are unhealthy. Please check!  <<<");
 
     //存在不健康的consul节点，重新建立client
+    recreateConsulClients();
+  }
+
+  /**
+   * 按当前的连接列表重新建立client，节点有变化时替换并向新加入的节点重放注册日志
+   */
+  protected synchronized void recreateConsulClients() {
+    this.clientIdSet = Sets.newHashSet();
     List<ConsulClientHolder> tmpConsulClients = createConsulClients();
 
     boolean flag = ListUtil.isSame(this.consulClients, tmpConsulClients);
@@ -452,10 +824,109 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
     //consul节点有变化
     if (!flag) {
+      Set<String> healthyClientIds = this.consulClients.stream().filter(ConsulClientHolder::isHealthy)
+          .map(ConsulClientHolder::getClientId).collect(Collectors.toSet());
       this.consulClients = tmpConsulClients;
-      //重新注册
-      agentServiceReregister();
+      rebindCurrentConsulClient();
+      //向重新加入的节点重放注册日志
+      replayRegistrationJournal(tmpConsulClients.stream()
+          .filter(consulClient -> !healthyClientIds.contains(consulClient.getClientId()))
+          .collect(Collectors.toList()));
+    }
+  }
+
+  /**
+   * 定期从集群成员中发现agent，发现的节点有变化时重新建立client
+   */
+  protected void scheduleAgentDiscovery() {
+    if (!clusterConsulProperties.isAgentDiscovery()) {
+      return;
+    }
+
+    this.agentDiscovery = new AgentDiscovery(this, clusterConsulProperties);
+    consulClientsExecutor.scheduleWithFixedDelay(this::discoverAgents, 0,
+        clusterConsulProperties.getAgentDiscoveryInterval(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 发现一次agent，有变化时重新建立client
+   */
+  protected synchronized void discoverAgents() {
+    if (this.agentDiscovery.refresh()) {
+      recreateConsulClients();
+    }
+  }
+
+  /**
+   * 定期对每个健康节点做注册信息的反熵修复
+   */
+  protected void scheduleRegistrationAntiEntropy() {
+    if (clusterConsulProperties.getAntiEntropyInterval() <= 0) {
+      return;
     }
+
+    consulClientsExecutor.scheduleWithFixedDelay(this::repairRegistrations,
+        clusterConsulProperties.getAntiEntropyInterval(), clusterConsulProperties.getAntiEntropyInterval(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 对比每个健康节点上的服务、检查及维护模式与注册日志，只修复该节点上不一致的部分，不等待修复的写入完成
+   */
+  protected CompletableFuture<Void> repairRegistrations() {
+    if (this.registrationJournal.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    List<CompletableFuture<Integer>> repairs = new ArrayList<>();
+    for (ConsulClientHolder consulClient : getRegistrationConsulClients()) {
+      try {
+        repairs.add(RegistrationAntiEntropy.repair(consulClient, this.registrationJournal, this.quorumRegistrar));
+      } catch (Exception e) {
+        log.warn(CommonConstant.LOG_PREFIX + ">>> Anti-entropy on ConsulClient[{}] failed: {} <<<",
+            consulClient.getClientId(), e.getMessage());
+      }
+    }
+
+    return CompletableFuture.allOf(repairs.toArray(new CompletableFuture[0]));
+  }
+
+  /**
+   * 向之前写入失败、现已恢复健康的节点重放失败的写入，不等待重放完成
+   */
+  protected CompletableFuture<Void> repairPendingRegistrations() {
+    List<CompletableFuture<Boolean>> repairs = new ArrayList<>();
+    for (ConsulClientHolder consulClient : this.consulClients) {
+      if (consulClient.isHealthy()
+          && this.quorumRegistrar.getPendingRepairAgents().contains(consulClient.getClientId())) {
+        repairs.add(this.quorumRegistrar.repair(consulClient));
+      }
+    }
+
+    return CompletableFuture.allOf(repairs.toArray(new CompletableFuture[0]));
+  }
+
+  /**
+   * 注册类写入的目标节点：健康的、spring.cloud.consul.cluster.nodes 中配置的节点。
+   * 自动发现的agent只分担读请求，不写入注册信息，离开节点池时也就无需注销
+   */
+  private List<ConsulClientHolder> getRegistrationConsulClients() {
+    Set<String> staticNodes = AgentDiscovery.staticNodes(this.clusterConsulProperties);
+    return this.consulClients.stream()
+        .filter(consulClient -> consulClient.isHealthy() && staticNodes.contains(consulClient.getClientId()))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * 向注册节点多点写入。未达到法定数时失败的节点已记入待修复，整体重试只会再广播一遍并在每个节点上叠加一次写入，
+   * 因此多点写入的失败是最终结果，不再由RetryTemplate重试
+   */
+  private Response<Void> writeQuorum(RetryContext context, String operation,
+      Function<ConsulClient, Response<Void>> action) {
+    context.setAttribute(ClusterRetryPolicy.FINAL_ATTEMPT_KEY, Boolean.TRUE);
+
+    return this.quorumRegistrar.write(operation, getRegistrationConsulClients(),
+        this.clusterConsulProperties.getRegistrationQuorum(), action);
   }
 
   private Map<String, Boolean> checkAllConsulClientsHealth() {
@@ -482,7 +953,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<String> getStatusLeader() {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<String> leader = getRetryConsulClient(context).getStatusLeader();
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getStatusLeader => leader: {} <<<", leader);
 
@@ -492,7 +963,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<String>> getStatusPeers() {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<List<String>> peers = getRetryConsulClient(context).getStatusPeers();
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getStatusPeers => peers: {} <<<", peers);
 
@@ -502,19 +973,19 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<String> sessionCreate(NewSession newSession, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return autoRenew(newSession, null, execute(OperationFamily.SESSION, queryParams, context -> {
       Response<String> sessionCreate = getRetryConsulClient(context).sessionCreate(newSession, queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function sessionCreate => newSession: {} === queryParams: {} === sessionCreate: {} <<<", newSession,
           queryParams,
           sessionCreate);
 
       return sessionCreate;
-    });
+    }));
   }
 
   @Override
   public Response<String> sessionCreate(NewSession newSession, QueryParams queryParams, String token) {
-    return this.retryTemplate.execute(context -> {
+    return autoRenew(newSession, token, execute(OperationFamily.SESSION, queryParams, context -> {
       Response<String> sessionCreate = getRetryConsulClient(context).sessionCreate(newSession,
           queryParams, token);
       log.debug(
@@ -523,12 +994,24 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
           queryParams, token, sessionCreate);
 
       return sessionCreate;
-    });
+    }));
+  }
+
+  /**
+   * 开启 sessionAutoRenew 时，带TTL的session创建成功后交给 SessionRenewalManager 续约
+   */
+  private Response<String> autoRenew(NewSession newSession, String token, Response<String> sessionCreate) {
+    if (clusterConsulProperties.isSessionAutoRenew() && sessionCreate != null) {
+      this.sessionRenewalManager.register(sessionCreate.getValue(), newSession.getTtl(), token, null);
+    }
+
+    return sessionCreate;
   }
 
   @Override
   public Response<Void> sessionDestroy(String session, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    this.sessionRenewalManager.unregister(session);
+    return execute(OperationFamily.SESSION, queryParams, context -> {
       log.debug(CommonConstant.LOG_PREFIX + ">>> function sessionDestroy => session: {} === queryParams: {}  <<<", session, queryParams);
 
       return getRetryConsulClient(context).sessionDestroy(session, queryParams);
@@ -537,7 +1020,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> sessionDestroy(String session, QueryParams queryParams, String token) {
-    return this.retryTemplate.execute(context -> {
+    this.sessionRenewalManager.unregister(session);
+    return execute(OperationFamily.SESSION, queryParams, context -> {
       log.debug(CommonConstant.LOG_PREFIX + ">>> function sessionDestroy => session: {} === queryParams: {}  === token: {} <<<", session,
           queryParams, token);
 
@@ -547,7 +1031,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Session> getSessionInfo(String session, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.SESSION, queryParams, context -> {
       Response<Session> sessionInfo = getRetryConsulClient(context).getSessionInfo(session, queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getSessionInfo => session: {} === queryParams: {}  === sessionInfo: {} <<<", session,
           queryParams,
@@ -559,7 +1043,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Session> getSessionInfo(String session, QueryParams queryParams, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.SESSION, queryParams, context -> {
       Response<Session> sessionInfo = getRetryConsulClient(context).getSessionInfo(session, queryParams, token);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getSessionInfo => session: {} === queryParams: {}  === sessionInfo: {} <<<", session,
           queryParams,
@@ -571,7 +1055,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Session>> getSessionNode(String node, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.SESSION, queryParams, context -> {
       Response<List<Session>> sessionNode = getRetryConsulClient(context).getSessionNode(node, queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getSessionNode => node: {} === queryParams: {}  === sessionNode: {} <<<", node,
           queryParams, sessionNode);
@@ -582,7 +1066,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Session>> getSessionNode(String node, QueryParams queryParams, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.SESSION, queryParams, context -> {
       Response<List<Session>> sessionNode = getRetryConsulClient(context).getSessionNode(node,
           queryParams, token);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getSessionNode => node: {} === queryParams: {}  === token: {}  === sessionNode: {} <<<",
@@ -595,7 +1079,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Session>> getSessionList(QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.SESSION, queryParams, context -> {
       Response<List<Session>> sessionList = getRetryConsulClient(context).getSessionList(queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getSessionList => queryParams: {}   === sessionList: {} <<<", queryParams, sessionList);
 
@@ -605,7 +1089,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Session>> getSessionList(QueryParams queryParams, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.SESSION, queryParams, context -> {
       Response<List<Session>> sessionList = getRetryConsulClient(context).getSessionList(queryParams, token);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getSessionList => queryParams: {}   === token: {} === sessionList: {} <<<", queryParams,
           token,
@@ -617,7 +1101,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Session> renewSession(String session, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.SESSION, queryParams, context -> {
       Response<Session> renewSession = getRetryConsulClient(context).renewSession(session,
           queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function renewSession => session: {}   ===  queryParams: {}   === renewSession: {} <<<", session,
@@ -630,7 +1114,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Session> renewSession(String session, QueryParams queryParams, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.SESSION, queryParams, context -> {
       Response<Session> renewSession = getRetryConsulClient(context).renewSession(session,
           queryParams, token);
       log.debug(
@@ -642,9 +1126,16 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
     });
   }
 
+  /**
+   * 开启 preparedQueryCache 时非阻塞的查询从缓存读取
+   */
   @Override
   public Response<QueryExecution> executePreparedQuery(String uuid, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    if (this.preparedQueryCache != null && (queryParams == null || queryParams.getIndex() == -1)) {
+      return this.preparedQueryCache.get(uuid, queryParams);
+    }
+
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<QueryExecution> queryExecution = getRetryConsulClient(context).executePreparedQuery(uuid,
           queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function executePreparedQuery => uuid: {}   ===  queryParams: {}   === queryExecution: {}  <<<",
@@ -655,9 +1146,23 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
     });
   }
 
+  /**
+   * 执行prepared query并读取其DNS TTL，供结果缓存加载及刷新
+   */
+  private PreparedQueryCache.Result loadPreparedQuery(String uuid, QueryParams queryParams) {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
+      PreparedQueryCache.Result result = PreparedQueryCache.execute(getRetryConsulClientHolder(context).getRawClient(),
+          uuid, queryParams == null ? QueryParams.DEFAULT : queryParams);
+      log.debug(CommonConstant.LOG_PREFIX + ">>> function loadPreparedQuery => uuid: {}   ===  queryParams: {}   === ttl: {}  <<<",
+          uuid, queryParams, result.getTtl());
+
+      return result;
+    });
+  }
+
   @Override
   public Response<GetValue> getKVValue(String key) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, context -> {
       Response<GetValue> value = getRetryConsulClient(context).getKVValue(key);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVValue => key: {}   ===  value: {} <<<", key, value);
 
@@ -667,7 +1172,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<GetValue> getKVValue(String key, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, context -> {
       Response<GetValue> value = getRetryConsulClient(context).getKVValue(key, token);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVValue => key: {}   ===  token: {}  ===  value: {} <<<", key, token, value);
 
@@ -677,7 +1182,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<GetValue> getKVValue(String key, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, queryParams, context -> {
       Response<GetValue> value = getRetryConsulClient(context).getKVValue(key, queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVValue => key: {}   ===  queryParams: {}  ===  value: {} <<<", key, queryParams,
           value);
@@ -688,7 +1193,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<GetValue> getKVValue(String key, String token, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, queryParams, context -> {
       Response<GetValue> value = getRetryConsulClient(context).getKVValue(key, token,
           queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVValue => key: {}   ===  token: {}  ===  queryParams: {}  ===  value: {} <<<", key,
@@ -701,41 +1206,41 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<GetBinaryValue> getKVBinaryValue(String key) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, context -> {
       Response<GetBinaryValue> binaryValue = getRetryConsulClient(context).getKVBinaryValue(key);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVBinaryValue => key: {}  ===  binaryValue: {} <<<", key, binaryValue);
 
-      return binaryValue;
+      return kvValueCodec.decode(binaryValue);
     });
   }
 
   @Override
   public Response<GetBinaryValue> getKVBinaryValue(String key, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, context -> {
       Response<GetBinaryValue> binaryValue = getRetryConsulClient(context).getKVBinaryValue(key, token);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVBinaryValue => key: {}  ===  token: {}  ===  binaryValue: {} <<<", key, token,
           binaryValue);
 
-      return binaryValue;
+      return kvValueCodec.decode(binaryValue);
     });
   }
 
   @Override
   public Response<GetBinaryValue> getKVBinaryValue(String key, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, queryParams, context -> {
       Response<GetBinaryValue> binaryValue = getRetryConsulClient(context).getKVBinaryValue(key,
           queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVBinaryValue => key: {}  ===  queryParams: {}  ===  binaryValue: {} <<<", key,
           queryParams,
           binaryValue);
 
-      return binaryValue;
+      return kvValueCodec.decode(binaryValue);
     });
   }
 
   @Override
   public Response<GetBinaryValue> getKVBinaryValue(String key, String token, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, queryParams, context -> {
       Response<GetBinaryValue> binaryValue = getRetryConsulClient(context).getKVBinaryValue(key, token,
           queryParams);
       log.debug(
@@ -743,13 +1248,13 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
           key, token,
           queryParams, binaryValue);
 
-      return binaryValue;
+      return kvValueCodec.decode(binaryValue);
     });
   }
 
   @Override
   public Response<List<GetValue>> getKVValues(String keyPrefix) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, context -> {
       Response<List<GetValue>> valueList = getRetryConsulClient(context).getKVValues(keyPrefix);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVValues => keyPrefix: {}  ===  valueList: {} <<<", keyPrefix, valueList);
 
@@ -759,7 +1264,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<GetValue>> getKVValues(String keyPrefix, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, context -> {
       Response<List<GetValue>> valueList = getRetryConsulClient(context).getKVValues(keyPrefix,
           token);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVValues => keyPrefix: {}  ===  token: {}  ===  valueList: {} <<<", keyPrefix, token,
@@ -771,7 +1276,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<GetValue>> getKVValues(String keyPrefix, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, queryParams, context -> {
       Response<List<GetValue>> valueList = getRetryConsulClient(context).getKVValues(keyPrefix,
           queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVValues => keyPrefix: {}  ===  queryParams: {}  ===  valueList: {} <<<", keyPrefix,
@@ -784,7 +1289,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<GetValue>> getKVValues(String keyPrefix, String token, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, queryParams, context -> {
       Response<List<GetValue>> valueList = getRetryConsulClient(context).getKVValues(keyPrefix, token,
           queryParams);
       log.debug(
@@ -798,30 +1303,30 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<GetBinaryValue>> getKVBinaryValues(String keyPrefix) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, context -> {
       Response<List<GetBinaryValue>> binaryValueList = getRetryConsulClient(context).getKVBinaryValues(keyPrefix);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVBinaryValues => keyPrefix: {}  ===  binaryValueList: {} <<<", keyPrefix,
           binaryValueList);
 
-      return binaryValueList;
+      return kvValueCodec.decodeList(binaryValueList);
     });
   }
 
   @Override
   public Response<List<GetBinaryValue>> getKVBinaryValues(String keyPrefix, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, context -> {
       Response<List<GetBinaryValue>> binaryValueList = getRetryConsulClient(context).getKVBinaryValues(keyPrefix, token);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVBinaryValues => keyPrefix: {}  ===  token: {}  ===  binaryValueList: {} <<<",
           keyPrefix, token,
           binaryValueList);
 
-      return binaryValueList;
+      return kvValueCodec.decodeList(binaryValueList);
     });
   }
 
   @Override
   public Response<List<GetBinaryValue>> getKVBinaryValues(String keyPrefix, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, queryParams, context -> {
       Response<List<GetBinaryValue>> binaryValueList = getRetryConsulClient(context).getKVBinaryValues(keyPrefix,
           queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVBinaryValues => keyPrefix: {}  ===  queryParams: {}  ===  binaryValueList: {} <<<",
@@ -829,26 +1334,26 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
           queryParams,
           binaryValueList);
 
-      return binaryValueList;
+      return kvValueCodec.decodeList(binaryValueList);
     });
   }
 
   @Override
   public Response<List<GetBinaryValue>> getKVBinaryValues(String keyPrefix, String token, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, queryParams, context -> {
       Response<List<GetBinaryValue>> binaryValueList = getRetryConsulClient(context).getKVBinaryValues(keyPrefix, token, queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX
               + ">>> function getKVBinaryValues => keyPrefix: {}  ===  token: {}  ===  queryParams: {}  ===  binaryValueList: {} <<<",
           keyPrefix, token, queryParams, binaryValueList);
 
-      return binaryValueList;
+      return kvValueCodec.decodeList(binaryValueList);
     });
   }
 
   @Override
   public Response<List<String>> getKVKeysOnly(String keyPrefix) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, context -> {
       Response<List<String>> keyList = getRetryConsulClient(context).getKVKeysOnly(keyPrefix);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVKeysOnly => keyPrefix: {}  ===  keyList: {} <<<",
           keyPrefix, keyList);
@@ -859,7 +1364,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<String>> getKVKeysOnly(String keyPrefix, String separator, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, context -> {
       Response<List<String>> keyList = getRetryConsulClient(context).getKVKeysOnly(keyPrefix,
           separator, token);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVKeysOnly => keyPrefix: {}  ===  separator: {}  ===  token: {}  ===  keyList: {} <<<",
@@ -871,7 +1376,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<String>> getKVKeysOnly(String keyPrefix, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, queryParams, context -> {
       Response<List<String>> keyList = getRetryConsulClient(context).getKVKeysOnly(keyPrefix, queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getKVKeysOnly => keyPrefix: {}  ===  queryParams: {} ===  keyList: {} <<<",
           keyPrefix, queryParams, keyList);
@@ -882,7 +1387,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<String>> getKVKeysOnly(String keyPrefix, String separator, String token, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.KV_READ, queryParams, context -> {
       Response<List<String>> keyList = getRetryConsulClient(context).getKVKeysOnly(keyPrefix,
           separator, token, queryParams);
       log.debug(
@@ -896,7 +1401,12 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Boolean> setKVValue(String key, String value) {
-    return this.retryTemplate.execute(context -> {
+    if (this.kvWriteBuffer != null
+        && this.kvWriteBuffer.write(key, value == null ? null : value.getBytes(StandardCharsets.UTF_8), null)) {
+      return new Response<>(true, null, null, null);
+    }
+
+    return execute(OperationFamily.KV_WRITE, context -> {
       Response<Boolean> result = getRetryConsulClient(context).setKVValue(key, value);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function setKVValue => key: {}  ===  value: {}  ===  result: {} <<<",
@@ -908,7 +1418,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Boolean> setKVValue(String key, String value, PutParams putParams) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, context -> {
       Response<Boolean> result = getRetryConsulClient(context).setKVValue(key, value, putParams);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function setKVValue => key: {}  ===  value: {}  ===  putParams: {} ===  result: {} <<<",
@@ -921,7 +1432,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   @Override
   public Response<Boolean> setKVValue(String key, String value, String token,
       PutParams putParams) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, context -> {
       Response<Boolean> result = getRetryConsulClient(context).setKVValue(key, value, token,
           putParams);
       log.debug(
@@ -934,7 +1446,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Boolean> setKVValue(String key, String value, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, queryParams, context -> {
       Response<Boolean> result = getRetryConsulClient(context).setKVValue(key, value, queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function setKVValue => key: {}  ===  value: {}  ===  queryParams: {} ===  result: {} <<<",
@@ -946,7 +1459,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Boolean> setKVValue(String key, String value, PutParams putParams, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, queryParams, context -> {
       Response<Boolean> result = getRetryConsulClient(context).setKVValue(key, value, putParams, queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX
@@ -960,7 +1474,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   @Override
   public Response<Boolean> setKVValue(String key, String value, String token,
       PutParams putParams, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, queryParams, context -> {
       Response<Boolean> result = getRetryConsulClient(context).setKVValue(key, value, token,
           putParams, queryParams);
       log.debug(
@@ -974,8 +1489,13 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Boolean> setKVBinaryValue(String key, byte[] value) {
-    return this.retryTemplate.execute(context -> {
-      Response<Boolean> result = getRetryConsulClient(context).setKVBinaryValue(key, value);
+    byte[] encodedValue = kvValueCodec.encode(value);
+    if (this.kvWriteBuffer != null && this.kvWriteBuffer.write(key, encodedValue, null)) {
+      return new Response<>(true, null, null, null);
+    }
+
+    return execute(OperationFamily.KV_WRITE, context -> {
+      Response<Boolean> result = getRetryConsulClient(context).setKVBinaryValue(key, encodedValue);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function setKVBinaryValue => key: {}  ===  value: {}  ===  result: {} <<<",
           key, value, result);
@@ -986,8 +1506,10 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Boolean> setKVBinaryValue(String key, byte[] value, PutParams putParams) {
-    return this.retryTemplate.execute(context -> {
-      Response<Boolean> result = getRetryConsulClient(context).setKVBinaryValue(key, value, putParams);
+    byte[] encodedValue = kvValueCodec.encode(value);
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, context -> {
+      Response<Boolean> result = getRetryConsulClient(context).setKVBinaryValue(key, encodedValue, putParams);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function setKVBinaryValue => key: {}  ===  value: {}  ===  putParams: {}  ===  result: {} <<<",
           key, value, putParams, result);
@@ -998,8 +1520,10 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Boolean> setKVBinaryValue(String key, byte[] value, String token, PutParams putParams) {
-    return this.retryTemplate.execute(context -> {
-      Response<Boolean> result = getRetryConsulClient(context).setKVBinaryValue(key, value,
+    byte[] encodedValue = kvValueCodec.encode(value);
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, context -> {
+      Response<Boolean> result = getRetryConsulClient(context).setKVBinaryValue(key, encodedValue,
           token, putParams);
       log.debug(
           CommonConstant.LOG_PREFIX
@@ -1012,8 +1536,10 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Boolean> setKVBinaryValue(String key, byte[] value, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
-      Response<Boolean> result = getRetryConsulClient(context).setKVBinaryValue(key, value, queryParams);
+    byte[] encodedValue = kvValueCodec.encode(value);
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, queryParams, context -> {
+      Response<Boolean> result = getRetryConsulClient(context).setKVBinaryValue(key, encodedValue, queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function setKVBinaryValue => key: {}  ===  value: {}  ===  queryParams: {}  ===  result: {} <<<",
           key, value, queryParams, result);
@@ -1024,8 +1550,10 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Boolean> setKVBinaryValue(String key, byte[] value, PutParams putParams, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
-      Response<Boolean> result = getRetryConsulClient(context).setKVBinaryValue(key, value, putParams, queryParams);
+    byte[] encodedValue = kvValueCodec.encode(value);
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, queryParams, context -> {
+      Response<Boolean> result = getRetryConsulClient(context).setKVBinaryValue(key, encodedValue, putParams, queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX
               + ">>> function setKVBinaryValue => key: {}  ===  value: {}  ===  putParams: {}   ===  queryParams: {}  ===  result: {} <<<",
@@ -1038,8 +1566,10 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   @Override
   public Response<Boolean> setKVBinaryValue(String key, byte[] value, String token,
       PutParams putParams, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
-      Response<Boolean> result = getRetryConsulClient(context).setKVBinaryValue(key, value,
+    byte[] encodedValue = kvValueCodec.encode(value);
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, queryParams, context -> {
+      Response<Boolean> result = getRetryConsulClient(context).setKVBinaryValue(key, encodedValue,
           token, putParams, queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX
@@ -1052,7 +1582,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> deleteKVValue(String key) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, context -> {
       Response<Void> result = getRetryConsulClient(context).deleteKVValue(key);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function deleteKVValue => key: {} ===  result: {} <<<", key, result);
 
@@ -1062,7 +1593,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> deleteKVValue(String key, String token) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, context -> {
       Response<Void> result = getRetryConsulClient(context).deleteKVValue(key, token);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function deleteKVValue => key: {}  ===  token: {}  ===  result: {} <<<", key, token, result);
 
@@ -1072,7 +1604,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> deleteKVValue(String key, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, queryParams, context -> {
       Response<Void> result = getRetryConsulClient(context).deleteKVValue(key, queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function deleteKVValue => key: {}  ===  queryParams: {}  ===  result: {} <<<", key, queryParams,
           result);
@@ -1083,7 +1616,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> deleteKVValue(String key, String token, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrite(key);
+    return execute(OperationFamily.KV_WRITE, queryParams, context -> {
       Response<Void> result = getRetryConsulClient(context).deleteKVValue(key, token, queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function deleteKVValue => key: {}  ===  token: {}  ===  queryParams: {}  ===  result: {} <<<", key,
           token,
@@ -1095,7 +1629,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> deleteKVValues(String key) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrites(key);
+    return execute(OperationFamily.KV_WRITE, context -> {
       Response<Void> result = getRetryConsulClient(context).deleteKVValues(key);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function deleteKVValues => key: {}  ===  result: {} <<<", key, result);
 
@@ -1105,7 +1640,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> deleteKVValues(String key, String token) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrites(key);
+    return execute(OperationFamily.KV_WRITE, context -> {
       Response<Void> result = getRetryConsulClient(context).deleteKVValues(key, token);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function deleteKVValues => key: {}  ===  token: {}  ===  result: {} <<<", key, token, result);
 
@@ -1115,7 +1651,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> deleteKVValues(String key, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrites(key);
+    return execute(OperationFamily.KV_WRITE, queryParams, context -> {
       Response<Void> result = getRetryConsulClient(context).deleteKVValues(key, queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function deleteKVValues => key: {}  ===  queryParams: {}  ===  result: {} <<<", key, queryParams,
           result);
@@ -1126,7 +1663,8 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> deleteKVValues(String key, String token, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    discardBufferedWrites(key);
+    return execute(OperationFamily.KV_WRITE, queryParams, context -> {
       Response<Void> result = getRetryConsulClient(context).deleteKVValues(key, token, queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function deleteKVValues => key: {}  ===  token: {}  ===  queryParams: {}  ===  result: {} <<<", key,
           token,
@@ -1138,7 +1676,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Check>> getHealthChecksForNode(String nodeName, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<Check>> checkList = getRetryConsulClient(context).getHealthChecksForNode(nodeName, queryParams);
       log.debug(CommonConstant.LOG_PREFIX + ">>> function getHealthChecksForNode => nodeName: {}  ===  queryParams: {}  ===  checkList: {} <<<",
           nodeName,
@@ -1150,7 +1688,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Check>> getHealthChecksForService(String serviceName, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<Check>> checkList = getRetryConsulClient(context).getHealthChecksForService(serviceName, queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getHealthChecksForService => serviceName: {}  ===  queryParams: {}  ===  checkList: {} <<<",
@@ -1164,7 +1702,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   @Override
   public Response<List<HealthService>> getHealthServices(String serviceName,
       boolean onlyPassing, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<HealthService>> healthServiceList = getRetryConsulClient(context)
           .getHealthServices(serviceName, onlyPassing, queryParams);
       log.debug(
@@ -1179,7 +1717,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   @Override
   public Response<List<HealthService>> getHealthServices(String serviceName, String tag,
       boolean onlyPassing, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<HealthService>> healthServiceList = getRetryConsulClient(context).getHealthServices(
           serviceName, tag, onlyPassing, queryParams);
       log.debug(
@@ -1194,7 +1732,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   @Override
   public Response<List<HealthService>> getHealthServices(String serviceName,
       boolean onlyPassing, QueryParams queryParams, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<HealthService>> healthServiceList = getRetryConsulClient(context).getHealthServices(
           serviceName, onlyPassing, queryParams, token);
       log.debug(
@@ -1209,7 +1747,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   @Override
   public Response<List<HealthService>> getHealthServices(String serviceName, String tag,
       boolean onlyPassing, QueryParams queryParams, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<HealthService>> healthServiceList = getRetryConsulClient(context).getHealthServices(
           serviceName, tag, onlyPassing, queryParams, token);
       log.debug(
@@ -1223,7 +1761,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Check>> getHealthChecksState(QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<Check>> checkList = getRetryConsulClient(context).getHealthChecksState(queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getHealthChecksState =>  queryParams: {}  ===  checkList: {} <<<",
@@ -1235,7 +1773,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Check>> getHealthChecksState(CheckStatus checkStatus, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<Check>> checkList = getRetryConsulClient(context).getHealthChecksState(checkStatus, queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getHealthChecksState =>  checkStatus: {}  ===  queryParams: {}  ===  checkList: {} <<<",
@@ -1247,7 +1785,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Event> eventFire(String event, String payload, EventParams eventParams, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, queryParams, context -> {
       Response<Event> eventFire = getRetryConsulClient(context).eventFire(event, payload, eventParams, queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX
@@ -1260,7 +1798,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Event>> eventList(QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, queryParams, context -> {
       Response<List<Event>> eventList = getRetryConsulClient(context).eventList(queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function eventList =>  queryParams: {}  ===  eventList: {} <<<",
@@ -1272,7 +1810,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Event>> eventList(String event, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, queryParams, context -> {
       Response<List<Event>> eventList = getRetryConsulClient(context).eventList(event, queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function eventList =>  event: {}  ===  queryParams: {}  ===  eventList: {} <<<",
@@ -1284,7 +1822,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Datacenter>> getDatacenters() {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<List<Datacenter>> datacenterList = getRetryConsulClient(context).getDatacenters();
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getDatacenters =>  datacenterList: {} <<<",
@@ -1296,7 +1834,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Node>> getNodes(QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, queryParams, context -> {
       Response<List<Node>> nodeList = getRetryConsulClient(context).getNodes(queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getNodes =>  queryParams: {}  === nodeList: {} <<<",
@@ -1308,7 +1846,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> catalogRegister(CatalogRegistration catalogRegistration) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.REGISTRATION, context -> {
       Response<Void> result = getRetryConsulClient(context).catalogRegister(catalogRegistration);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function catalogRegister =>  catalogRegistration: {}  === result: {} <<<",
@@ -1320,7 +1858,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> catalogRegister(CatalogRegistration catalogRegistration, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.REGISTRATION, context -> {
       Response<Void> result = getRetryConsulClient(context).catalogRegister(catalogRegistration, token);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function catalogRegister =>  catalogRegistration: {}  === token: {}  === result: {} <<<",
@@ -1332,7 +1870,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> catalogDeregister(CatalogDeregistration catalogDeregistration) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.REGISTRATION, context -> {
       Response<Void> result = getRetryConsulClient(context).catalogDeregister(catalogDeregistration);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function catalogDeregister =>  catalogDeregistration: {}  === result: {} <<<",
@@ -1344,7 +1882,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<String>> getCatalogDatacenters() {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, context -> {
       Response<List<String>> catalogDatacenterList = getRetryConsulClient(context).getCatalogDatacenters();
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getCatalogDatacenters =>  catalogDatacenterList: {} <<<",
@@ -1356,7 +1894,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<com.ecwid.consul.v1.catalog.model.Node>> getCatalogNodes(QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<com.ecwid.consul.v1.catalog.model.Node>> catalogNodeList = getRetryConsulClient(context)
           .getCatalogNodes(queryParams);
       log.debug(
@@ -1369,7 +1907,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Map<String, List<String>>> getCatalogServices(QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<Map<String, List<String>>> catalogServiceMap = getRetryConsulClient(context)
           .getCatalogServices(queryParams);
       log.debug(
@@ -1382,7 +1920,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Map<String, List<String>>> getCatalogServices(QueryParams queryParams, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<Map<String, List<String>>> catalogServiceMap = getRetryConsulClient(context)
           .getCatalogServices(queryParams, token);
       log.debug(
@@ -1395,7 +1933,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<CatalogService>> getCatalogService(String serviceName, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<CatalogService>> catalogServiceList = getRetryConsulClient(context)
           .getCatalogService(serviceName, queryParams);
       log.debug(
@@ -1409,7 +1947,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   @Override
   public Response<List<CatalogService>> getCatalogService(String serviceName,
       String tag, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<CatalogService>> catalogServiceList = getRetryConsulClient(context)
           .getCatalogService(serviceName, tag, queryParams);
       log.debug(
@@ -1424,7 +1962,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   @Override
   public Response<List<CatalogService>> getCatalogService(String serviceName,
       QueryParams queryParams, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<CatalogService>> catalogServiceList = getRetryConsulClient(context)
           .getCatalogService(serviceName, queryParams, token);
       log.debug(
@@ -1439,7 +1977,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   @Override
   public Response<List<CatalogService>> getCatalogService(String serviceName,
       String tag, QueryParams queryParams, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<List<CatalogService>> catalogServiceList = getRetryConsulClient(context)
           .getCatalogService(serviceName, tag, queryParams, token);
       log.debug(
@@ -1453,7 +1991,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<CatalogNode> getCatalogNode(String nodeName, QueryParams queryParams) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DISCOVERY, queryParams, context -> {
       Response<CatalogNode> catalogNode = getRetryConsulClient(context).getCatalogNode(nodeName, queryParams);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getCatalogNode =>  nodeName: {}  ===  queryParams: {}  ===  catalogNode: {} <<<",
@@ -1465,7 +2003,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Map<String, com.ecwid.consul.v1.agent.model.Check>> getAgentChecks() {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<Map<String, com.ecwid.consul.v1.agent.model.Check>> checkList = getRetryConsulClient(context)
           .getAgentChecks();
       log.debug(
@@ -1477,7 +2015,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Map<String, Service>> getAgentServices() {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<Map<String, Service>> agentServiceMap = getRetryConsulClient(context).getAgentServices();
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getAgentServices =>  agentServiceMap: {} <<<", agentServiceMap);
@@ -1488,7 +2026,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Member>> getAgentMembers() {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<List<Member>> agentMemberList = getRetryConsulClient(context).getAgentMembers();
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getAgentMembers =>  agentMemberList: {} <<<", agentMemberList);
@@ -1499,7 +2037,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Self> getAgentSelf() {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<Self> agentSelf = getRetryConsulClient(context).getAgentSelf();
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getAgentSelf =>  agentSelf: {} <<<", agentSelf);
@@ -1510,7 +2048,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Self> getAgentSelf(String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<Self> agentSelf = getRetryConsulClient(context).getAgentSelf(token);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getAgentSelf =>  token: {}  ===  agentSelf: {} <<<", token, agentSelf);
@@ -1521,7 +2059,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> agentSetMaintenance(boolean maintenanceEnabled) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.REGISTRATION, context -> {
       Response<Void> result = getRetryConsulClient(context).agentSetMaintenance(maintenanceEnabled);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentSetMaintenance =>  maintenanceEnabled: {}  ===  result: {} <<<", maintenanceEnabled,
@@ -1533,7 +2071,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> agentSetMaintenance(boolean maintenanceEnabled, String reason) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.REGISTRATION, context -> {
       Response<Void> result = getRetryConsulClient(context).agentSetMaintenance(maintenanceEnabled, reason);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentSetMaintenance =>  maintenanceEnabled: {}  ===  reason: {}  ===  result: {} <<<",
@@ -1545,7 +2083,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> agentJoin(String address, boolean wan) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<Void> result = getRetryConsulClient(context).agentJoin(address, wan);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentJoin =>  address: {}  ===  wan: {}  ===  result: {} <<<",
@@ -1557,7 +2095,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> agentForceLeave(String node) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<Void> result = getRetryConsulClient(context).agentForceLeave(node);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentForceLeave => node: {}  ===  result: {} <<<",
@@ -1567,10 +2105,16 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
     });
   }
 
+  /**
+   * 向可用节点注册检查，与服务一样多点注册
+   */
   @Override
   public Response<Void> agentCheckRegister(NewCheck newCheck) {
-    return this.retryTemplate.execute(context -> {
-      Response<Void> result = getRetryConsulClient(context).agentCheckRegister(newCheck);
+    this.registrationJournal.checkRegistered(newCheck, null);
+
+    return execute(OperationFamily.REGISTRATION, context -> {
+      Response<Void> result = writeQuorum(context, "check:" + newCheck.getId(),
+          client -> client.agentCheckRegister(newCheck));
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentCheckRegister => newCheck: {}  ===  result: {} <<<",
           newCheck, result);
@@ -1579,10 +2123,16 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
     });
   }
 
+  /**
+   * 向可用节点注册检查，与服务一样多点注册
+   */
   @Override
   public Response<Void> agentCheckRegister(NewCheck newCheck, String token) {
-    return this.retryTemplate.execute(context -> {
-      Response<Void> result = getRetryConsulClient(context).agentCheckRegister(newCheck, token);
+    this.registrationJournal.checkRegistered(newCheck, token);
+
+    return execute(OperationFamily.REGISTRATION, context -> {
+      Response<Void> result = writeQuorum(context, "check:" + newCheck.getId(),
+          client -> client.agentCheckRegister(newCheck, token));
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentCheckRegister => newCheck: {}  ===  token: {}  ===  result: {} <<<",
           newCheck, token, result);
@@ -1591,10 +2141,16 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
     });
   }
 
+  /**
+   * 向可用节点注销检查
+   */
   @Override
   public Response<Void> agentCheckDeregister(String checkId) {
-    return this.retryTemplate.execute(context -> {
-      Response<Void> result = getRetryConsulClient(context).agentCheckDeregister(checkId);
+    this.registrationJournal.checkDeregistered(checkId);
+
+    return execute(OperationFamily.REGISTRATION, context -> {
+      Response<Void> result = writeQuorum(context, "check:" + checkId,
+          client -> client.agentCheckDeregister(checkId));
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentCheckDeregister => checkId: {}  ===  result: {} <<<",
           checkId, result);
@@ -1603,10 +2159,16 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
     });
   }
 
+  /**
+   * 向可用节点注销检查
+   */
   @Override
   public Response<Void> agentCheckDeregister(String checkId, String token) {
-    return this.retryTemplate.execute(context -> {
-      Response<Void> result = getRetryConsulClient(context).agentCheckDeregister(checkId, token);
+    this.registrationJournal.checkDeregistered(checkId);
+
+    return execute(OperationFamily.REGISTRATION, context -> {
+      Response<Void> result = writeQuorum(context, "check:" + checkId,
+          client -> client.agentCheckDeregister(checkId, token));
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentCheckDeregister => checkId: {}  ===  token: {}  ===  result: {} <<<",
           checkId, token, result);
@@ -1684,7 +2246,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> agentCheckWarn(String checkId) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.REGISTRATION, context -> {
       Response<Void> result = getRetryConsulClient(context).agentCheckWarn(checkId);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentCheckWarn => checkId: {}  ===  result: {} <<<",
@@ -1696,7 +2258,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> agentCheckWarn(String checkId, String note) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.REGISTRATION, context -> {
       Response<Void> result = getRetryConsulClient(context).agentCheckWarn(checkId, note);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentCheckWarn => checkId: {}  ===  note: {}  ===  result: {} <<<",
@@ -1708,7 +2270,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> agentCheckWarn(String checkId, String note, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.REGISTRATION, context -> {
       Response<Void> result = getRetryConsulClient(context).agentCheckWarn(checkId, note, token);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentCheckWarn => checkId: {}  ===  note: {}  ===  token: {}  ===  result: {} <<<",
@@ -1720,7 +2282,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> agentCheckFail(String checkId) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.REGISTRATION, context -> {
       Response<Void> result = getRetryConsulClient(context).agentCheckFail(checkId);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentCheckFail => checkId: {}  ===  result: {} <<<",
@@ -1732,7 +2294,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> agentCheckFail(String checkId, String note) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.REGISTRATION, context -> {
       Response<Void> result = getRetryConsulClient(context).agentCheckFail(checkId, note);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentCheckFail => checkId: {}  ===  note: {}  ===  result: {} <<<",
@@ -1744,7 +2306,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> agentCheckFail(String checkId, String note, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.REGISTRATION, context -> {
       Response<Void> result = getRetryConsulClient(context).agentCheckFail(checkId, note, token);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentCheckFail => checkId: {}  ===  note: {}  ===  token: {}  ===  result: {} <<<",
@@ -1761,15 +2323,11 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
    */
   @Override
   public Response<Void> agentServiceRegister(NewService newService) {
-    this.currentNewService = newService;
+    this.registrationJournal.serviceRegistered(newService, null);
 
-    return this.retryTemplate.execute(context -> {
-      Response<Void> result = null;
-      for (ConsulClientHolder consulClient : this.consulClients) {
-        if (consulClient.isHealthy()) {
-          result = consulClient.getClient().agentServiceRegister(newService);
-        }
-      }
+    return execute(OperationFamily.REGISTRATION, context -> {
+      Response<Void> result = writeQuorum(context, "service:" + newService.getId(),
+          client -> client.agentServiceRegister(newService));
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentServiceRegister => newService: {}  ===  result: {}  <<<",
           newService, result);
@@ -1785,16 +2343,11 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
    */
   @Override
   public Response<Void> agentServiceRegister(NewService newService, String token) {
-    this.currentNewService = newService;
-    this.currentToken = token;
-
-    return this.retryTemplate.execute(context -> {
-      Response<Void> result = null;
-      for (ConsulClientHolder consulClient : this.consulClients) {
-        if (consulClient.isHealthy()) {
-          result = consulClient.getClient().agentServiceRegister(newService, token);
-        }
-      }
+    this.registrationJournal.serviceRegistered(newService, token);
+
+    return execute(OperationFamily.REGISTRATION, context -> {
+      Response<Void> result = writeQuorum(context, "service:" + newService.getId(),
+          client -> client.agentServiceRegister(newService, token));
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentServiceRegister => newService: {}  ===  token: {} ===  response: {} <<<",
           newService, token, result);
@@ -1810,13 +2363,11 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
    */
   @Override
   public Response<Void> agentServiceDeregister(String serviceId) {
-    return this.retryTemplate.execute(context -> {
-      Response<Void> response = null;
-      for (ConsulClientHolder consulClient : this.consulClients) {
-        if (consulClient.isHealthy()) {
-          response = consulClient.getClient().agentServiceDeregister(serviceId);
-        }
-      }
+    this.registrationJournal.serviceDeregistered(serviceId);
+
+    return execute(OperationFamily.REGISTRATION, context -> {
+      Response<Void> response = writeQuorum(context, "service:" + serviceId,
+          client -> client.agentServiceDeregister(serviceId));
 
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentServiceDeregister => serviceId: {}   ===  response: {}  <<<",
@@ -1833,13 +2384,11 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
    */
   @Override
   public Response<Void> agentServiceDeregister(String serviceId, String token) {
-    return this.retryTemplate.execute(context -> {
-      Response<Void> response = null;
-      for (ConsulClientHolder consulClient : this.consulClients) {
-        if (consulClient.isHealthy()) {
-          response = consulClient.getClient().agentServiceDeregister(serviceId, token);
-        }
-      }
+    this.registrationJournal.serviceDeregistered(serviceId);
+
+    return execute(OperationFamily.REGISTRATION, context -> {
+      Response<Void> response = writeQuorum(context, "service:" + serviceId,
+          client -> client.agentServiceDeregister(serviceId, token));
 
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentServiceDeregister => serviceId: {}  ===  token: {}  ===  response: {}  <<<",
@@ -1856,14 +2405,11 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
    */
   @Override
   public Response<Void> agentServiceSetMaintenance(String serviceId, boolean maintenanceEnabled) {
-    return this.retryTemplate.execute(context -> {
-      Response<Void> response = null;
-      for (ConsulClientHolder consulClient : this.consulClients) {
-        if (consulClient.isHealthy()) {
-          response = consulClient.getClient().agentServiceSetMaintenance(serviceId,
-              maintenanceEnabled);
-        }
-      }
+    this.registrationJournal.maintenanceChanged(serviceId, maintenanceEnabled, null);
+
+    return execute(OperationFamily.REGISTRATION, context -> {
+      Response<Void> response = writeQuorum(context, "maintenance:" + serviceId,
+          client -> client.agentServiceSetMaintenance(serviceId, maintenanceEnabled));
 
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function agentServiceSetMaintenance => serviceId: {}  ===  maintenanceEnabled: {}  ===  response: {}  <<<",
@@ -1881,14 +2427,11 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
   @Override
   public Response<Void> agentServiceSetMaintenance(String serviceId,
       boolean maintenanceEnabled, String reason) {
-    return this.retryTemplate.execute(context -> {
-      Response<Void> response = null;
-      for (ConsulClientHolder consulClient : this.consulClients) {
-        if (consulClient.isHealthy()) {
-          response = consulClient.getClient().agentServiceSetMaintenance(serviceId,
-              maintenanceEnabled, reason);
-        }
-      }
+    this.registrationJournal.maintenanceChanged(serviceId, maintenanceEnabled, reason);
+
+    return execute(OperationFamily.REGISTRATION, context -> {
+      Response<Void> response = writeQuorum(context, "maintenance:" + serviceId,
+          client -> client.agentServiceSetMaintenance(serviceId, maintenanceEnabled, reason));
 
       log.debug(
           CommonConstant.LOG_PREFIX
@@ -1919,9 +2462,163 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
     return response;
   }
 
+  /**
+   * 惰性遍历前缀下的全部KV，按 / 逐层列出key并按批读取value，内存占用不随前缀下的key总数增长
+   *
+   * see KVPrefixIterator
+   */
+  public Iterator<GetValue> iterateKVValues(String keyPrefix) {
+    return iterateKVValues(keyPrefix, CommonConstant.SEPARATOR_VIRGULE, null, KVPrefixIterator.DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * @param separator - 层级分隔符
+   * @param batchSize - 每批读取的value数，1~64
+   */
+  public Iterator<GetValue> iterateKVValues(String keyPrefix, String separator, String token, int batchSize) {
+    return new KVPrefixIterator(this, keyPrefix, separator, token, batchSize);
+  }
+
+  public Stream<GetValue> streamKVValues(String keyPrefix) {
+    return streamKVValues(keyPrefix, CommonConstant.SEPARATOR_VIRGULE, null, KVPrefixIterator.DEFAULT_BATCH_SIZE);
+  }
+
+  public Stream<GetValue> streamKVValues(String keyPrefix, String separator, String token, int batchSize) {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+        iterateKVValues(keyPrefix, separator, token, batchSize), Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  /**
+   * 创建一个基于session(仅TTL)和KV acquire的分布式锁
+   *
+   * see ClusterConsulLock
+   */
+  public ClusterConsulLock createLock(String key) {
+    return new ClusterConsulLock(this, key);
+  }
+
+  /**
+   * 创建一个基于session(仅TTL)和KV acquire的leader选举，调用start()后开始参选
+   *
+   * see ClusterConsulLeaderElection
+   */
+  public ClusterConsulLeaderElection createLeaderElection(String key) {
+    return new ClusterConsulLeaderElection(this, key);
+  }
+
+  /**
+   * 创建一个用户事件的监听，调用start()后开始阻塞查询事件列表
+   *
+   * @param name - 事件名称，为null时监听全部事件
+   * see ClusterConsulEventWatcher
+   */
+  public ClusterConsulEventWatcher createEventWatcher(String name) {
+    return new ClusterConsulEventWatcher(this, name);
+  }
+
+  /**
+   * 写入可能超过consul单个value大小限制的值，超过 kvChunkSize 时分块写入后通过事务切换清单
+   *
+   * see ChunkedKVStore
+   */
+  public void setKVLargeValue(String key, byte[] value) {
+    setKVLargeValue(key, value, null);
+  }
+
+  public void setKVLargeValue(String key, byte[] value, String token) {
+    chunkedKVStore.set(key, value, token);
+  }
+
+  /**
+   * 读取 setKVLargeValue 写入的值，分块数不超过63时在一个事务中读取全部分块，否则并行读取
+   *
+   * @return key不存在时返回null
+   */
+  public byte[] getKVLargeValue(String key) {
+    return getKVLargeValue(key, null, false);
+  }
+
+  /**
+   * @param parallel - true 时不使用事务，并行读取全部分块
+   */
+  public byte[] getKVLargeValue(String key, String token, boolean parallel) {
+    return chunkedKVStore.get(key, token, parallel);
+  }
+
+  public void deleteKVLargeValue(String key) {
+    deleteKVLargeValue(key, null);
+  }
+
+  public void deleteKVLargeValue(String key, String token) {
+    chunkedKVStore.delete(key, token);
+  }
+
+  /**
+   * 绕过写缓冲直接写入或删除key时，丢弃其尚未提交的缓冲写入
+   */
+  private void discardBufferedWrite(String key) {
+    if (this.kvWriteBuffer != null) {
+      this.kvWriteBuffer.discard(key);
+    }
+  }
+
+  private void discardBufferedWrites(String keyPrefix) {
+    if (this.kvWriteBuffer != null) {
+      this.kvWriteBuffer.discardPrefix(keyPrefix);
+    }
+  }
+
+  /**
+   * 通过 /v1/txn 批量执行KV操作
+   *
+   * see KVTxn
+   */
+  public KVTxnResponse executeKVTxn(KVTxn txn) {
+    return executeKVTxn(txn, null);
+  }
+
+  /**
+   * 通过 /v1/txn 批量执行KV操作，每个事务在当前节点上执行，失败时与其他KV写操作一样fallback重试
+   *
+   * see KVTxn
+   *
+   * @throws KVTxnException PARTIAL 模式下第一块之后的某一块出错时抛出，携带已执行各块的结果
+   */
+  public KVTxnResponse executeKVTxn(KVTxn txn, String token) {
+    List<KVTxn.Operation> operations = txn.getOperations();
+    if (txn.getMode() == KVTxn.Mode.ATOMIC && operations.size() > KVTxn.MAX_OPERATIONS) {
+      throw new IllegalArgumentException("Atomic KV txn supports at most " + KVTxn.MAX_OPERATIONS
+          + " operations, got " + operations.size());
+    }
+
+    KVTxnResponse response = new KVTxnResponse();
+    for (int offset = 0; offset < operations.size(); offset += KVTxn.MAX_OPERATIONS) {
+      List<KVTxn.Operation> chunk = operations.subList(offset,
+          Math.min(offset + KVTxn.MAX_OPERATIONS, operations.size()));
+      int chunkOffset = offset;
+      try {
+        execute(OperationFamily.KV_WRITE, context -> {
+          KVTxnClient.execute(getRetryConsulClientHolder(context).getRawClient(), chunk, chunkOffset, token, response);
+          return null;
+        });
+      } catch (RuntimeException e) {
+        //之前的块已经提交，不能只抛出异常而丢掉它们的结果
+        if (offset == 0) {
+          throw e;
+        }
+        throw new KVTxnException("KV txn failed at operation " + offset + " after " + response.getCommitted()
+            + " operations committed: " + e.getMessage(), e, response, offset);
+      }
+    }
+    log.debug(CommonConstant.LOG_PREFIX + ">>> function executeKVTxn => mode: {}  ===  operations: {}  ===  response: {} <<<",
+        txn.getMode(), operations.size(), response);
+
+    return response;
+  }
+
   @Override
   public Response<String> aclCreate(NewAcl newAcl, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<String> acl = getRetryConsulClient(context).aclCreate(newAcl, token);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function aclCreate => newAcl: {}  ===  token: {}  ===  acl: {} <<<",
@@ -1933,7 +2630,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> aclUpdate(UpdateAcl updateAcl, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<Void> result = getRetryConsulClient(context).aclUpdate(updateAcl, token);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function aclUpdate => updateAcl: {}  ===  token: {}  ===  result: {} <<<",
@@ -1945,7 +2642,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Void> aclDestroy(String aclId, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<Void> result = getRetryConsulClient(context).aclDestroy(aclId, token);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function aclDestroy => aclId: {}  ===  token: {}  ===  result: {} <<<",
@@ -1957,7 +2654,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<Acl> getAcl(String id) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<Acl> acl = getRetryConsulClient(context).getAcl(id);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getAcl => id: {}  ===  acl: {} <<<",
@@ -1969,7 +2666,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<String> aclClone(String aclId, String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<String> aclClone = getRetryConsulClient(context).aclClone(aclId, token);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function aclClone => aclId: {}  ===  token: {}  ===  aclClone: {} <<<",
@@ -1981,7 +2678,7 @@ public class ClusterConsulClient extends ConsulClient implements AclClient, Agen
 
   @Override
   public Response<List<Acl>> getAclList(String token) {
-    return this.retryTemplate.execute(context -> {
+    return execute(OperationFamily.DEFAULT, context -> {
       Response<List<Acl>> aclList = getRetryConsulClient(context).getAclList(token);
       log.debug(
           CommonConstant.LOG_PREFIX + ">>> function getAclList => token: {}  ===  aclList: {} <<<",
@@ -0,0 +1,42 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.Collections;
+import java.util.Set;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 一个配置前缀(context)的增量变化
+ */
+@Getter
+public class ClusterConsulConfigChangeEvent extends ApplicationEvent {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String context;
+
+  /**
+   * 新增、修改及删除的属性名
+   */
+  private final Set<String> changedPropertyNames;
+
+  /**
+   * 删除的属性名
+   */
+  private final Set<String> removedPropertyNames;
+
+  public ClusterConsulConfigChangeEvent(Object source, String context, Set<String> changedPropertyNames,
+      Set<String> removedPropertyNames) {
+    super(source);
+    this.context = context;
+    this.changedPropertyNames = Collections.unmodifiableSet(changedPropertyNames);
+    this.removedPropertyNames = Collections.unmodifiableSet(removedPropertyNames);
+  }
+
+  @Override
+  public String toString() {
+    return "ClusterConsulConfigChangeEvent{context=" + context + ", changedPropertyNames=" + changedPropertyNames
+        + ", removedPropertyNames=" + removedPropertyNames + "}";
+  }
+}
@@ -0,0 +1,197 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ecwid.consul.v1.kv.model.GetValue;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.cloud.bootstrap.config.PropertySourceBootstrapConfiguration;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+
+/**
+ * 增量刷新KEY_VALUE格式的consul配置
+ *
+ * 每个配置前缀(context)由一个后台线程通过 IncrementalKVSnapshot 做阻塞查询，只读取变化的key，
+ * 原地更新本配置源，然后只针对变化的属性名发布 EnvironmentChangeEvent(重新绑定@ConfigurationProperties)
+ * 和 ClusterConsulConfigChangeEvent，而不是像 ConfigWatch 一样重新读取整个前缀并刷新整个上下文。
+ *
+ * bootstrap阶段 ConsulPropertySourceLocator 加载的配置源在环境中名为 bootstrapProperties-consul，
+ * 本配置源原位替换它(没有时替换名为consul的配置源，都没有时放在最前)，否则在consul中删除的key仍会从原配置源中读到旧值。
+ */
+@Slf4j
+public class ClusterConsulConfigWatch implements InitializingBean, DisposableBean {
+
+  static final String PROPERTY_SOURCE_NAME = "consul";
+
+  /**
+   * bootstrap阶段加载的consul配置源在环境中的名称
+   */
+  static final String BOOTSTRAP_PROPERTY_SOURCE_NAME = PropertySourceBootstrapConfiguration.BOOTSTRAP_PROPERTY_SOURCE_NAME
+      + "-" + PROPERTY_SOURCE_NAME;
+
+  private final ConfigurableEnvironment environment;
+
+  private final ApplicationEventPublisher publisher;
+
+  /**
+   * 配置前缀，优先级从高到低
+   */
+  private final List<String> contexts;
+
+  /**
+   * 阻塞查询的等待时间(秒)
+   */
+  private final long waitTime;
+
+  private final Map<String, IncrementalKVSnapshot> snapshots = new ConcurrentHashMap<>();
+
+  private final Map<String, Map<String, Object>> properties = new ConcurrentHashMap<>();
+
+  private final CompositePropertySource propertySource = new CompositePropertySource(PROPERTY_SOURCE_NAME);
+
+  private final ExecutorService watchExecutor;
+
+  private volatile boolean running = true;
+
+  public ClusterConsulConfigWatch(ClusterConsulClient client, List<String> contexts, String token, long waitTime,
+      ConfigurableEnvironment environment, ApplicationEventPublisher publisher) {
+    this.environment = environment;
+    this.publisher = publisher;
+    this.contexts = new ArrayList<>(contexts);
+    this.waitTime = waitTime;
+    for (String context : this.contexts) {
+      this.snapshots.put(context, new IncrementalKVSnapshot(client, context, token));
+      Map<String, Object> contextProperties = new ConcurrentHashMap<>();
+      this.properties.put(context, contextProperties);
+      this.propertySource.addPropertySource(new MapPropertySource(PROPERTY_SOURCE_NAME + CommonConstant.SEPARATOR_COLON
+          + context, contextProperties));
+    }
+    AtomicInteger threadIndex = new AtomicInteger();
+    this.watchExecutor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "cluster-consul-config-watch-" + threadIndex.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * 全量加载一次全部前缀，替换环境中的配置源，然后开始后台监听
+   */
+  @Override
+  public void afterPropertiesSet() {
+    for (String context : contexts) {
+      try {
+        apply(context, snapshots.get(context).load(), false);
+      } catch (Exception e) {
+        log.warn(CommonConstant.LOG_PREFIX + ">>> Initial load of config context({}) failed: {} <<<", context, e.getMessage());
+      }
+    }
+    installPropertySource();
+    contexts.forEach(context -> watchExecutor.execute(() -> watch(context)));
+  }
+
+  @Override
+  public void destroy() {
+    this.running = false;
+    this.watchExecutor.shutdownNow();
+  }
+
+  /**
+   * 阻塞查询循环, 出错时保留上一次的配置并在1秒后重试
+   */
+  private void watch(String context) {
+    IncrementalKVSnapshot snapshot = snapshots.get(context);
+    while (running && !Thread.currentThread().isInterrupted()) {
+      try {
+        IncrementalKVSnapshot.Delta delta = snapshot.poll(waitTime);
+        if (!delta.isEmpty()) {
+          apply(context, delta, true);
+        }
+      } catch (Exception e) {
+        log.warn(CommonConstant.LOG_PREFIX + ">>> Watch config context({}) failed: {} <<<", context, e.getMessage());
+        try {
+          TimeUnit.SECONDS.sleep(1);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  private void apply(String context, IncrementalKVSnapshot.Delta delta, boolean publish) {
+    Map<String, Object> contextProperties = properties.get(context);
+    Set<String> changed = new LinkedHashSet<>();
+    Set<String> removed = new LinkedHashSet<>();
+    for (GetValue value : delta.getChanged().values()) {
+      String name = toPropertyName(context, value.getKey());
+      if (name != null) {
+        contextProperties.put(name, StringUtils.defaultString(value.getDecodedValue()).trim());
+        changed.add(name);
+      }
+    }
+    for (String key : delta.getRemoved()) {
+      String name = toPropertyName(context, key);
+      if (name != null && contextProperties.remove(name) != null) {
+        removed.add(name);
+      }
+    }
+    changed.addAll(removed);
+    if (!publish || changed.isEmpty()) {
+      return;
+    }
+
+    //上下文整体刷新会重新加入consul配置源，此处重新替换(本配置源的数据同样是最新的)
+    installPropertySource();
+    log.info(CommonConstant.LOG_PREFIX + ">>> Config context({}) changed: {} <<<", context, changed);
+    publisher.publishEvent(new EnvironmentChangeEvent(changed));
+    publisher.publishEvent(new ClusterConsulConfigChangeEvent(this, context, changed, removed));
+  }
+
+  /**
+   * 用本配置源原位替换环境中已有的consul配置源。上下文整体刷新会重新加入bootstrap的配置源，因此每次变化时都检查一次
+   */
+  private synchronized void installPropertySource() {
+    MutablePropertySources propertySources = environment.getPropertySources();
+    if (propertySources.contains(BOOTSTRAP_PROPERTY_SOURCE_NAME)) {
+      //先移除已装上的本配置源，再占据bootstrap配置源的位置
+      propertySources.remove(PROPERTY_SOURCE_NAME);
+      propertySources.replace(BOOTSTRAP_PROPERTY_SOURCE_NAME, propertySource);
+      return;
+    }
+
+    PropertySource<?> current = propertySources.get(PROPERTY_SOURCE_NAME);
+    if (current == null) {
+      propertySources.addFirst(propertySource);
+    } else if (current != propertySource) {
+      propertySources.replace(PROPERTY_SOURCE_NAME, propertySource);
+    }
+  }
+
+  /**
+   * 与 ConsulPropertySource 的KEY_VALUE格式一致: 去掉前缀后 / 替换为 . ，目录key没有对应的属性
+   */
+  static String toPropertyName(String context, String key) {
+    if (key.endsWith(CommonConstant.SEPARATOR_VIRGULE) || !key.startsWith(context)) {
+      return null;
+    }
+
+    return key.substring(context.length()).replace(CommonConstant.SEPARATOR_VIRGULE, CommonConstant.SEPARATOR_PERIOD);
+  }
+}
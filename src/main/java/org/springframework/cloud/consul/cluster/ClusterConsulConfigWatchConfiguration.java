@@ -0,0 +1,50 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+
+import com.ecwid.consul.v1.ConsulClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.consul.ConditionalOnConsulEnabled;
+import org.springframework.cloud.consul.config.ConsulConfigProperties;
+import org.springframework.cloud.consul.config.ConsulPropertySourceLocator;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.ConfigurableEnvironment;
+
+/**
+ * 增量配置刷新
+ *
+ * spring.cloud.consul.incremental-config-refresh=true 且配置格式为KEY_VALUE时启用，
+ * 此时应关闭 spring.cloud.consul.config.watch.enabled，避免ConfigWatch再做整体刷新
+ */
+@Slf4j
+@Configuration
+@ConditionalOnConsulEnabled
+@ConditionalOnClass(ConsulPropertySourceLocator.class)
+@ConditionalOnProperty(value = "spring.cloud.consul.incremental-config-refresh", havingValue = "true")
+public class ClusterConsulConfigWatchConfiguration {
+
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnBean(ConsulPropertySourceLocator.class)
+  public ClusterConsulConfigWatch clusterConsulConfigWatch(ConsulClient consulClient,
+      ConsulConfigProperties configProperties, ConsulPropertySourceLocator locator,
+      ConfigurableEnvironment environment, ApplicationEventPublisher publisher) {
+    if (!(consulClient instanceof ClusterConsulClient)
+        || configProperties.getFormat() != ConsulConfigProperties.Format.KEY_VALUE) {
+      throw new BadConfigException("incremental-config-refresh requires ClusterConsulClient and KEY_VALUE config format,"
+          + " got: " + consulClient.getClass().getName() + ", " + configProperties.getFormat());
+    }
+
+    log.info(CommonConstant.LOG_PREFIX + ">>> Incremental config refresh enabled for contexts: {} <<<",
+        locator.getContextIndexes().keySet());
+    return new ClusterConsulConfigWatch((ClusterConsulClient) consulClient,
+        new ArrayList<>(locator.getContextIndexes().keySet()), configProperties.getAclToken(),
+        configProperties.getWatch().getWaitTime(), environment, publisher);
+  }
+}
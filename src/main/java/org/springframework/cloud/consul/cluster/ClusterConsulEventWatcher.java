@@ -0,0 +1,191 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.event.model.Event;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * consul用户事件(eventFire)的监听
+ *
+ * 一个后台线程对 /v1/event/list 做阻塞查询，新事件到达时立即返回；每个agent只保留最近的事件，每次返回的都是整个列表，
+ * 因此按事件ID去重，已淘汰的ID由LTime水位兜底(LTime不大于水位的事件视为已处理)。启动时已存在的事件不分发。
+ * 阻塞查询与其他方法一样在当前节点出错时切换到其他健康节点，切换后新节点上尚未处理的事件仍会分发。
+ * 事件列表的索引是最后一个事件ID的哈希而不是递增的，因此不做索引回退的判断。
+ */
+@Slf4j
+public class ClusterConsulEventWatcher implements AutoCloseable {
+
+  /**
+   * 记录的已处理事件ID的最大个数(consul每个agent保留最近256个事件)
+   */
+  private static final int MAX_SEEN_EVENTS = 1024;
+
+  private final ClusterConsulClient client;
+
+  /**
+   * 只监听该名称的事件，为null时监听全部事件
+   */
+  @Getter
+  private final String name;
+
+  /**
+   * 阻塞查询的最长时间(秒)
+   */
+  @Getter
+  @Setter
+  private long waitTime = 10;
+
+  private final Set<Listener> listeners = new CopyOnWriteArraySet<>();
+
+  /**
+   * 已处理的事件ID及其LTime，按处理顺序淘汰
+   */
+  private final Map<String, Long> seenEvents = new LinkedHashMap<>();
+
+  /**
+   * LTime不大于此水位的事件不再分发: 启动时已存在事件的最大LTime，以及已淘汰事件的最大LTime
+   */
+  @Getter
+  private volatile long watermark = -1;
+
+  private volatile boolean running;
+
+  private Thread watchThread;
+
+  public ClusterConsulEventWatcher(ClusterConsulClient client, String name) {
+    this.client = client;
+    this.name = name;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * 开始监听
+   */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+
+    running = true;
+    watchThread = new Thread(this::watch, "cluster-consul-event-watcher-" + (name == null ? "all" : name));
+    watchThread.setDaemon(true);
+    watchThread.start();
+  }
+
+  @Override
+  public synchronized void close() {
+    running = false;
+    if (watchThread != null) {
+      watchThread.interrupt();
+      watchThread = null;
+    }
+  }
+
+  /**
+   * 阻塞查询循环, 出错时(已切换到其他节点)以索引0立即重新查询，连续出错时退避
+   */
+  private void watch() {
+    long index = 0;
+    int failures = 0;
+    while (running && !Thread.currentThread().isInterrupted()) {
+      try {
+        QueryParams queryParams = new QueryParams(waitTime, index);
+        Response<List<Event>> response = name == null ? client.eventList(queryParams)
+            : client.eventList(name, queryParams);
+        index = response.getConsulIndex() == null ? 0 : response.getConsulIndex();
+        if (response.getValue() != null) {
+          dispatch(accept(response.getValue()));
+        }
+        failures = 0;
+      } catch (Exception e) {
+        if (!running) {
+          return;
+        }
+        index = 0;
+        failures++;
+        log.warn(CommonConstant.LOG_PREFIX + ">>> Watch events({}) failed({}): {} <<<", name, failures, e.getMessage());
+        if (failures > 1) {
+          try {
+            TimeUnit.MILLISECONDS.sleep(Math.min(1000, 100L * failures));
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * 记录并返回未处理过的事件，按LTime排序；第一次调用只确定水位
+   */
+  synchronized List<Event> accept(List<Event> events) {
+    boolean initial = watermark < 0;
+    if (initial) {
+      watermark = 0;
+    }
+
+    List<Event> accepted = new ArrayList<>();
+    for (Event event : events) {
+      long lTime = event.getlTime() == null ? 0 : event.getlTime();
+      if (initial) {
+        watermark = Math.max(watermark, lTime);
+        continue;
+      }
+      if (lTime <= watermark || seenEvents.containsKey(event.getId())) {
+        continue;
+      }
+
+      seenEvents.put(event.getId(), lTime);
+      accepted.add(event);
+    }
+    while (seenEvents.size() > MAX_SEEN_EVENTS) {
+      Map.Entry<String, Long> eldest = seenEvents.entrySet().iterator().next();
+      watermark = Math.max(watermark, eldest.getValue());
+      seenEvents.remove(eldest.getKey());
+    }
+    accepted.sort(Comparator.comparing(event -> event.getlTime() == null ? 0 : event.getlTime()));
+
+    return accepted;
+  }
+
+  private void dispatch(List<Event> events) {
+    for (Event event : events) {
+      log.debug(CommonConstant.LOG_PREFIX + ">>> Event {}({}) received, LTime: {} <<<", event.getName(), event.getId(),
+          event.getlTime());
+      for (Listener listener : listeners) {
+        try {
+          listener.onEvent(event);
+        } catch (Exception e) {
+          log.warn(CommonConstant.LOG_PREFIX + ">>> Event listener of {} failed: {} <<<", event.getName(), e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * 事件回调，在监听线程中按LTime顺序执行
+   */
+  public interface Listener {
+
+    void onEvent(Event event);
+  }
+}
@@ -0,0 +1,293 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.health.model.HealthService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.consul.discovery.ConsulDiscoveryProperties;
+import org.springframework.cloud.consul.discovery.ConsulServiceInstance;
+
+/**
+ * 已去重的服务实例缓存
+ *
+ * 每个被访问过的serviceId由一个后台线程通过 ClusterConsulClient 做阻塞查询(getHealthServices + index)，
+ * 结果经 HealthServiceDeduplicator 去重后放入内存，只有实例集合变化时才通知监听者。
+ * 负载均衡查询实例因此只是一次内存读取。首次加载也在后台线程中执行，不占用调用方(例如reactor的订阅线程)。
+ * 没有监听者且超过idleTimeout未被访问的服务停止监听并移出缓存，再次访问时重新加载。
+ */
+@Slf4j
+public class ClusterConsulInstanceCache implements DisposableBean {
+
+  private final ConsulClient client;
+
+  private final ConsulDiscoveryProperties properties;
+
+  private final HealthServiceDeduplicator deduplicator;
+
+  private final InstanceRttOrdering rttOrdering;
+
+  /**
+   * 阻塞查询的等待时间(秒)
+   */
+  private final long waitTime;
+
+  /**
+   * 空闲淘汰时间(纳秒)，小于等于0时不淘汰
+   */
+  private final long idleTimeoutNanos;
+
+  private final Map<String, ServiceEntry> entries = new ConcurrentHashMap<>();
+
+  private final ExecutorService watchExecutor;
+
+  private volatile boolean running = true;
+
+  public ClusterConsulInstanceCache(ConsulClient client, ConsulDiscoveryProperties properties, long waitTime) {
+    this(client, properties, waitTime, ClusterConsulProperties.DEFAULT_INSTANCE_CACHE_IDLE_TIMEOUT);
+  }
+
+  /**
+   * @param idleTimeout - 空闲淘汰时间(毫秒)
+   */
+  public ClusterConsulInstanceCache(ConsulClient client, ConsulDiscoveryProperties properties, long waitTime,
+      long idleTimeout) {
+    this.client = client;
+    this.properties = properties;
+    this.deduplicator = HealthServiceDeduplicator.create(client);
+    this.rttOrdering = InstanceRttOrdering.create(client);
+    this.waitTime = waitTime;
+    this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+    AtomicInteger threadIndex = new AtomicInteger();
+    this.watchExecutor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "cluster-consul-instance-cache-" + threadIndex.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * 获取服务的实例, 首次访问时开始后台监听并等待其首次加载完成
+   */
+  public List<ServiceInstance> getInstances(String serviceId) {
+    ServiceEntry entry = entry(serviceId);
+    try {
+      entry.initialLoad.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    return entry.instances;
+  }
+
+  /**
+   * 监听实例集合的变化, 不阻塞调用线程：已完成首次加载时立即以当前实例回调一次，否则在首次加载完成时回调
+   */
+  public void addListener(String serviceId, Consumer<List<ServiceInstance>> listener) {
+    while (true) {
+      ServiceEntry entry = entry(serviceId);
+      synchronized (entry) {
+        //取得缓存项后它刚好被淘汰，重新创建
+        if (entry.evicted) {
+          continue;
+        }
+        entry.listeners.add(listener);
+        if (entry.loaded) {
+          listener.accept(entry.instances);
+        }
+        return;
+      }
+    }
+  }
+
+  public void removeListener(String serviceId, Consumer<List<ServiceInstance>> listener) {
+    ServiceEntry entry = entries.get(serviceId);
+    if (entry != null) {
+      entry.listeners.remove(listener);
+    }
+  }
+
+  /**
+   * 正在监听的服务数
+   */
+  public int getWatchedServiceCount() {
+    return entries.size();
+  }
+
+  @Override
+  public void destroy() {
+    this.running = false;
+    this.watchExecutor.shutdownNow();
+  }
+
+  private ServiceEntry entry(String serviceId) {
+    ServiceEntry entry = entries.get(serviceId);
+    if (entry != null) {
+      entry.lastAccess = System.nanoTime();
+      return entry;
+    }
+
+    //调用线程只创建缓存项，首次加载在监听线程中进行
+    ServiceEntry created = new ServiceEntry();
+    entry = entries.putIfAbsent(serviceId, created);
+    if (entry != null) {
+      return entry;
+    }
+    try {
+      watchExecutor.execute(() -> watch(serviceId, created));
+    } catch (RejectedExecutionException e) {
+      created.loaded();
+    }
+
+    return created;
+  }
+
+  /**
+   * 先做一次非阻塞的首次加载，然后进入阻塞查询循环, 出错时保留上一次的结果并在1秒后重试，空闲被淘汰后退出
+   */
+  private void watch(String serviceId, ServiceEntry entry) {
+    try {
+      refresh(serviceId, entry, rttOrdering.createQueryParams(null, -1, -1));
+    } catch (Exception e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Initial load of service({}) instances failed: {} <<<", serviceId,
+          e.getMessage());
+    } finally {
+      entry.loaded();
+    }
+
+    while (running && !Thread.currentThread().isInterrupted() && !evictIfIdle(serviceId, entry)) {
+      try {
+        refresh(serviceId, entry, rttOrdering.createQueryParams(null, waitTime, entry.index));
+      } catch (Exception e) {
+        log.warn(CommonConstant.LOG_PREFIX + ">>> Watch service({}) instances failed: {} <<<", serviceId, e.getMessage());
+        try {
+          TimeUnit.SECONDS.sleep(1);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * 没有监听者且超过idleTimeout未被访问时淘汰，与 addListener 互斥
+   */
+  private boolean evictIfIdle(String serviceId, ServiceEntry entry) {
+    if (idleTimeoutNanos <= 0) {
+      return false;
+    }
+    synchronized (entry) {
+      if (!entry.listeners.isEmpty() || System.nanoTime() - entry.lastAccess < idleTimeoutNanos) {
+        return false;
+      }
+      entry.evicted = true;
+    }
+    entries.remove(serviceId, entry);
+    log.debug(CommonConstant.LOG_PREFIX + ">>> Stop watching idle service({}) instances <<<", serviceId);
+
+    return true;
+  }
+
+  private void refresh(String serviceId, ServiceEntry entry, QueryParams queryParams) {
+    Response<List<HealthService>> response = getHealthServices(serviceId, queryParams);
+    Long consulIndex = response.getConsulIndex();
+    // 索引回退(例如server重建快照)时从0开始重新阻塞
+    entry.index = consulIndex == null || consulIndex < entry.index ? 0 : consulIndex;
+
+    List<HealthService> distinctServices = rttOrdering.sort(deduplicator.deduplicate(response.getValue()));
+    List<String> signature = new ArrayList<>(distinctServices.size());
+    for (HealthService service : distinctServices) {
+      signature.add(service.getService().getId() + CommonConstant.SEPARATOR_COLON + service.getService().getModifyIndex()
+          + CommonConstant.SEPARATOR_COLON + HealthServiceDeduplicator.isPassing(service)
+          + CommonConstant.SEPARATOR_COLON + service.getService().getAddress()
+          + CommonConstant.SEPARATOR_COLON + service.getNode().getAddress());
+    }
+    if (signature.equals(entry.signature)) {
+      return;
+    }
+
+    List<ServiceInstance> instances = new ArrayList<>(distinctServices.size());
+    for (HealthService service : distinctServices) {
+      instances.add(new ConsulServiceInstance(service, serviceId));
+    }
+    log.debug(CommonConstant.LOG_PREFIX + ">>> Service({}) instances changed: {} <<<", serviceId, instances.size());
+    entry.publish(signature, Collections.unmodifiableList(instances));
+  }
+
+  private Response<List<HealthService>> getHealthServices(String serviceId, QueryParams queryParams) {
+    String aclToken = properties.getAclToken();
+    String tag = properties.getQueryTagForService(serviceId);
+    if (StringUtils.isNotEmpty(aclToken)) {
+      return client.getHealthServices(serviceId, tag, properties.isQueryPassing(), queryParams, aclToken);
+    }
+
+    return client.getHealthServices(serviceId, tag, properties.isQueryPassing(), queryParams);
+  }
+
+  /**
+   * 一个服务的缓存
+   */
+  private static class ServiceEntry {
+
+    private volatile List<ServiceInstance> instances = Collections.emptyList();
+
+    private volatile List<String> signature;
+
+    private volatile long index;
+
+    private volatile long lastAccess = System.nanoTime();
+
+    /**
+     * 是否已因空闲被淘汰，由缓存项的锁保护
+     */
+    private boolean evicted;
+
+    /**
+     * 是否已完成首次加载(无论成败)，之后注册的监听者立即回调
+     */
+    private boolean loaded;
+
+    private final CountDownLatch initialLoad = new CountDownLatch(1);
+
+    private final Set<Consumer<List<ServiceInstance>>> listeners = new CopyOnWriteArraySet<>();
+
+    /**
+     * 更新实例并通知监听者，与 addListener 互斥，监听者不会漏掉或重复收到同一次更新
+     */
+    synchronized void publish(List<String> newSignature, List<ServiceInstance> newInstances) {
+      signature = newSignature;
+      instances = newInstances;
+      loaded = true;
+      listeners.forEach(listener -> listener.accept(newInstances));
+    }
+
+    /**
+     * 首次加载结束，加载失败时以空列表通知已注册的监听者
+     */
+    synchronized void loaded() {
+      if (!loaded) {
+        loaded = true;
+        listeners.forEach(listener -> listener.accept(instances));
+      }
+      initialLoad.countDown();
+    }
+  }
+}
@@ -0,0 +1,298 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.kv.model.GetValue;
+import com.ecwid.consul.v1.kv.model.PutParams;
+import com.ecwid.consul.v1.session.model.NewSession;
+import com.ecwid.consul.v1.session.model.Session;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 基于session和KV acquire的leader选举
+ *
+ * 一个后台线程对leader key做阻塞查询: key没有持有者时立即尝试acquire，因此leader主动放弃后
+ * 其他候选者在一次阻塞查询的往返内接任；成为leader时以key的ModifyIndex作为fencing token。
+ * 阻塞查询与其他方法一样在当前节点出错时切换到其他健康节点继续监听；
+ * session只使用TTL并由 SessionRenewalManager 续约，agent宕机不会使leader失去领导权。
+ */
+@Slf4j
+public class ClusterConsulLeaderElection implements AutoCloseable {
+
+  private final ClusterConsulClient client;
+
+  @Getter
+  private final String key;
+
+  /**
+   * session的TTL(秒)
+   */
+  @Getter
+  @Setter
+  private long sessionTtl = 15;
+
+  /**
+   * session失效后key不能被获取的时间(秒)
+   */
+  @Getter
+  @Setter
+  private long lockDelay = 1;
+
+  /**
+   * 阻塞查询的最长时间(秒)
+   */
+  @Getter
+  @Setter
+  private long waitTime = 10;
+
+  @Getter
+  @Setter
+  private String token;
+
+  /**
+   * 成为leader时写入key的值，例如本实例的地址
+   */
+  @Getter
+  @Setter
+  private String value = "";
+
+  private final Set<Listener> listeners = new CopyOnWriteArraySet<>();
+
+  private volatile String sessionId;
+
+  private volatile boolean leader;
+
+  /**
+   * 成为leader时key的ModifyIndex
+   */
+  @Getter
+  private volatile long fencingToken;
+
+  private volatile boolean running;
+
+  private Thread watchThread;
+
+  public ClusterConsulLeaderElection(ClusterConsulClient client, String key) {
+    this.client = client;
+    this.key = key;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  public boolean isLeader() {
+    return leader;
+  }
+
+  /**
+   * 开始参与选举
+   */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+
+    running = true;
+    watchThread = new Thread(this::watch, "cluster-consul-leader-election-" + key);
+    watchThread.setDaemon(true);
+    watchThread.start();
+  }
+
+  /**
+   * 退出选举: 是leader时主动释放key，其他候选者立即接任。
+   * 选举线程在关闭后获得的key或创建的session由选举线程自行释放，不会在关闭后成为leader
+   */
+  @Override
+  public synchronized void close() {
+    running = false;
+    if (watchThread != null) {
+      watchThread.interrupt();
+      watchThread = null;
+    }
+
+    String session = sessionId;
+    if (leader && session != null) {
+      release(session);
+    }
+    revoke();
+    if (session != null) {
+      sessionId = null;
+      destroy(session);
+    }
+  }
+
+  /**
+   * 阻塞查询循环, 出错时(已切换到其他节点)以索引0立即重新查询，连续出错时退避
+   */
+  private void watch() {
+    long index = 0;
+    int failures = 0;
+    while (running && !Thread.currentThread().isInterrupted()) {
+      try {
+        if (!leader) {
+          tryAcquire();
+        }
+
+        Response<GetValue> response = client.getKVValue(key, token, new QueryParams(waitTime, index));
+        long consulIndex = response.getConsulIndex() == null ? 0 : response.getConsulIndex();
+        // 索引回退(例如server重建快照)时从0开始重新阻塞
+        index = consulIndex < index ? 0 : consulIndex;
+        GetValue current = response.getValue();
+        String holder = current == null ? null : current.getSession();
+        if (leader && (holder == null || !holder.equals(sessionId))) {
+          revoke();
+        }
+        if (!leader && holder == null) {
+          tryAcquire();
+        }
+        failures = 0;
+      } catch (Exception e) {
+        if (!running) {
+          return;
+        }
+        index = 0;
+        failures++;
+        log.warn(CommonConstant.LOG_PREFIX + ">>> Watch leader key {} failed({}): {} <<<", key, failures, e.getMessage());
+        if (failures > 1) {
+          try {
+            TimeUnit.MILLISECONDS.sleep(Math.min(1000, 100L * failures));
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    }
+  }
+
+  private void tryAcquire() {
+    String session = ensureSession();
+    PutParams putParams = new PutParams();
+    putParams.setAcquireSession(session);
+    if (!Boolean.TRUE.equals(client.setKVValue(key, value, token, putParams).getValue())) {
+      return;
+    }
+
+    GetValue current = client.getKVValue(key, token).getValue();
+    if (current == null || !session.equals(current.getSession())) {
+      return;
+    }
+    synchronized (this) {
+      //acquire期间选举已关闭: 释放key，不再成为leader
+      if (!running) {
+        release(session);
+        return;
+      }
+      fencingToken = current.getModifyIndex();
+      leader = true;
+      log.info(CommonConstant.LOG_PREFIX + ">>> Leadership of {} granted, fencing token: {} <<<", key, fencingToken);
+      listeners.forEach(listener -> notify(() -> listener.granted(fencingToken)));
+    }
+  }
+
+  private synchronized void revoke() {
+    if (!leader) {
+      return;
+    }
+
+    leader = false;
+    log.info(CommonConstant.LOG_PREFIX + ">>> Leadership of {} revoked, fencing token: {} <<<", key, fencingToken);
+    listeners.forEach(listener -> notify(listener::revoked));
+  }
+
+  private String ensureSession() {
+    String session = sessionId;
+    if (session != null) {
+      return session;
+    }
+    if (!running) {
+      throw new IllegalStateException("Leader election of " + key + " is closed");
+    }
+
+    NewSession newSession = new NewSession();
+    newSession.setName("leader:" + key);
+    newSession.setTtl(sessionTtl + "s");
+    newSession.setLockDelay(lockDelay);
+    newSession.setBehavior(Session.Behavior.RELEASE);
+    //只使用TTL，agent宕机不会使session失效
+    newSession.setChecks(Collections.emptyList());
+    session = client.sessionCreate(newSession, QueryParams.DEFAULT, token).getValue();
+    client.getSessionRenewalManager().register(session, newSession.getTtl(), token, this::sessionLost);
+    synchronized (this) {
+      //创建期间选举已关闭: close() 看不到这个session，在这里销毁
+      if (!running) {
+        destroy(session);
+        throw new IllegalStateException("Leader election of " + key + " is closed");
+      }
+      sessionId = session;
+    }
+
+    return session;
+  }
+
+  private void release(String session) {
+    PutParams putParams = new PutParams();
+    putParams.setReleaseSession(session);
+    try {
+      client.setKVValue(key, value, token, putParams);
+    } catch (Exception e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Release leadership of {} failed: {} <<<", key, e.getMessage());
+    }
+  }
+
+  private void destroy(String session) {
+    try {
+      client.sessionDestroy(session, QueryParams.DEFAULT, token);
+    } catch (Exception e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Destroy session {} of election {} failed: {} <<<", session, key,
+          e.getMessage());
+    }
+  }
+
+  /**
+   * session丢失后key已被consul释放，下一次阻塞查询返回时撤销领导权并用新的session重新参选
+   */
+  private synchronized void sessionLost(String session) {
+    if (session.equals(sessionId)) {
+      sessionId = null;
+      revoke();
+    }
+  }
+
+  private void notify(Runnable callback) {
+    try {
+      callback.run();
+    } catch (Exception e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Leader election listener of {} failed: {} <<<", key, e.getMessage());
+    }
+  }
+
+  /**
+   * 领导权变化的回调，在选举线程中执行
+   */
+  public interface Listener {
+
+    /**
+     * 成为leader
+     *
+     * @param fencingToken - 成为leader时key的ModifyIndex，随每次领导权变更单调递增
+     */
+    void granted(long fencingToken);
+
+    /**
+     * 失去leader
+     */
+    void revoked();
+  }
+}
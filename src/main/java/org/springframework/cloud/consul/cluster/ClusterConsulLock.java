@@ -0,0 +1,232 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.ecwid.consul.v1.OperationException;
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.kv.model.GetValue;
+import com.ecwid.consul.v1.kv.model.PutParams;
+import com.ecwid.consul.v1.session.model.NewSession;
+import com.ecwid.consul.v1.session.model.Session;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 基于session和KV acquire的分布式锁
+ *
+ * session只使用TTL(不绑定serfHealth等检查)，因此当前agent宕机不会使session失效，锁也不会因此释放；
+ * 续约与其他session操作一样在当前节点出错时切换到其他健康节点，锁的持有者在故障切换后仍持有锁，
+ * 释放后可以用同一个session立即重新获取。等待锁时对锁的key做阻塞查询，持有者释放后在一次往返内被唤醒。
+ */
+@Slf4j
+public class ClusterConsulLock implements AutoCloseable {
+
+  private final ClusterConsulClient client;
+
+  @Getter
+  private final String key;
+
+  /**
+   * session的TTL(秒)，由 SessionRenewalManager 每TTL/2续约一次
+   */
+  @Getter
+  @Setter
+  private long sessionTtl = 15;
+
+  /**
+   * session失效后锁不能被获取的时间(秒)
+   */
+  @Getter
+  @Setter
+  private long lockDelay = 1;
+
+  /**
+   * 等待锁时阻塞查询的最长时间(秒)
+   */
+  @Getter
+  @Setter
+  private long waitTime = 10;
+
+  /**
+   * lock-delay期间重试获取锁的间隔(毫秒)
+   */
+  @Getter
+  @Setter
+  private long lockDelayRetryInterval = 100;
+
+  @Getter
+  @Setter
+  private String token;
+
+  /**
+   * 持有锁时写入key的值
+   */
+  @Getter
+  @Setter
+  private String value = "";
+
+  @Getter
+  private volatile String sessionId;
+
+  private volatile boolean locked;
+
+  public ClusterConsulLock(ClusterConsulClient client, String key) {
+    this.client = client;
+    this.key = key;
+  }
+
+  /**
+   * 获取锁，直到获取成功
+   */
+  public void lock() throws InterruptedException {
+    tryLock(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 只尝试一次获取锁
+   */
+  public synchronized boolean tryLock() {
+    return locked || acquire();
+  }
+
+  /**
+   * 在timeout内获取锁，锁被占用时阻塞查询锁的key等待释放
+   */
+  public synchronized boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+    long start = System.currentTimeMillis();
+    long timeoutMillis = unit.toMillis(timeout);
+    long index = 0;
+    while (!locked) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (acquire()) {
+        return true;
+      }
+
+      long remaining = timeoutMillis - (System.currentTimeMillis() - start);
+      if (remaining <= 0) {
+        return false;
+      }
+      long wait = Math.max(1, Math.min(waitTime, TimeUnit.MILLISECONDS.toSeconds(remaining)));
+      Response<GetValue> response = client.getKVValue(key, token, new QueryParams(wait, index));
+      long consulIndex = response.getConsulIndex() == null ? 0 : response.getConsulIndex();
+      // 索引回退(例如server重建快照)时从0开始重新阻塞
+      index = consulIndex < index ? 0 : consulIndex;
+      GetValue current = response.getValue();
+      if ((current == null || current.getSession() == null) && !acquire()) {
+        String session = sessionId;
+        if (session != null && !isSessionAlive(session)) {
+          sessionLost(session);
+        } else {
+          //锁空闲但获取失败: 处于上一个持有者session失效后的lock-delay期间
+          TimeUnit.MILLISECONDS.sleep(Math.min(lockDelayRetryInterval, Math.max(1, remaining)));
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * 释放锁，保留session以便再次快速获取
+   */
+  public synchronized void unlock() {
+    if (!locked) {
+      return;
+    }
+
+    locked = false;
+    PutParams putParams = new PutParams();
+    putParams.setReleaseSession(sessionId);
+    try {
+      client.setKVValue(key, value, token, putParams);
+    } catch (Exception e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Release lock {} failed: {} <<<", key, e.getMessage());
+    }
+  }
+
+  /**
+   * 是否持有锁，session失效后返回false
+   */
+  public boolean isLocked() {
+    return locked;
+  }
+
+  /**
+   * 释放锁并销毁session
+   */
+  @Override
+  public synchronized void close() {
+    unlock();
+    if (sessionId != null) {
+      try {
+        client.sessionDestroy(sessionId, QueryParams.DEFAULT, token);
+      } catch (Exception e) {
+        log.warn(CommonConstant.LOG_PREFIX + ">>> Destroy session {} of lock {} failed: {} <<<", sessionId, key,
+            e.getMessage());
+      }
+      sessionId = null;
+    }
+  }
+
+  private boolean acquire() {
+    String session = ensureSession();
+    PutParams putParams = new PutParams();
+    putParams.setAcquireSession(session);
+    try {
+      locked = Boolean.TRUE.equals(client.setKVValue(key, value, token, putParams).getValue());
+    } catch (OperationException e) {
+      //session已失效(例如长时间无法续约)时consul拒绝acquire，换一个新的session重试
+      if (isSessionAlive(session)) {
+        throw e;
+      }
+      sessionLost(session);
+      return acquire();
+    }
+    if (locked) {
+      log.debug(CommonConstant.LOG_PREFIX + ">>> Lock {} acquired by session {} <<<", key, session);
+    }
+
+    return locked;
+  }
+
+  private boolean isSessionAlive(String session) {
+    return client.getSessionInfo(session, QueryParams.DEFAULT, token).getValue() != null;
+  }
+
+  private String ensureSession() {
+    if (sessionId != null) {
+      return sessionId;
+    }
+
+    NewSession newSession = new NewSession();
+    newSession.setName("lock:" + key);
+    newSession.setTtl(sessionTtl + "s");
+    newSession.setLockDelay(lockDelay);
+    newSession.setBehavior(Session.Behavior.RELEASE);
+    //只使用TTL，agent宕机不会使session失效
+    newSession.setChecks(Collections.emptyList());
+    sessionId = client.sessionCreate(newSession, QueryParams.DEFAULT, token).getValue();
+    client.getSessionRenewalManager().register(sessionId, newSession.getTtl(), token, this::sessionLost);
+
+    return sessionId;
+  }
+
+  /**
+   * 由 SessionRenewalManager 的续约线程调用，不能等待正在阻塞查询的tryLock，因此不加锁
+   */
+  private void sessionLost(String session) {
+    if (!session.equals(sessionId)) {
+      return;
+    }
+
+    log.warn(CommonConstant.LOG_PREFIX + ">>> Session {} of lock {} is lost, locked: {} <<<", session, key, locked);
+    locked = false;
+    sessionId = null;
+    client.getSessionRenewalManager().unregister(session);
+  }
+}
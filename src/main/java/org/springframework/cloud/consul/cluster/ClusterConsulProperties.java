@@ -4,7 +4,10 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeoutException;
 
 import javax.validation.constraints.NotNull;
@@ -13,6 +16,7 @@ import com.ecwid.consul.transport.TransportException;
 import com.ecwid.consul.v1.OperationException;
 import lombok.Getter;
 import lombok.Setter;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.cloud.consul.ConsulProperties;
 import org.springframework.validation.annotation.Validated;
@@ -23,6 +27,11 @@ import org.springframework.validation.annotation.Validated;
 @ConfigurationProperties("spring.cloud.consul")
 @Validated
 public class ClusterConsulProperties extends ConsulProperties {
+
+  public static final long DEFAULT_INSTANCE_CACHE_WAIT_TIME = 55;
+
+  public static final long DEFAULT_INSTANCE_CACHE_IDLE_TIMEOUT = 300000;
+
   @Setter
   @Getter
   private List<String> clusterNodes;
@@ -51,6 +60,219 @@ public class ClusterConsulProperties extends ConsulProperties {
       TransportException.class, OperationException.class, IOException.class,
       ConnectException.class, TimeoutException.class, SocketTimeoutException.class);
 
+  /**
+   * 按方法分类的重试配置，例如 spring.cloud.consul.operation-retry.kv-read.max-attempts=2
+   */
+  @Getter
+  @Setter
+  private Map<OperationFamily, RetrySettings> operationRetry = new EnumMap<>(OperationFamily.class);
+
+  /**
+   * 阻塞查询的总期限为 wait + wait/16 + 该余量(毫秒)，仅在所属分类配置了deadline时生效
+   */
+  @Getter
+  @Setter
+  private long blockingQueryDeadlineMargin = 1000;
+
+  /**
+   * 同时执行的带deadline的尝试数上限，超时的尝试在HTTP请求返回前仍占用线程，用尽时新的调用立即以 DeadlineExceededException 失败
+   */
+  @Getter
+  @Setter
+  private int deadlineMaxConcurrency = 64;
+
+  /**
+   * KV写缓冲的窗口(毫秒)，大于0时 setKVValue(key, value)、setKVBinaryValue(key, value)
+   * 在窗口内合并同一个key的写入并通过 /v1/txn 批量提交；默认0不缓冲
+   */
+  @Getter
+  @Setter
+  private long kvWriteBufferWindow;
+
+  /**
+   * KV二进制值(setKVBinaryValue)的压缩阈值(字节)，不小于该值时压缩后写入；默认0不压缩。
+   * 读取(getKVBinaryValue、getKVBinaryValues)总是识别并解压压缩过的值
+   */
+  @Getter
+  @Setter
+  private int kvCompressionThreshold;
+
+  /**
+   * KV二进制值的压缩算法
+   */
+  @Getter
+  @Setter
+  private KvCompression kvCompression = KvCompression.GZIP;
+
+  /**
+   * setKVLargeValue 分块存储时每个分块的大小(字节)，不能超过consul的单个value大小限制(默认512KB)
+   */
+  @Getter
+  @Setter
+  private int kvChunkSize = 500 * 1024;
+
+  /**
+   * 是否按ModifyIndex增量刷新KEY_VALUE格式的consul配置，只读取变化的key并只针对变化的属性发布事件；
+   * 开启时应关闭 spring.cloud.consul.config.watch.enabled
+   */
+  @Getter
+  @Setter
+  private boolean incrementalConfigRefresh;
+
+  /**
+   * 是否由 SessionRenewalManager 自动续约通过 sessionCreate 创建的带TTL的session
+   */
+  @Getter
+  @Setter
+  private boolean sessionAutoRenew;
+
+  /**
+   * session续约调度的tick(毫秒)
+   */
+  @Getter
+  @Setter
+  private long sessionRenewalTick = 100;
+
+  /**
+   * 每个tick最多提交续约的session数
+   */
+  @Getter
+  @Setter
+  private int sessionRenewalBatchSize = 64;
+
+  /**
+   * 续约session的线程数
+   */
+  @Getter
+  @Setter
+  private int sessionRenewalConcurrency = 4;
+
+  /**
+   * 是否缓存 executePreparedQuery 的结果，缓存项在TTL到期前于后台刷新
+   */
+  @Getter
+  @Setter
+  private boolean preparedQueryCache;
+
+  /**
+   * prepared query没有定义DNS TTL时结果缓存的TTL(毫秒)
+   */
+  @Getter
+  @Setter
+  private long preparedQueryCacheTtl = 10000;
+
+  /**
+   * 最多缓存的prepared query结果数(query与查询参数的组合)
+   */
+  @Getter
+  @Setter
+  private int preparedQueryCacheMaxSize = 1024;
+
+  /**
+   * 是否从集群成员中自动发现额外的client agent，与 spring.cloud.consul.cluster.nodes 中的节点一起使用
+   */
+  @Getter
+  @Setter
+  private boolean agentDiscovery;
+
+  /**
+   * 自动发现的周期(毫秒)
+   */
+  @Getter
+  @Setter
+  private long agentDiscoveryInterval = 60000;
+
+  /**
+   * 节点元数据中没有 http_port 时agent的HTTP端口
+   */
+  @Getter
+  @Setter
+  private int agentDiscoveryPort = 8500;
+
+  /**
+   * 只发现该network segment中的agent，默认不限制
+   */
+  @Getter
+  @Setter
+  private String agentDiscoverySegment;
+
+  /**
+   * 只发现节点元数据包含全部这些键值的agent，例如 spring.cloud.consul.agent-discovery-node-meta.pool=edge
+   */
+  @Getter
+  @Setter
+  private Map<String, String> agentDiscoveryNodeMeta = new HashMap<>();
+
+  /**
+   * 最多使用的自动发现的agent数
+   */
+  @Getter
+  @Setter
+  private int agentDiscoveryMaxAgents = 8;
+
+  /**
+   * 注册、注销、维护模式需要确认的节点数(W)，其余节点在后台完成；小于等于0时需要全部健康节点确认
+   */
+  @Getter
+  @Setter
+  private int registrationQuorum;
+
+  /**
+   * 注册信息反熵修复的周期(毫秒)，小于等于0时关闭
+   */
+  @Getter
+  @Setter
+  private long antiEntropyInterval = 30000;
+
+  /**
+   * 多点注册结果集去重时，各副本检查状态的合并规则
+   */
+  @Getter
+  @Setter
+  private HealthServiceDeduplicator.MergeRule healthMergeRule = HealthServiceDeduplicator.MergeRule.ANY_PASSING;
+
+  /**
+   * 选择当前ConsulClient的策略
+   */
+  @Getter
+  @Setter
+  private AgentAffinity agentAffinity = AgentAffinity.HASH;
+
+  /**
+   * 本机所在可用区，与 spring.cloud.consul.cluster.nodes 中 host:port:zone 的zone对应
+   */
+  @Getter
+  @Setter
+  private String localZone;
+
+  /**
+   * 服务发现结果按网络RTT排序的方式
+   */
+  @Getter
+  @Setter
+  private RttOrdering rttOrdering = RttOrdering.NONE;
+
+  /**
+   * COORDINATES 排序时节点坐标的刷新周期(毫秒)
+   */
+  @Getter
+  @Setter
+  private long coordinateRefreshInterval = 30000;
+
+  /**
+   * LoadBalancer实例缓存阻塞查询的等待时间(秒)
+   */
+  @Getter
+  @Setter
+  private long instanceCacheWaitTime = DEFAULT_INSTANCE_CACHE_WAIT_TIME;
+
+  /**
+   * LoadBalancer实例缓存中没有监听者且超过该时间(毫秒)未被访问的服务停止监听，小于等于0时不淘汰
+   */
+  @Getter
+  @Setter
+  private long instanceCacheIdleTimeout = DEFAULT_INSTANCE_CACHE_IDLE_TIMEOUT;
+
   @Override
   public String toString() {
     return "ClusterConsulProperties{" + "clusterNodes='" + getClusterNodes() + '\''
@@ -59,6 +281,147 @@ public class ClusterConsulProperties extends ConsulProperties {
         + ", clusterClientKey="
         + getClusterClientKey() + ", healthCheckInterval="
         + getHealthCheckInterval() + ", retryableExceptions="
-        + getRetryableExceptions() + '}';
+        + getRetryableExceptions() + ", operationRetry="
+        + getOperationRetry() + ", blockingQueryDeadlineMargin="
+        + getBlockingQueryDeadlineMargin() + ", deadlineMaxConcurrency="
+        + getDeadlineMaxConcurrency() + ", kvWriteBufferWindow="
+        + getKvWriteBufferWindow() + ", kvCompressionThreshold="
+        + getKvCompressionThreshold() + ", kvCompression="
+        + getKvCompression() + ", kvChunkSize="
+        + getKvChunkSize() + ", incrementalConfigRefresh="
+        + isIncrementalConfigRefresh() + ", sessionAutoRenew="
+        + isSessionAutoRenew() + ", sessionRenewalTick="
+        + getSessionRenewalTick() + ", sessionRenewalBatchSize="
+        + getSessionRenewalBatchSize() + ", sessionRenewalConcurrency="
+        + getSessionRenewalConcurrency() + ", preparedQueryCache="
+        + isPreparedQueryCache() + ", preparedQueryCacheTtl="
+        + getPreparedQueryCacheTtl() + ", preparedQueryCacheMaxSize="
+        + getPreparedQueryCacheMaxSize() + ", agentDiscovery="
+        + isAgentDiscovery() + ", agentDiscoveryInterval="
+        + getAgentDiscoveryInterval() + ", agentDiscoveryPort="
+        + getAgentDiscoveryPort() + ", agentDiscoverySegment="
+        + getAgentDiscoverySegment() + ", agentDiscoveryNodeMeta="
+        + getAgentDiscoveryNodeMeta() + ", agentDiscoveryMaxAgents="
+        + getAgentDiscoveryMaxAgents() + ", registrationQuorum="
+        + getRegistrationQuorum() + ", antiEntropyInterval="
+        + getAntiEntropyInterval() + ", healthMergeRule="
+        + getHealthMergeRule() + ", agentAffinity="
+        + getAgentAffinity() + ", localZone="
+        + getLocalZone() + ", rttOrdering="
+        + getRttOrdering() + ", coordinateRefreshInterval="
+        + getCoordinateRefreshInterval() + ", instanceCacheWaitTime="
+        + getInstanceCacheWaitTime() + ", instanceCacheIdleTimeout="
+        + getInstanceCacheIdleTimeout() + '}';
+  }
+
+  /**
+   * 获取某一分类的重试配置，未配置时使用默认值
+   */
+  public RetrySettings getRetrySettings(OperationFamily family) {
+    RetrySettings settings = operationRetry.get(family);
+    return settings != null ? settings : new RetrySettings();
+  }
+
+  /**
+   * 一个方法分类的重试配置
+   */
+  @Getter
+  @Setter
+  public static class RetrySettings {
+
+    /**
+     * 最大调用次数(含首次)，为空时为集群节点数
+     */
+    private Integer maxAttempts;
+
+    /**
+     * 重试预算: 每个请求可换取的重试次数
+     */
+    private double budgetRatio = 0.1;
+
+    /**
+     * 重试预算: 令牌上限(允许的突发重试次数)
+     */
+    private int budgetMaxTokens = 10;
+
+    /**
+     * 整个调用(含所有重试)的总期限(毫秒)，每次尝试只使用剩余的时间，为0时不限制
+     */
+    private long deadline;
+
+    /**
+     * 退避的最小时间(毫秒)，为0时不退避
+     */
+    private long backOffBase = 25;
+
+    /**
+     * 退避的最大时间(毫秒)
+     */
+    private long backOffCap = 500;
+
+    @Override
+    public String toString() {
+      return "{maxAttempts=" + maxAttempts + ", deadline=" + deadline + ", budgetRatio=" + budgetRatio + ", budgetMaxTokens="
+          + budgetMaxTokens + ", backOffBase=" + backOffBase + ", backOffCap=" + backOffCap + '}';
+    }
+  }
+
+  /**
+   * 选择当前ConsulClient的策略
+   */
+  public enum AgentAffinity {
+
+    /**
+     * 在全部健康节点中一致性哈希
+     */
+    HASH,
+
+    /**
+     * 优先本机节点(回环地址或本机IP)，其次同可用区节点，最后一致性哈希
+     */
+    LOCALITY
+  }
+
+  /**
+   * 服务发现结果按网络RTT排序的方式
+   */
+  public enum RttOrdering {
+
+    /**
+     * 不排序
+     */
+    NONE,
+
+    /**
+     * 查询时带上 near=_agent，由consul按到当前agent的RTT排序，仅在只配置了一个节点时生效
+     */
+    NEAR_AGENT,
+
+    /**
+     * 后台缓存节点坐标，按实例地址所在节点在本地估算RTT排序
+     */
+    COORDINATES
+  }
+
+  /**
+   * KV二进制值的压缩算法，code写入压缩头部
+   */
+  @Getter
+  public enum KvCompression {
+
+    GZIP(1, CompressorStreamFactory.GZIP),
+
+    DEFLATE(2, CompressorStreamFactory.DEFLATE),
+
+    BZIP2(3, CompressorStreamFactory.BZIP2);
+
+    private final byte code;
+
+    private final String streamName;
+
+    KvCompression(int code, String streamName) {
+      this.code = (byte) code;
+      this.streamName = streamName;
+    }
   }
 }
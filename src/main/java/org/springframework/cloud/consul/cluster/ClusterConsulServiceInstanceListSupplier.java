@@ -0,0 +1,39 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+
+/**
+ * 基于 ClusterConsulInstanceCache 的 Spring Cloud LoadBalancer 实例列表
+ *
+ * 订阅时立即发出缓存中的实例，此后仅在实例集合变化时发出
+ */
+public class ClusterConsulServiceInstanceListSupplier implements ServiceInstanceListSupplier {
+
+  private final String serviceId;
+
+  private final ClusterConsulInstanceCache instanceCache;
+
+  public ClusterConsulServiceInstanceListSupplier(String serviceId, ClusterConsulInstanceCache instanceCache) {
+    this.serviceId = serviceId;
+    this.instanceCache = instanceCache;
+  }
+
+  @Override
+  public String getServiceId() {
+    return serviceId;
+  }
+
+  @Override
+  public Flux<List<ServiceInstance>> get() {
+    return Flux.create(sink -> {
+      Consumer<List<ServiceInstance>> listener = sink::next;
+      sink.onDispose(() -> instanceCache.removeListener(serviceId, listener));
+      instanceCache.addListener(serviceId, listener);
+    });
+  }
+}
@@ -0,0 +1,109 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+import com.ecwid.consul.v1.OperationException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.RetryPolicy;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+
+/**
+ * 集群重试策略
+ *
+ * 在 SimpleRetryPolicy(异常分类及最大次数)的基础上，只有还存在未尝试过的健康节点且重试预算充足时才重试。
+ * 预算在 registerThrowable 时扣除，保证每次失败最多扣除一次。
+ * 回调在上下文中设置了 FINAL_ATTEMPT_KEY 时(例如多点注册)，失败即为最终结果。
+ */
+@Slf4j
+public class ClusterRetryPolicy implements RetryPolicy {
+
+  /**
+   * 回调设置该属性为 TRUE 后，本次调用的失败不再重试
+   */
+  public static final String FINAL_ATTEMPT_KEY = "finalAttempt";
+
+  private static final String RETRY_GRANTED_KEY = "retryGranted";
+
+  private static final int STATUS_SERVER_ERROR = 500;
+
+  /**
+   * session已失效时consul对acquire等请求返回500及该内容
+   */
+  private static final String INVALID_SESSION = "invalid session";
+
+  private final OperationFamily family;
+
+  private final SimpleRetryPolicy delegate;
+
+  @Getter
+  private final RetryBudget budget;
+
+  private final Predicate<RetryContext> hasUntriedNode;
+
+  /**
+   * @param hasUntriedNode - 判断本次调用是否还有未尝试过的健康节点
+   */
+  public ClusterRetryPolicy(OperationFamily family, int maxAttempts,
+      Map<Class<? extends Throwable>, Boolean> retryableExceptions, RetryBudget budget,
+      Predicate<RetryContext> hasUntriedNode) {
+    this.family = family;
+    this.delegate = new SimpleRetryPolicy(maxAttempts, retryableExceptions, true);
+    this.budget = budget;
+    this.hasUntriedNode = hasUntriedNode;
+  }
+
+  @Override
+  public boolean canRetry(RetryContext context) {
+    if (context.getLastThrowable() == null) {
+      return true; // 首次调用
+    }
+
+    return Boolean.TRUE.equals(context.getAttribute(RETRY_GRANTED_KEY));
+  }
+
+  @Override
+  public RetryContext open(RetryContext parent) {
+    budget.deposit();
+
+    return delegate.open(parent);
+  }
+
+  @Override
+  public void close(RetryContext context) {
+    delegate.close(context);
+  }
+
+  @Override
+  public void registerThrowable(RetryContext context, Throwable throwable) {
+    delegate.registerThrowable(context, throwable);
+
+    boolean granted = false;
+    if (!isRequestError(throwable) && !Boolean.TRUE.equals(context.getAttribute(FINAL_ATTEMPT_KEY))
+        && delegate.canRetry(context) && hasUntriedNode.test(context)) {
+      granted = budget.tryWithdraw();
+      if (!granted) {
+        log.warn(CommonConstant.LOG_PREFIX + ">>> Retry budget of {} exhausted, give up retrying: {} <<<", family,
+            throwable.getMessage());
+      }
+    }
+    context.setAttribute(RETRY_GRANTED_KEY, granted);
+  }
+
+  /**
+   * 请求本身的错误(4xx，或session失效导致的500)：换一个节点结果相同，不重试，也不说明节点不健康
+   */
+  public static boolean isRequestError(Throwable throwable) {
+    if (!(throwable instanceof OperationException)) {
+      return false;
+    }
+
+    OperationException e = (OperationException) throwable;
+    int status = e.getStatusCode();
+    return (status >= 400 && status < STATUS_SERVER_ERROR)
+        || (status == STATUS_SERVER_ERROR && e.getStatusContent() != null
+        && e.getStatusContent().toLowerCase().contains(INVALID_SESSION));
+  }
+}
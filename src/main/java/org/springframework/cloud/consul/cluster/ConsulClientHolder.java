@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.Map;
 
 import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.ConsulRawClient;
 import com.ecwid.consul.v1.QueryParams;
 import com.ecwid.consul.v1.Response;
 import lombok.Getter;
@@ -24,12 +25,24 @@ public class ConsulClientHolder implements Comparable<ConsulClientHolder> {
   @Getter
   private final ConsulProperties properties;
 
+  /**
+   * Consul底层客户端，用于consul-api未提供的接口
+   */
+  @Getter
+  private final ConsulRawClient rawClient;
+
   /**
    * Consul客户端
    */
   @Getter
   private final ConsulClient client;
 
+  /**
+   * 节点所在可用区，取自 spring.cloud.consul.cluster.nodes 中的 host:port:zone，可为空
+   */
+  @Getter
+  private final String zone;
+
   /**
    * 当前ConsulClient是否是健康的
    */
@@ -38,9 +51,15 @@ public class ConsulClientHolder implements Comparable<ConsulClientHolder> {
   private boolean healthy = true;
 
   public ConsulClientHolder(ConsulProperties properties) {
+    this(properties, null);
+  }
+
+  public ConsulClientHolder(ConsulProperties properties, String zone) {
     super();
     this.properties = properties;
-    this.client = ConsulClientUtil.createConsulClient(properties);
+    this.zone = zone;
+    this.rawClient = ConsulClientUtil.createConsulRawClient(properties);
+    this.client = this.rawClient == null ? null : new ConsulClient(this.rawClient);
     if (ObjectUtils.isNotEmpty(this.client)) {
       log.debug(CommonConstant.LOG_PREFIX + ">>> Cluster ConsulClient[{}] created! <<<", this.getClientId());
       this.checkHealth(); // 创建时做一次健康检测
@@ -82,7 +101,7 @@ public class ConsulClientHolder implements Comparable<ConsulClientHolder> {
 
   @Override
   public String toString() {
-    return "{ clientId = " + getClientId() + ", healthy = " + healthy + " }";
+    return "{ clientId = " + getClientId() + ", zone = " + zone + ", healthy = " + healthy + " }";
   }
 }
 
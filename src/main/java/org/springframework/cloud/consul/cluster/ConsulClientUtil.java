@@ -4,11 +4,14 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
 
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 
 import com.ecwid.consul.transport.TLSConfig;
+import com.ecwid.consul.v1.ConsulRawClient;
 import com.ecwid.consul.v1.ConsulClient;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
@@ -24,6 +27,21 @@ import org.springframework.cloud.consul.ConsulProperties;
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class ConsulClientUtil {
 
+  /**
+   * 本机上的节点
+   */
+  public static final int TIER_LOCAL = 0;
+
+  /**
+   * 同一可用区的节点
+   */
+  public static final int TIER_ZONE = 1;
+
+  /**
+   * 其他节点
+   */
+  public static final int TIER_REMOTE = 2;
+
   private static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
 
   /**
@@ -53,17 +71,72 @@ public class ConsulClientUtil {
     return null;
   }
 
+  /**
+   * 先按tier取最优的一组节点，再在组内通过一致性算法选择命中节点
+   *
+   * @param key - 客户端提供的散列key,例如取自客户机的IP
+   * @param clients - 在每次调用之前请确保clients的顺序是一致的
+   * @param tier - 节点的优先级，越小越优先
+   */
+  public static <T> T chooseClient(String key, List<T> clients, ToIntFunction<T> tier) {
+    if (CollectionUtils.isEmpty(clients)) {
+      return null;
+    }
+
+    int bestTier = clients.stream().mapToInt(tier).min().getAsInt();
+    List<T> bestClients = clients.stream().filter(client -> tier.applyAsInt(client) == bestTier)
+        .collect(Collectors.toList());
+
+    return chooseClient(key, bestClients);
+  }
+
+  /**
+   * 计算节点相对于本机的位置
+   *
+   * @param host - 节点的host
+   * @param zone - 节点所在可用区，可为空
+   * @param localIp - 本机IP
+   * @param localZone - 本机所在可用区，可为空
+   */
+  public static int localityTier(String host, String zone, String localIp, String localZone) {
+    if (isLoopback(host) || StringUtils.equals(host, localIp)) {
+      return TIER_LOCAL;
+    }
+    if (StringUtils.isNotEmpty(localZone) && StringUtils.equals(zone, localZone)) {
+      return TIER_ZONE;
+    }
+
+    return TIER_REMOTE;
+  }
+
+  /**
+   * 不做DNS解析，仅按字面判断是否回环地址
+   */
+  private static boolean isLoopback(String host) {
+    return StringUtils.equalsIgnoreCase(host, "localhost") || StringUtils.startsWith(host, "127.")
+        || StringUtils.equals(host, "::1") || StringUtils.equals(host, "[::1]");
+  }
+
   /**
    * 创建 ConsulClient, copy from ConsulAutoConfiguration
    */
   public static ConsulClient createConsulClient(ConsulProperties consulProperties) {
+    ConsulRawClient rawClient = createConsulRawClient(consulProperties);
+
+    return rawClient == null ? null : new ConsulClient(rawClient);
+  }
+
+  /**
+   * 创建 ConsulRawClient, 用于consul-api未提供的接口(例如 /v1/txn)
+   */
+  public static ConsulRawClient createConsulRawClient(ConsulProperties consulProperties) {
     final int agentPort = consulProperties.getPort();
     final String agentHost = StringUtils.isEmpty(consulProperties.getScheme())
         ? consulProperties.getHost()
         : consulProperties.getScheme() + CommonConstant.SEPARATOR_COLON + StringUtils.repeat(CommonConstant.SEPARATOR_VIRGULE, 2) + consulProperties
             .getHost();
 
-    ConsulClient consulClient = null;
+    ConsulRawClient rawClient = null;
 
     if (consulProperties.getTls() != null) {
       ConsulProperties.TLSConfig tls = consulProperties.getTls();
@@ -71,7 +144,7 @@ public class ConsulClientUtil {
           tls.getCertificatePath(), tls.getCertificatePassword(),
           tls.getKeyStorePath(), tls.getKeyStorePassword());
       try {
-        consulClient = new ConsulClient(agentHost, agentPort, tlsConfig);
+        rawClient = new ConsulRawClient(agentHost, agentPort, tlsConfig);
         log.debug(
             CommonConstant.LOG_PREFIX + ">>> createConsulClient Success. agentHost: " + agentHost + "      agentPort: " + agentPort + "     tlsConfig: " + tlsConfig
                 + " <<<");
@@ -82,13 +155,13 @@ public class ConsulClientUtil {
       }
     } else {
       try {
-        consulClient = new ConsulClient(agentHost, agentPort);
+        rawClient = new ConsulRawClient(agentHost, agentPort);
         log.debug(CommonConstant.LOG_PREFIX + ">>> createConsulClient Success. agentHost: " + agentHost + "      agentPort: " + agentPort + " <<<");
       } catch (Exception e) {
         log.warn(CommonConstant.LOG_PREFIX + ">>> createConsulClient Fail. agentHost: " + agentHost + "      agentPort: " + agentPort + "  {}  <<<", e.getMessage());
       }
     }
 
-    return consulClient;
+    return rawClient;
   }
 }
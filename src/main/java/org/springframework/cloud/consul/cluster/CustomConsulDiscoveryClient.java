@@ -1,45 +1,76 @@
 package org.springframework.cloud.consul.cluster;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.health.model.HealthService;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.consul.discovery.ConsulDiscoveryClient;
 import org.springframework.cloud.consul.discovery.ConsulDiscoveryProperties;
+import org.springframework.cloud.consul.discovery.ConsulServiceInstance;
 
 /**
  * 自定义的ConsulDiscoveryClient
  *
- * 解决微服务在不同consul节点上重复注册导致getInstances方法返回的结果集重复问题
+ * 解决微服务在不同consul节点上重复注册导致getInstances方法返回的结果集重复问题，
+ * 并可按 spring.cloud.consul.rtt-ordering 将网络上更近的实例排在前面
  */
 @Slf4j
 public class CustomConsulDiscoveryClient extends ConsulDiscoveryClient {
 
+  private final ConsulClient client;
+
+  private final ConsulDiscoveryProperties properties;
+
+  private final HealthServiceDeduplicator deduplicator;
+
+  private final InstanceRttOrdering rttOrdering;
+
   public CustomConsulDiscoveryClient(ConsulClient client,
       ConsulDiscoveryProperties properties) {
     super(client, properties);
+    this.client = client;
+    this.properties = properties;
+    this.deduplicator = HealthServiceDeduplicator.create(client);
+    this.rttOrdering = InstanceRttOrdering.create(client);
   }
 
   /**
    * 重写getInstances方法去重
+   *
+   * 在 HealthService 层面一次遍历完成去重, 只为唯一实例创建 ServiceInstance
    */
   @Override
   public List<ServiceInstance> getInstances(String serviceId) {
-    List<ServiceInstance> instances = super.getInstances(serviceId);
-    log.info(CommonConstant.LOG_PREFIX + ">>> Before distinct:  Get instances of service({}) from consul : {} <<<", serviceId,
-        instances);
-    Map<String, ServiceInstance> filteredInstances = new HashMap<>();
-    for (ServiceInstance instance : instances) { // 去重
-      filteredInstances.putIfAbsent(instance.getInstanceId(), instance);
+    List<HealthService> healthServices = getHealthServices(serviceId, rttOrdering.createQueryParams(null, -1, -1));
+    List<HealthService> distinctServices = rttOrdering.sort(deduplicator.deduplicate(healthServices));
+
+    List<ServiceInstance> instances = new ArrayList<>(distinctServices.size());
+    for (HealthService healthService : distinctServices) {
+      instances.add(new ConsulServiceInstance(healthService, serviceId));
     }
-    instances = new ArrayList<>(filteredInstances.values());
-    log.info(CommonConstant.LOG_PREFIX + ">>> After distinct:  Get instances of service({}) from consul : {} <<<", serviceId,
-        instances);
+    log.debug(CommonConstant.LOG_PREFIX + ">>> Get instances of service({}) from consul: {} distinct of {} <<<", serviceId,
+        instances.size(), healthServices.size());
 
     return instances;
   }
+
+  private List<HealthService> getHealthServices(String serviceId, QueryParams queryParams) {
+    String aclToken = properties.getAclToken();
+    String tag = properties.getQueryTagForService(serviceId);
+    Response<List<HealthService>> response;
+    if (StringUtils.isNotEmpty(aclToken)) {
+      response = client.getHealthServices(serviceId, tag, properties.isQueryPassing(), queryParams, aclToken);
+    } else {
+      response = client.getHealthServices(serviceId, tag, properties.isQueryPassing(), queryParams);
+    }
+
+    return response.getValue() == null ? Collections.emptyList() : response.getValue();
+  }
 }
@@ -0,0 +1,30 @@
+package org.springframework.cloud.consul.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * 自定义的Spring Cloud LoadBalancer客户端配置，用于覆盖默认的ServiceInstanceListSupplier
+ */
+@Slf4j
+@Configuration
+public class CustomConsulLoadBalancerClientConfiguration {
+
+  /**
+   * 基于集群实例缓存的ServiceInstanceListSupplier
+   */
+  @Bean
+  @ConditionalOnMissingBean
+  public ServiceInstanceListSupplier serviceInstanceListSupplier(Environment environment,
+      ClusterConsulInstanceCache instanceCache) {
+    String serviceId = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+    log.info(CommonConstant.LOG_PREFIX + ">>> cluster consul service instance list supplier: {} <<<", serviceId);
+
+    return new ClusterConsulServiceInstanceListSupplier(serviceId, instanceCache);
+  }
+}
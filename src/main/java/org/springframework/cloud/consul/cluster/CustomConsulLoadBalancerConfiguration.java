@@ -0,0 +1,45 @@
+package org.springframework.cloud.consul.cluster;
+
+import com.ecwid.consul.v1.ConsulClient;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.consul.ConditionalOnConsulEnabled;
+import org.springframework.cloud.consul.ConsulProperties;
+import org.springframework.cloud.consul.discovery.ConsulDiscoveryProperties;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 自定义的Spring Cloud LoadBalancer配置
+ *
+ * 负载均衡的实例列表由已去重的 ClusterConsulInstanceCache 提供
+ */
+@Configuration
+@ConditionalOnConsulEnabled
+@ConditionalOnClass({ServiceInstanceListSupplier.class, ConsulDiscoveryProperties.class})
+@ConditionalOnProperty(value = "spring.cloud.consul.discovery.enabled", matchIfMissing = true)
+@AutoConfigureAfter(CustomConsulDiscoveryClientConfiguration.class)
+@LoadBalancerClients(defaultConfiguration = CustomConsulLoadBalancerClientConfiguration.class)
+public class CustomConsulLoadBalancerConfiguration {
+
+  /**
+   * 已去重的服务实例缓存
+   */
+  @Bean
+  @ConditionalOnMissingBean
+  public ClusterConsulInstanceCache clusterConsulInstanceCache(ConsulClient consulClient,
+      ConsulDiscoveryProperties discoveryProperties, ConsulProperties consulProperties) {
+    long waitTime = consulProperties instanceof ClusterConsulProperties
+        ? ((ClusterConsulProperties) consulProperties).getInstanceCacheWaitTime()
+        : ClusterConsulProperties.DEFAULT_INSTANCE_CACHE_WAIT_TIME;
+    long idleTimeout = consulProperties instanceof ClusterConsulProperties
+        ? ((ClusterConsulProperties) consulProperties).getInstanceCacheIdleTimeout()
+        : ClusterConsulProperties.DEFAULT_INSTANCE_CACHE_IDLE_TIMEOUT;
+
+    return new ClusterConsulInstanceCache(consulClient, discoveryProperties, waitTime, idleTimeout);
+  }
+}
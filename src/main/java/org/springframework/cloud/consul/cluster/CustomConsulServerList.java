@@ -1,11 +1,14 @@
 package org.springframework.cloud.consul.cluster;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.QueryParams;
 import com.ecwid.consul.v1.health.model.HealthService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cloud.consul.discovery.ConsulDiscoveryProperties;
@@ -16,22 +19,48 @@ import org.springframework.cloud.consul.discovery.ConsulServerList;
  * 自定义ConsulServerList
  *
  * 解决微服务在不同consul节点上重复注册导致ServerList结果集重复问题
+ *
+ * 保留上一次的结果快照，按实例ID与ModifyIndex检测变化：未变化的实例复用原有的 ConsulServer，
+ * 整体没有变化时直接返回上一次的列表，避免每次刷新都重建所有 ConsulServer 及其metadata。
+ *
+ * 可按 spring.cloud.consul.rtt-ordering 将网络上更近的实例排在前面。
  */
 @Slf4j
 public class CustomConsulServerList extends ConsulServerList {
 
   private final ConsulDiscoveryProperties properties;
 
+  private final HealthServiceDeduplicator deduplicator;
+
+  private final InstanceRttOrdering rttOrdering;
+
+  /**
+   * 上一次刷新的结果
+   */
+  private volatile Snapshot snapshot = Snapshot.EMPTY;
+
   public CustomConsulServerList(ConsulClient client,
       ConsulDiscoveryProperties properties) {
     super(client, properties);
     this.properties = properties;
+    this.deduplicator = HealthServiceDeduplicator.create(client);
+    this.rttOrdering = InstanceRttOrdering.create(client);
+  }
+
+  /**
+   * NEAR_AGENT 模式下带上 near=_agent
+   */
+  @Override
+  protected QueryParams createQueryParamsForClientRequest() {
+    String datacenter = this.properties.getDatacenters().get(getServiceId());
+
+    return rttOrdering.createQueryParams(datacenter, -1, -1);
   }
 
   @Override
   public List<ConsulServer> getInitialListOfServers() {
     List<ConsulServer> servers = super.getInitialListOfServers();
-    log.info(CommonConstant.LOG_PREFIX + ">>> Get initial servers : {} <<<", servers);
+    log.debug(CommonConstant.LOG_PREFIX + ">>> Get initial servers : {} <<<", servers);
 
     return servers;
   }
@@ -39,26 +68,56 @@ public class CustomConsulServerList extends ConsulServerList {
   @Override
   public List<ConsulServer> getUpdatedListOfServers() {
     List<ConsulServer> servers = super.getUpdatedListOfServers();
-    log.info(CommonConstant.LOG_PREFIX + ">>> Get update servers : {} <<<", servers);
+    log.debug(CommonConstant.LOG_PREFIX + ">>> Get update servers : {} <<<", servers);
 
     return servers;
   }
 
+  /**
+   * 先在 HealthService 层面一次遍历去重, 只为新增或变化的实例创建 ConsulServer
+   *
+   * @return 没有任何变化时返回与上一次相同的(不可修改的)列表
+   */
   @Override
   protected List<ConsulServer> transformResponse(List<HealthService> healthServices) {
-    Map<String, ConsulServer> servers = new HashMap<>();
-    for (HealthService service : healthServices) {
+    List<HealthService> distinctServices = rttOrdering.sort(deduplicator.deduplicate(healthServices)); // 去重并排序
+    Snapshot previous = this.snapshot;
+
+    Map<String, CachedServer> cachedServers = new HashMap<>((int) (distinctServices.size() / 0.75f) + 1);
+    List<ConsulServer> servers = new ArrayList<>(distinctServices.size());
+    boolean changed = distinctServices.size() != previous.servers.size();
+    for (HealthService service : distinctServices) {
       String instanceId = service.getService().getId();
-      ConsulServer server = new ConsulServer(service);
-      if (server.getMetadata()
-          .containsKey(this.properties.getDefaultZoneMetadataName())) {
-        server.setZone(server.getMetadata()
-            .get(this.properties.getDefaultZoneMetadataName()));
+      CachedServer cached = previous.cachedServers.get(instanceId);
+      if (cached == null || !cached.isSame(service)) {
+        cached = new CachedServer(service, createServer(service));
+        changed = true;
+      } else if (!changed && previous.servers.get(servers.size()) != cached.server) {
+        changed = true; // 顺序变化
       }
-      servers.putIfAbsent(instanceId, server); // 去重
+      cachedServers.put(instanceId, cached);
+      servers.add(cached.server);
+    }
+
+    if (!changed) {
+      log.debug(CommonConstant.LOG_PREFIX + ">>> Servers unchanged, reuse {} servers <<<", servers.size());
+      return previous.servers;
+    }
+    Snapshot current = new Snapshot(cachedServers, Collections.unmodifiableList(servers));
+    this.snapshot = current;
+
+    return current.servers;
+  }
+
+  private ConsulServer createServer(HealthService service) {
+    ConsulServer server = new ConsulServer(service);
+    if (server.getMetadata()
+        .containsKey(this.properties.getDefaultZoneMetadataName())) {
+      server.setZone(server.getMetadata()
+          .get(this.properties.getDefaultZoneMetadataName()));
     }
 
-    return new ArrayList<>(servers.values());
+    return server;
   }
 
   @Override
@@ -66,4 +125,55 @@ public class CustomConsulServerList extends ConsulServerList {
     return properties;
   }
 
+  /**
+   * 一次刷新的结果
+   */
+  private static class Snapshot {
+
+    static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), Collections.emptyList());
+
+    final Map<String, CachedServer> cachedServers;
+
+    final List<ConsulServer> servers;
+
+    Snapshot(Map<String, CachedServer> cachedServers, List<ConsulServer> servers) {
+      this.cachedServers = cachedServers;
+      this.servers = servers;
+    }
+  }
+
+  /**
+   * 已创建的 ConsulServer 及判断其是否需要重建的依据
+   */
+  private static class CachedServer {
+
+    final Long modifyIndex;
+
+    final boolean passing;
+
+    final String serviceAddress;
+
+    final String nodeAddress;
+
+    final ConsulServer server;
+
+    CachedServer(HealthService service, ConsulServer server) {
+      this.modifyIndex = service.getService().getModifyIndex();
+      this.passing = HealthServiceDeduplicator.isPassing(service);
+      this.serviceAddress = service.getService().getAddress();
+      this.nodeAddress = service.getNode().getAddress();
+      this.server = server;
+    }
+
+    /**
+     * 服务定义(ModifyIndex)、健康状态及地址均未变化
+     */
+    boolean isSame(HealthService service) {
+      return modifyIndex != null
+          && modifyIndex.equals(service.getService().getModifyIndex())
+          && passing == HealthServiceDeduplicator.isPassing(service)
+          && Objects.equals(serviceAddress, service.getService().getAddress())
+          && Objects.equals(nodeAddress, service.getNode().getAddress());
+    }
+  }
 }
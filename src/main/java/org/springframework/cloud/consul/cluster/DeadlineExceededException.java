@@ -0,0 +1,15 @@
+package org.springframework.cloud.consul.cluster;
+
+
+import lombok.NoArgsConstructor;
+
+/**
+ * 调用在配置的总期限内没有完成，不会再重试其他节点
+ */
+@NoArgsConstructor
+public class DeadlineExceededException extends RuntimeException {
+
+  public DeadlineExceededException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,79 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.backoff.BackOffContext;
+import org.springframework.retry.backoff.BackOffInterruptedException;
+import org.springframework.retry.backoff.BackOffPolicy;
+
+/**
+ * Decorrelated jitter 退避: sleep = min(cap, random(base, previous * 3))
+ *
+ * 相比固定或指数退避，多个客户端的重试时间点更分散，不会在同一时刻一起打到剩余节点上。
+ * 调用配置了期限时退避时间不超过剩余的期限，期限用尽后下一次尝试立即失败。
+ */
+public class DecorrelatedJitterBackOffPolicy implements BackOffPolicy {
+
+  /**
+   * RetryContext中调用期限(System.nanoTime)的属性名
+   */
+  public static final String DEADLINE_NANOS_KEY = "deadlineNanos";
+
+  private final long base;
+
+  private final long cap;
+
+  /**
+   * @param base - 最小退避时间(毫秒)，为0时不退避
+   * @param cap - 最大退避时间(毫秒)
+   */
+  public DecorrelatedJitterBackOffPolicy(long base, long cap) {
+    this.base = base;
+    this.cap = Math.max(base, cap);
+  }
+
+  @Override
+  public BackOffContext start(RetryContext context) {
+    return new JitterBackOffContext(context, base);
+  }
+
+  @Override
+  public void backOff(BackOffContext backOffContext) throws BackOffInterruptedException {
+    if (base <= 0) {
+      return;
+    }
+
+    JitterBackOffContext context = (JitterBackOffContext) backOffContext;
+    long upper = Math.max(base + 1, context.previous * 3);
+    long sleep = Math.min(cap, ThreadLocalRandom.current().nextLong(base, upper));
+    context.previous = sleep;
+    Object deadlineNanos = context.retryContext.getAttribute(DEADLINE_NANOS_KEY);
+    if (deadlineNanos != null) {
+      long remaining = TimeUnit.NANOSECONDS.toMillis((Long) deadlineNanos - System.nanoTime());
+      sleep = Math.min(sleep, Math.max(0, remaining));
+    }
+    if (sleep <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(sleep);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BackOffInterruptedException("Thread interrupted while sleeping", e);
+    }
+  }
+
+  private static class JitterBackOffContext implements BackOffContext {
+
+    private final RetryContext retryContext;
+
+    private long previous;
+
+    JitterBackOffContext(RetryContext retryContext, long previous) {
+      this.retryContext = retryContext;
+      this.previous = previous;
+    }
+  }
+}
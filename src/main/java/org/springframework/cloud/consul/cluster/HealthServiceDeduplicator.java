@@ -0,0 +1,155 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.health.model.Check;
+import com.ecwid.consul.v1.health.model.Check.CheckStatus;
+import com.ecwid.consul.v1.health.model.HealthService;
+import lombok.Getter;
+
+/**
+ * 多点注册结果集去重
+ *
+ * 服务在每个consul节点上都注册了一遍，getHealthServices 对每个实例返回N份副本，每份副本带有各自节点上的检查结果。
+ * 这里一次遍历完成去重：按实例ID保持首次出现的顺序(因此consul的near排序等得以保留)，
+ * 并按 MergeRule 合并各副本的检查状态，选出代表该实例的副本。
+ *
+ * 内部只为每个唯一实例保留一个合并对象，内存与CPU随唯一实例数增长，而非实例数 × 节点数。
+ */
+public class HealthServiceDeduplicator {
+
+  /**
+   * 副本检查状态的合并规则
+   */
+  public enum MergeRule {
+    /**
+     * 任一副本的检查全部通过即认为实例健康
+     */
+    ANY_PASSING,
+    /**
+     * 超过半数副本的检查全部通过才认为实例健康
+     */
+    MAJORITY
+  }
+
+  @Getter
+  private final MergeRule mergeRule;
+
+  /**
+   * 预计每个实例的副本数, 用于按结果集大小预估实例数(同一个去重器被多个服务共用，不保留上一次的实例数)
+   */
+  private final int expectedCopies;
+
+  public HealthServiceDeduplicator(MergeRule mergeRule, int expectedCopies) {
+    this.mergeRule = mergeRule == null ? MergeRule.ANY_PASSING : mergeRule;
+    this.expectedCopies = Math.max(expectedCopies, 1);
+  }
+
+  /**
+   * 按ConsulClient的集群配置创建, 非集群ConsulClient使用默认规则。
+   * 服务只注册在配置的节点上(自动发现的agent不写入注册信息)，因此副本数为配置的节点数
+   */
+  public static HealthServiceDeduplicator create(ConsulClient client) {
+    if (client instanceof ClusterConsulClient) {
+      ClusterConsulProperties properties = ((ClusterConsulClient) client).getClusterConsulProperties();
+      return new HealthServiceDeduplicator(properties.getHealthMergeRule(),
+          properties.getClusterNodes() == null ? 1 : properties.getClusterNodes().size());
+    }
+
+    return new HealthServiceDeduplicator(MergeRule.ANY_PASSING, 1);
+  }
+
+  /**
+   * 一次遍历去重并合并检查状态
+   *
+   * @return 每个实例一个代表副本, 顺序与各实例首次出现的顺序一致
+   */
+  public List<HealthService> deduplicate(List<HealthService> healthServices) {
+    if (healthServices == null || healthServices.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    int expected = healthServices.size() / expectedCopies + 1;
+    Map<String, MergedInstance> merged = new LinkedHashMap<>((int) (expected / 0.75f) + 1);
+    for (HealthService healthService : healthServices) {
+      String instanceId = healthService.getService().getId();
+      boolean passing = isPassing(healthService);
+      MergedInstance instance = merged.get(instanceId);
+      if (instance == null) {
+        merged.put(instanceId, new MergedInstance(healthService, passing));
+      } else {
+        instance.add(healthService, passing);
+      }
+    }
+
+    List<HealthService> result = new ArrayList<>(merged.size());
+    for (MergedInstance instance : merged.values()) {
+      result.add(instance.representative(mergeRule));
+    }
+
+    return result;
+  }
+
+  /**
+   * 副本上的检查是否全部通过
+   */
+  public static boolean isPassing(HealthService healthService) {
+    List<Check> checks = healthService.getChecks();
+    if (checks != null) {
+      for (Check check : checks) {
+        if (check.getStatus() != CheckStatus.PASSING) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * 同一实例的所有副本
+   */
+  private static class MergedInstance {
+
+    private final HealthService first;
+
+    private HealthService firstPassing;
+
+    private HealthService firstFailing;
+
+    private int copies;
+
+    private int passingCopies;
+
+    MergedInstance(HealthService healthService, boolean passing) {
+      this.first = healthService;
+      add(healthService, passing);
+    }
+
+    void add(HealthService healthService, boolean passing) {
+      copies++;
+      if (passing) {
+        passingCopies++;
+        if (firstPassing == null) {
+          firstPassing = healthService;
+        }
+      } else if (firstFailing == null) {
+        firstFailing = healthService;
+      }
+    }
+
+    HealthService representative(MergeRule rule) {
+      boolean healthy = rule == MergeRule.MAJORITY ? passingCopies * 2 > copies : passingCopies > 0;
+      if (healthy) {
+        return firstPassing;
+      }
+
+      return firstFailing != null ? firstFailing : first;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.kv.model.GetValue;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 一个KV前缀的增量快照
+ *
+ * 记录前缀下每个key的ModifyIndex。每次变化只做一次递归的阻塞查询(getKVValues)，在本地对比ModifyIndex
+ * 得出新增、修改及删除的key，因此下游(配置源更新、事件发布)只处理变化的key；请求数与前缀下的key数无关。
+ */
+@Slf4j
+public class IncrementalKVSnapshot {
+
+  private final ClusterConsulClient client;
+
+  @Getter
+  private final String keyPrefix;
+
+  private final String token;
+
+  /**
+   * key -> ModifyIndex
+   */
+  private final Map<String, Long> modifyIndexes = new ConcurrentHashMap<>();
+
+  /**
+   * 前缀上一次阻塞查询的索引
+   */
+  @Getter
+  private volatile long index;
+
+  public IncrementalKVSnapshot(ClusterConsulClient client, String keyPrefix, String token) {
+    this.client = client;
+    this.keyPrefix = keyPrefix;
+    this.token = token;
+  }
+
+  /**
+   * 全量加载一次前缀，返回的变化包含前缀下全部的key
+   */
+  public Delta load() {
+    modifyIndexes.clear();
+    Response<List<GetValue>> response = client.getKVValues(keyPrefix, token, QueryParams.DEFAULT);
+    this.index = response.getConsulIndex() == null ? 0 : response.getConsulIndex();
+
+    return diff(response.getValue());
+  }
+
+  /**
+   * 以上一次的索引做一次阻塞查询，返回期间变化的key
+   *
+   * @param waitTime - 阻塞查询的等待时间(秒)
+   */
+  public Delta poll(long waitTime) {
+    Response<List<GetValue>> response = client.getKVValues(keyPrefix, token, new QueryParams(waitTime, index));
+    Long consulIndex = response.getConsulIndex();
+    if (consulIndex != null && consulIndex == index) {
+      return Delta.EMPTY;
+    }
+    // 索引回退(例如server重建快照)时从0开始重新阻塞
+    this.index = consulIndex == null || consulIndex < index ? 0 : consulIndex;
+
+    Delta delta = diff(response.getValue());
+    if (!delta.isEmpty()) {
+      log.debug(CommonConstant.LOG_PREFIX + ">>> KV prefix {} changed => keys: {}  ===  changed: {}  ===  removed: {} <<<",
+          keyPrefix, modifyIndexes.size(), delta.getChanged().keySet(), delta.getRemoved());
+    }
+
+    return delta;
+  }
+
+  public Set<String> getKeys() {
+    return Collections.unmodifiableSet(modifyIndexes.keySet());
+  }
+
+  /**
+   * 与记录的ModifyIndex对比，更新记录并返回变化
+   */
+  private Delta diff(List<GetValue> values) {
+    List<GetValue> current = values == null ? Collections.emptyList() : values;
+    Map<String, GetValue> changed = new LinkedHashMap<>();
+    Set<String> removed = new HashSet<>(modifyIndexes.keySet());
+    for (GetValue value : current) {
+      removed.remove(value.getKey());
+      Long previous = modifyIndexes.put(value.getKey(), value.getModifyIndex());
+      if (previous == null || previous != value.getModifyIndex()) {
+        changed.put(value.getKey(), value);
+      }
+    }
+    removed.forEach(modifyIndexes::remove);
+
+    return new Delta(changed, removed);
+  }
+
+  /**
+   * 一次变化: 新增或修改的key及其value，以及删除的key
+   */
+  @Getter
+  public static class Delta {
+
+    static final Delta EMPTY = new Delta(Collections.emptyMap(), Collections.emptySet());
+
+    private final Map<String, GetValue> changed;
+
+    private final Set<String> removed;
+
+    Delta(Map<String, GetValue> changed, Set<String> removed) {
+      this.changed = Collections.unmodifiableMap(changed);
+      this.removed = Collections.unmodifiableSet(removed);
+    }
+
+    public boolean isEmpty() {
+      return changed.isEmpty() && removed.isEmpty();
+    }
+  }
+}
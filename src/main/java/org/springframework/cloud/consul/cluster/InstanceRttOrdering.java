@@ -0,0 +1,99 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.List;
+
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.health.model.HealthService;
+
+/**
+ * 按网络RTT对服务实例排序
+ *
+ * NEAR_AGENT 模式在查询时带上 near=_agent 由consul按到当前agent的RTT排序；
+ * COORDINATES 模式使用 ClusterConsulClient 中缓存的节点坐标，按实例自身地址所在的节点在本地排序。
+ * 去重保持实例首次出现的顺序，因此排序结果在去重后依然有效。
+ *
+ * near=_agent 按注册副本所在的agent排序：多点注册时每个实例在每个agent上都有副本，去重后保留的都是最近agent上的副本，
+ * 顺序与实例所在位置无关，因此配置了多个节点时 NEAR_AGENT 不生效。
+ */
+public class InstanceRttOrdering {
+
+  /**
+   * 让consul按到被查询agent的RTT排序
+   */
+  public static final String NEAR_AGENT = "_agent";
+
+  private final ClusterConsulProperties.RttOrdering mode;
+
+  private final NodeCoordinateCache coordinateCache;
+
+  public InstanceRttOrdering(ClusterConsulProperties.RttOrdering mode, NodeCoordinateCache coordinateCache) {
+    this.mode = coordinateCache == null && mode == ClusterConsulProperties.RttOrdering.COORDINATES
+        ? ClusterConsulProperties.RttOrdering.NONE : mode;
+    this.coordinateCache = coordinateCache;
+  }
+
+  /**
+   * 按给定ConsulClient的配置创建，非 ClusterConsulClient 时不排序
+   */
+  public static InstanceRttOrdering create(ConsulClient client) {
+    if (client instanceof ClusterConsulClient) {
+      ClusterConsulClient clusterConsulClient = (ClusterConsulClient) client;
+      return new InstanceRttOrdering(effectiveMode(clusterConsulClient.getClusterConsulProperties()),
+          clusterConsulClient.getNodeCoordinateCache());
+    }
+
+    return new InstanceRttOrdering(ClusterConsulProperties.RttOrdering.NONE, null);
+  }
+
+  /**
+   * 实际生效的排序方式，配置了多个节点(多点注册)时 NEAR_AGENT 退化为不排序
+   */
+  static ClusterConsulProperties.RttOrdering effectiveMode(ClusterConsulProperties properties) {
+    ClusterConsulProperties.RttOrdering mode = properties.getRttOrdering();
+    if (mode == ClusterConsulProperties.RttOrdering.NEAR_AGENT && properties.getClusterNodes() != null
+        && properties.getClusterNodes().size() > 1) {
+      return ClusterConsulProperties.RttOrdering.NONE;
+    }
+
+    return mode;
+  }
+
+  /**
+   * 创建查询参数，NEAR_AGENT 模式下带上 near=_agent
+   *
+   * @param datacenter - 可为空
+   * @param waitTime - 阻塞查询等待时间(秒)，非阻塞查询传-1
+   * @param index - 阻塞查询的index，非阻塞查询传-1
+   */
+  public QueryParams createQueryParams(String datacenter, long waitTime, long index) {
+    boolean nearAgent = mode == ClusterConsulProperties.RttOrdering.NEAR_AGENT;
+    if (!nearAgent && datacenter == null && waitTime < 0) {
+      return QueryParams.DEFAULT;
+    }
+
+    QueryParams.Builder builder = QueryParams.Builder.builder();
+    if (nearAgent) {
+      builder.setNear(NEAR_AGENT);
+    }
+    if (datacenter != null) {
+      builder.setDatacenter(datacenter);
+    }
+    if (waitTime >= 0) {
+      builder.setWaitTime(waitTime).setIndex(index);
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * COORDINATES 模式下按估算的RTT稳定排序，其他模式原样返回
+   */
+  public List<HealthService> sort(List<HealthService> healthServices) {
+    if (mode != ClusterConsulProperties.RttOrdering.COORDINATES) {
+      return healthServices;
+    }
+
+    return coordinateCache.sort(healthServices);
+  }
+}
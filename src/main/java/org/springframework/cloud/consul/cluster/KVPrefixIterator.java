@@ -0,0 +1,146 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.ecwid.consul.v1.kv.model.GetValue;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 按层级惰性遍历一个KV前缀
+ *
+ * 通过 getKVKeysOnly(prefix, separator) 逐层列出key，只在遍历到某个子目录时才列出它的下一层；
+ * value按批(每批最多batchSize个key)通过 /v1/txn 的get操作读取。
+ * 内存占用与当前路径上各层的key数量及批大小相关，而与前缀下的key总数无关。
+ * 列出key与读取value之间被删除的key会被跳过。
+ */
+@Slf4j
+public class KVPrefixIterator implements Iterator<GetValue> {
+
+  public static final int DEFAULT_BATCH_SIZE = KVTxn.MAX_OPERATIONS;
+
+  private final ClusterConsulClient client;
+
+  private final String separator;
+
+  private final String token;
+
+  private final int batchSize;
+
+  /**
+   * 待处理的key和子目录，按字典序
+   */
+  private final Deque<PendingKey> pendingKeys = new ArrayDeque<>();
+
+  /**
+   * 已读取、尚未返回的value
+   */
+  private final Deque<GetValue> batch = new ArrayDeque<>();
+
+  public KVPrefixIterator(ClusterConsulClient client, String keyPrefix, String separator, String token,
+      int batchSize) {
+    if (batchSize <= 0 || batchSize > KVTxn.MAX_OPERATIONS) {
+      throw new IllegalArgumentException("batchSize must be between 1 and " + KVTxn.MAX_OPERATIONS + ": " + batchSize);
+    }
+
+    this.client = client;
+    this.separator = separator;
+    this.token = token;
+    this.batchSize = batchSize;
+    expand(keyPrefix);
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (batch.isEmpty() && !pendingKeys.isEmpty()) {
+      fetchNextBatch();
+    }
+    return !batch.isEmpty();
+  }
+
+  @Override
+  public GetValue next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return batch.poll();
+  }
+
+  private void fetchNextBatch() {
+    List<String> keys = new ArrayList<>(batchSize);
+    while (keys.size() < batchSize && !pendingKeys.isEmpty()) {
+      PendingKey pendingKey = pendingKeys.poll();
+      if (pendingKey.folder) {
+        expand(pendingKey.key);
+      } else {
+        keys.add(pendingKey.key);
+      }
+    }
+    if (keys.isEmpty()) {
+      return;
+    }
+
+    //读取失败的key(已被删除)去掉后重试
+    while (!keys.isEmpty()) {
+      KVTxn txn = KVTxn.atomic();
+      keys.forEach(txn::get);
+      KVTxnResponse response = client.executeKVTxn(txn, token);
+      if (response.isSuccess()) {
+        batch.addAll(response.getResults());
+        return;
+      }
+
+      Set<Integer> missing = new HashSet<>();
+      response.getErrors().forEach(error -> missing.add(error.getOpIndex()));
+      log.debug(CommonConstant.LOG_PREFIX + ">>> Skip KV keys deleted while iterating: {} <<<", response.getErrors());
+      List<String> remaining = new ArrayList<>(keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+        if (!missing.contains(i)) {
+          remaining.add(keys.get(i));
+        }
+      }
+      if (remaining.size() == keys.size()) {
+        throw new IllegalStateException("Read KV keys failed: " + response.getErrors());
+      }
+      keys = remaining;
+    }
+  }
+
+  /**
+   * 列出目录的下一层，按原有顺序放到待处理队列的最前面
+   */
+  private void expand(String folder) {
+    List<String> children = client.getKVKeysOnly(folder, separator, token).getValue();
+    if (children == null) {
+      return;
+    }
+
+    ListIterator<String> iterator = children.listIterator(children.size());
+    while (iterator.hasPrevious()) {
+      String child = iterator.previous();
+      //目录本身也可以是一个key
+      boolean isFolder = !child.equals(folder) && separator != null && !separator.isEmpty()
+          && child.endsWith(separator);
+      pendingKeys.push(new PendingKey(child, isFolder));
+    }
+  }
+
+  private static class PendingKey {
+
+    private final String key;
+
+    private final boolean folder;
+
+    PendingKey(String key, boolean folder) {
+      this.key = key;
+      this.folder = folder;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * 一批KV操作，通过 /v1/txn 提交
+ *
+ * ATOMIC 模式下整批操作在一个事务中执行(最多 MAX_OPERATIONS 个)，任一操作失败则全部回滚；
+ * PARTIAL 模式下按 MAX_OPERATIONS 分块，每块是一个独立的事务，某块失败不影响其他块。
+ */
+public class KVTxn {
+
+  /**
+   * consul单个事务允许的最大操作数
+   */
+  public static final int MAX_OPERATIONS = 64;
+
+  @Getter
+  private final Mode mode;
+
+  private final List<Operation> operations = new ArrayList<>();
+
+  public KVTxn(Mode mode) {
+    this.mode = mode;
+  }
+
+  public static KVTxn atomic() {
+    return new KVTxn(Mode.ATOMIC);
+  }
+
+  public static KVTxn partial() {
+    return new KVTxn(Mode.PARTIAL);
+  }
+
+  public KVTxn set(String key, String value) {
+    return set(key, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public KVTxn set(String key, byte[] value) {
+    return add(new Operation("set", key, value, null));
+  }
+
+  /**
+   * index为0时仅在key不存在时写入
+   */
+  public KVTxn cas(String key, byte[] value, long index) {
+    return add(new Operation("cas", key, value, index));
+  }
+
+  public KVTxn get(String key) {
+    return add(new Operation("get", key, null, null));
+  }
+
+  /**
+   * key的ModifyIndex必须等于index，否则整个事务失败
+   */
+  public KVTxn checkIndex(String key, long index) {
+    return add(new Operation("check-index", key, null, index));
+  }
+
+  public KVTxn checkNotExists(String key) {
+    return add(new Operation("check-not-exists", key, null, null));
+  }
+
+  public KVTxn delete(String key) {
+    return add(new Operation("delete", key, null, null));
+  }
+
+  public KVTxn deleteTree(String prefix) {
+    return add(new Operation("delete-tree", prefix, null, null));
+  }
+
+  public KVTxn deleteCas(String key, long index) {
+    return add(new Operation("delete-cas", key, null, index));
+  }
+
+  public List<Operation> getOperations() {
+    return Collections.unmodifiableList(operations);
+  }
+
+  public int size() {
+    return operations.size();
+  }
+
+  public boolean isEmpty() {
+    return operations.isEmpty();
+  }
+
+  private KVTxn add(Operation operation) {
+    operations.add(operation);
+    return this;
+  }
+
+  /**
+   * 批量提交的语义
+   */
+  public enum Mode {
+
+    /**
+     * 整批原子提交
+     */
+    ATOMIC,
+
+    /**
+     * 按块提交，每块原子
+     */
+    PARTIAL
+  }
+
+  /**
+   * 一个KV操作
+   */
+  @Getter
+  public static class Operation {
+
+    private final String verb;
+
+    private final String key;
+
+    private final byte[] value;
+
+    private final Long index;
+
+    Operation(String verb, String key, byte[] value, Long index) {
+      this.verb = verb;
+      this.key = key;
+      this.value = value;
+      this.index = index;
+    }
+
+    /**
+     * 转换为 /v1/txn 请求中的一项
+     */
+    Map<String, Object> toJson() {
+      Map<String, Object> kv = new LinkedHashMap<>();
+      kv.put("Verb", verb);
+      kv.put("Key", key);
+      if (value != null) {
+        kv.put("Value", Base64.getEncoder().encodeToString(value));
+      }
+      if (index != null) {
+        kv.put("Index", index);
+      }
+
+      return Collections.singletonMap("KV", kv);
+    }
+
+    @Override
+    public String toString() {
+      return verb + CommonConstant.SEPARATOR_COLON + key;
+    }
+  }
+}
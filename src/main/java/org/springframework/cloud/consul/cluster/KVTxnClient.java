@@ -0,0 +1,102 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.ecwid.consul.SingleUrlParameters;
+import com.ecwid.consul.UrlParameters;
+import com.ecwid.consul.json.GsonFactory;
+import com.ecwid.consul.transport.HttpResponse;
+import com.ecwid.consul.v1.ConsulRawClient;
+import com.ecwid.consul.v1.OperationException;
+import com.ecwid.consul.v1.kv.model.GetValue;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * /v1/txn 的请求与响应解析
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class KVTxnClient {
+
+  private static final String TXN_ENDPOINT = "/v1/txn";
+
+  private static final int STATUS_OK = 200;
+
+  /**
+   * 事务被回滚(操作失败)
+   */
+  private static final int STATUS_CONFLICT = 409;
+
+  /**
+   * 在单个节点上提交一个事务，结果追加到response
+   *
+   * @param offset - 该事务第一个操作在整批操作中的位置
+   * @throws OperationException 非200/409的响应；4xx(例如ACL拒绝的403、请求过大的413)换节点结果相同，
+   *                            由 ClusterRetryPolicy.isRequestError 判定为不可重试，其余可重试其他节点
+   */
+  public static void execute(ConsulRawClient rawClient, List<KVTxn.Operation> operations, int offset, String token,
+      KVTxnResponse response) {
+    String content = GsonFactory.getGson().toJson(operations.stream().map(KVTxn.Operation::toJson)
+        .collect(Collectors.toList()));
+    UrlParameters[] urlParameters = StringUtils.isNotEmpty(token)
+        ? new UrlParameters[]{new SingleUrlParameters("token", token)}
+        : new UrlParameters[0];
+    HttpResponse httpResponse = rawClient.makePutRequest(TXN_ENDPOINT, content, urlParameters);
+
+    if (httpResponse.getStatusCode() != STATUS_OK && httpResponse.getStatusCode() != STATUS_CONFLICT) {
+      throw new OperationException(httpResponse);
+    }
+
+    //先按状态码处理：409的响应体不一定是JSON(例如 "Transaction contains too many operations")，
+    //没有可解析的Errors时整个事务记为一个失败
+    if (httpResponse.getStatusCode() == STATUS_CONFLICT) {
+      JsonArray errors = parseErrors(httpResponse.getContent());
+      if (errors == null) {
+        response.addError(new KVTxnResponse.TxnError(KVTxnResponse.TxnError.WHOLE_TXN, httpResponse.getContent()));
+        return;
+      }
+      for (JsonElement error : errors) {
+        JsonObject errorJson = error.getAsJsonObject();
+        response.addError(new KVTxnResponse.TxnError(offset + errorJson.get("OpIndex").getAsInt(),
+            errorJson.get("What").getAsString()));
+      }
+      return;
+    }
+
+    JsonObject json = new JsonParser().parse(httpResponse.getContent()).getAsJsonObject();
+    List<GetValue> results = new ArrayList<>();
+    JsonElement resultsJson = json.get("Results");
+    if (resultsJson != null && resultsJson.isJsonArray()) {
+      JsonArray resultArray = resultsJson.getAsJsonArray();
+      for (JsonElement result : resultArray) {
+        JsonElement kv = result.getAsJsonObject().get("KV");
+        if (kv != null && !kv.isJsonNull()) {
+          results.add(GsonFactory.getGson().fromJson(kv, GetValue.class));
+        }
+      }
+    }
+    response.addResults(results, operations.size());
+  }
+
+  /**
+   * 409响应中的Errors，响应体不是JSON或没有Errors时返回null
+   */
+  private static JsonArray parseErrors(String content) {
+    try {
+      JsonElement json = new JsonParser().parse(content);
+      JsonElement errors = json.isJsonObject() ? json.getAsJsonObject().get("Errors") : null;
+      return errors != null && errors.isJsonArray() && errors.getAsJsonArray().size() > 0
+          ? errors.getAsJsonArray() : null;
+    } catch (JsonParseException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package org.springframework.cloud.consul.cluster;
+
+import lombok.Getter;
+
+/**
+ * PARTIAL 模式的KV事务在某一块上执行出错(重试后仍失败)，携带之前各块的执行结果；
+ * 出错的块及其后的块都没有执行
+ */
+@Getter
+public class KVTxnException extends RuntimeException {
+
+  /**
+   * 出错之前各块的执行结果
+   */
+  private final KVTxnResponse partialResponse;
+
+  /**
+   * 出错的块第一个操作在整批操作中的位置，从这里开始的操作都没有执行
+   */
+  private final int failedOffset;
+
+  public KVTxnException(String message, Throwable cause, KVTxnResponse partialResponse, int failedOffset) {
+    super(message, cause);
+    this.partialResponse = partialResponse;
+    this.failedOffset = failedOffset;
+  }
+}
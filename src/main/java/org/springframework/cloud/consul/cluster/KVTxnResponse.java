@@ -0,0 +1,99 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.ecwid.consul.v1.kv.model.GetValue;
+import lombok.Getter;
+
+/**
+ * /v1/txn 的执行结果
+ */
+public class KVTxnResponse {
+
+  /**
+   * 成功提交的事务返回的KV结果(按操作顺序)，删除类操作没有结果
+   */
+  private final List<GetValue> results = new ArrayList<>();
+
+  /**
+   * 失败的操作，opIndex为在整批操作中的位置
+   */
+  private final List<TxnError> errors = new ArrayList<>();
+
+  /**
+   * 成功提交的操作数
+   */
+  @Getter
+  private int committed;
+
+  public boolean isSuccess() {
+    return errors.isEmpty();
+  }
+
+  public List<GetValue> getResults() {
+    return Collections.unmodifiableList(results);
+  }
+
+  public List<TxnError> getErrors() {
+    return Collections.unmodifiableList(errors);
+  }
+
+  void addResults(List<GetValue> chunkResults, int chunkSize) {
+    results.addAll(chunkResults);
+    committed += chunkSize;
+  }
+
+  void addError(TxnError error) {
+    errors.add(error);
+  }
+
+  @Override
+  public String toString() {
+    return "{ committed = " + committed + ", results = " + results.size() + ", errors = " + errors + " }";
+  }
+
+  /**
+   * 一个失败的操作
+   */
+  @Getter
+  public static class TxnError {
+
+    /**
+     * 无法归属到某个操作的失败(例如409的响应体不是JSON)，整个事务都未提交
+     */
+    public static final int WHOLE_TXN = -1;
+
+    /**
+     * cas/delete-cas 的索引已过期
+     */
+    private static final String INDEX_STALE = "index is stale";
+
+    /**
+     * check-index 的索引不一致
+     */
+    private static final String MODIFY_INDEX = "modify index";
+
+    private final int opIndex;
+
+    private final String what;
+
+    public TxnError(int opIndex, String what) {
+      this.opIndex = opIndex;
+      this.what = what;
+    }
+
+    /**
+     * 是否因为key在读取后被并发修改而失败，重新读取后可以重试
+     */
+    public boolean isIndexConflict() {
+      return what != null && (what.contains(INDEX_STALE) || what.contains(MODIFY_INDEX));
+    }
+
+    @Override
+    public String toString() {
+      return opIndex + CommonConstant.SEPARATOR_COLON + what;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.kv.model.GetBinaryValue;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * KV二进制值编解码
+ *
+ * 写入时超过阈值的值压缩后加上头部: 魔数(4字节) + 压缩算法(1字节) + 原始长度(4字节)；
+ * 读取时带有该头部的值自动解压，其他值原样返回，因此开启前写入的值及其他客户端写入的值仍可正常读取。
+ */
+@Slf4j
+public class KVValueCodec {
+
+  private static final byte[] MAGIC = {0, 'C', 'K', 'Z'};
+
+  private static final int HEADER_LENGTH = MAGIC.length + 1 + 4;
+
+  /**
+   * 解压时按头部长度预分配的容量上限(压缩数据长度的倍数)
+   */
+  private static final int MAX_PRESIZE_RATIO = 8;
+
+  private static final CompressorStreamFactory FACTORY = new CompressorStreamFactory();
+
+  private final ClusterConsulProperties.KvCompression compression;
+
+  /**
+   * 压缩阈值(字节)，小于等于0时写入不压缩
+   */
+  private final int threshold;
+
+  public KVValueCodec(ClusterConsulProperties.KvCompression compression, int threshold) {
+    this.compression = compression;
+    this.threshold = threshold;
+  }
+
+  /**
+   * 超过阈值且压缩后更小时返回带头部的压缩值，否则返回原值
+   */
+  public byte[] encode(byte[] value) {
+    if (threshold <= 0 || value == null || value.length < threshold) {
+      return value;
+    }
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(value.length / 2);
+    buffer.write(MAGIC, 0, MAGIC.length);
+    buffer.write(compression.getCode());
+    buffer.write(ByteBuffer.allocate(4).putInt(value.length).array(), 0, 4);
+    try (OutputStream out = FACTORY.createCompressorOutputStream(compression.getStreamName(), buffer)) {
+      out.write(value);
+    } catch (IOException | CompressorException e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Compress KV value failed, store it uncompressed: {} <<<", e.getMessage());
+      return value;
+    }
+
+    byte[] encoded = buffer.toByteArray();
+    return encoded.length < value.length ? encoded : value;
+  }
+
+  /**
+   * 带有压缩头部的值解压，其他值原样返回
+   */
+  public byte[] decode(byte[] value) {
+    ClusterConsulProperties.KvCompression valueCompression = compressionOf(value);
+    if (valueCompression == null) {
+      return value;
+    }
+
+    int length = ByteBuffer.wrap(value, MAGIC.length + 1, 4).getInt();
+    if (length < 0) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Invalid length {} in KV value header, return it as is <<<", length);
+      return value;
+    }
+
+    //头部的长度不可信，预分配的容量不超过压缩数据的 MAX_PRESIZE_RATIO 倍，最多解压 length + 1 字节
+    int presize = (int) Math.min(length, (long) value.length * MAX_PRESIZE_RATIO);
+    try (InputStream in = new BoundedInputStream(FACTORY.createCompressorInputStream(valueCompression.getStreamName(),
+        new ByteArrayInputStream(value, HEADER_LENGTH, value.length - HEADER_LENGTH)), (long) length + 1)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(presize);
+      IOUtils.copy(in, out);
+      if (out.size() > length) {
+        log.warn(CommonConstant.LOG_PREFIX + ">>> Decompressed KV value exceeds {} bytes in header, return it as is <<<",
+            length);
+        return value;
+      }
+      if (out.size() != length) {
+        log.warn(CommonConstant.LOG_PREFIX + ">>> Decompressed KV value has {} bytes, header says {}, return it as is <<<",
+            out.size(), length);
+        return value;
+      }
+      return out.toByteArray();
+    } catch (IOException | CompressorException e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Decompress KV value failed, return it as is: {} <<<", e.getMessage());
+      return value;
+    }
+  }
+
+  public Response<GetBinaryValue> decode(Response<GetBinaryValue> response) {
+    if (response != null && response.getValue() != null) {
+      response.getValue().setValue(decode(response.getValue().getValue()));
+    }
+
+    return response;
+  }
+
+  public Response<List<GetBinaryValue>> decodeList(Response<List<GetBinaryValue>> response) {
+    if (response != null && response.getValue() != null) {
+      response.getValue().forEach(binaryValue -> binaryValue.setValue(decode(binaryValue.getValue())));
+    }
+
+    return response;
+  }
+
+  private static ClusterConsulProperties.KvCompression compressionOf(byte[] value) {
+    if (value == null || value.length <= HEADER_LENGTH) {
+      return null;
+    }
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (value[i] != MAGIC[i]) {
+        return null;
+      }
+    }
+
+    for (ClusterConsulProperties.KvCompression candidate : ClusterConsulProperties.KvCompression.values()) {
+      if (candidate.getCode() == value[MAGIC.length]) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,297 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * KV写缓冲(write-behind)
+ *
+ * 窗口期内对同一个key的多次写入合并为最后一次，窗口到期后通过 /v1/txn 批量提交，
+ * 读取方看到的数据最多落后一个窗口。提交失败的写入(未被更新的写入覆盖、也未被丢弃时)留待下一个窗口重试，
+ * 被consul拒绝的写入直接丢弃，不影响其他写入。
+ * 绕过缓冲直接写入或删除前调用 discard：尚未发出的写入被移除，已在发出的事务中的写入则等待该事务结束，
+ * 因此缓冲中的旧值不会在直接写入之后落地。
+ */
+@Slf4j
+public class KVWriteBuffer implements Closeable {
+
+  private final BiFunction<KVTxn, String, KVTxnResponse> txnExecutor;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final long window;
+
+  /**
+   * 待提交的写入: key -> 最后一次写入
+   */
+  private Map<String, PendingWrite> pending = new LinkedHashMap<>();
+
+  /**
+   * 正在提交的写入，discard时移除，提交失败时只放回仍在其中的写入
+   */
+  private final Map<String, PendingWrite> inFlight = new HashMap<>();
+
+  /**
+   * 已发出、尚未结束的事务中的写入: key -> 所在的事务
+   */
+  private final Map<String, SendingChunk> sending = new HashMap<>();
+
+  private boolean flushScheduled;
+
+  private boolean closed;
+
+  public KVWriteBuffer(BiFunction<KVTxn, String, KVTxnResponse> txnExecutor, ScheduledExecutorService scheduler,
+      long window) {
+    this.txnExecutor = txnExecutor;
+    this.scheduler = scheduler;
+    this.window = window;
+  }
+
+  /**
+   * 缓冲一次写入，覆盖窗口内同一个key之前的写入
+   *
+   * @return false 缓冲已关闭，调用方应直接写入
+   */
+  public synchronized boolean write(String key, byte[] value, String token) {
+    if (closed) {
+      return false;
+    }
+
+    pending.put(key, new PendingWrite(key, value, token));
+    scheduleFlush();
+    return true;
+  }
+
+  /**
+   * 丢弃key上尚未提交的写入，绕过缓冲直接写入或删除前调用。写入所在的事务已发出时等待其结束，避免旧值在之后覆盖新值
+   */
+  public void discard(String key) {
+    SendingChunk chunk;
+    synchronized (this) {
+      pending.remove(key);
+      inFlight.remove(key);
+      chunk = sending.get(key);
+    }
+    await(chunk == null ? Collections.emptyList() : Collections.singletonList(chunk));
+  }
+
+  /**
+   * 丢弃前缀下所有尚未提交的写入，等待包含这些写入的已发出的事务结束
+   */
+  public void discardPrefix(String prefix) {
+    Set<SendingChunk> chunks = new HashSet<>();
+    synchronized (this) {
+      pending.keySet().removeIf(key -> key.startsWith(prefix));
+      inFlight.keySet().removeIf(key -> key.startsWith(prefix));
+      sending.forEach((key, chunk) -> {
+        if (key.startsWith(prefix)) {
+          chunks.add(chunk);
+        }
+      });
+    }
+    await(chunks);
+  }
+
+  /**
+   * 等待事务结束。在提交事务的线程上调用时(例如txnExecutor中)不等待，否则会等待自己
+   */
+  private static void await(Collection<SendingChunk> chunks) {
+    for (SendingChunk chunk : chunks) {
+      if (chunk.thread != Thread.currentThread()) {
+        chunk.done.join();
+      }
+    }
+  }
+
+  public synchronized int size() {
+    return pending.size();
+  }
+
+  /**
+   * 立即提交当前缓冲的全部写入。每个事务最多64个操作，事务之间互不影响：
+   * 出错(例如节点不可用)的事务整体留待重试，被consul拒绝的操作(例如ACL或大小限制)直接丢弃，同一事务中其余的操作重试
+   *
+   * @return 提交成功的写入数
+   */
+  public int flush() {
+    Map<String, PendingWrite> writes;
+    synchronized (this) {
+      flushScheduled = false;
+      if (pending.isEmpty()) {
+        return 0;
+      }
+      writes = pending;
+      pending = new LinkedHashMap<>();
+      inFlight.putAll(writes);
+    }
+
+    //同一批次的写入使用相同的token
+    Map<String, List<PendingWrite>> writesByToken = new LinkedHashMap<>();
+    writes.values().forEach(write -> writesByToken.computeIfAbsent(write.token, token -> new ArrayList<>()).add(write));
+
+    int flushed = 0;
+    List<PendingWrite> failed = new ArrayList<>();
+    for (Map.Entry<String, List<PendingWrite>> entry : writesByToken.entrySet()) {
+      List<PendingWrite> tokenWrites = entry.getValue();
+      for (int offset = 0; offset < tokenWrites.size(); offset += KVTxn.MAX_OPERATIONS) {
+        List<PendingWrite> chunk = tokenWrites.subList(offset,
+            Math.min(offset + KVTxn.MAX_OPERATIONS, tokenWrites.size()));
+        flushed += flushChunk(chunk, entry.getKey(), failed);
+      }
+    }
+
+    complete(writes.values(), failed);
+    log.debug(CommonConstant.LOG_PREFIX + ">>> KV write buffer flushed: {}  ===  failed: {} <<<", flushed, failed.size());
+
+    return flushed;
+  }
+
+  /**
+   * 提交一批写入，跳过其中已被丢弃的写入
+   *
+   * @return 提交成功的写入数
+   */
+  private int flushChunk(List<PendingWrite> chunk, String token, List<PendingWrite> failed) {
+    //只发出仍未被丢弃的写入，并登记为正在发出，discard 时等待其结束
+    SendingChunk sendingChunk = new SendingChunk();
+    List<PendingWrite> writes;
+    synchronized (this) {
+      writes = chunk.stream().filter(write -> inFlight.get(write.key) == write).collect(Collectors.toList());
+      writes.forEach(write -> sending.put(write.key, sendingChunk));
+    }
+    if (writes.isEmpty()) {
+      return 0;
+    }
+
+    try {
+      return sendChunk(writes, token, failed);
+    } finally {
+      synchronized (this) {
+        writes.forEach(write -> sending.remove(write.key, sendingChunk));
+      }
+      sendingChunk.done.complete(null);
+    }
+  }
+
+  /**
+   * 以一个事务提交一批写入，需要重试的写入加入failed
+   *
+   * @return 提交成功的写入数
+   */
+  private int sendChunk(List<PendingWrite> chunk, String token, List<PendingWrite> failed) {
+    KVTxn txn = KVTxn.partial();
+    chunk.forEach(write -> txn.set(write.key, write.value));
+    KVTxnResponse response;
+    try {
+      response = txnExecutor.apply(txn, token);
+    } catch (Exception e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> KV write buffer flush failed: {} <<<", e.getMessage());
+      failed.addAll(chunk);
+      return 0;
+    }
+    if (response.isSuccess()) {
+      return chunk.size();
+    }
+
+    //事务回滚: 丢弃被拒绝的操作，其余的重试；无法定位到操作的错误时全部重试
+    Set<Integer> rejected = response.getErrors().stream().map(KVTxnResponse.TxnError::getOpIndex)
+        .filter(opIndex -> opIndex >= 0 && opIndex < chunk.size()).collect(Collectors.toSet());
+    for (int i = 0; i < chunk.size(); i++) {
+      if (rejected.contains(i)) {
+        log.warn(CommonConstant.LOG_PREFIX + ">>> KV write buffer dropped rejected write of {} <<<", chunk.get(i).key);
+      } else {
+        failed.add(chunk.get(i));
+      }
+    }
+    log.warn(CommonConstant.LOG_PREFIX + ">>> KV write buffer flush partially failed: {} <<<", response.getErrors());
+    return 0;
+  }
+
+  /**
+   * 关闭缓冲并提交剩余的写入，之后的写入不再缓冲
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    flush();
+    synchronized (this) {
+      if (!pending.isEmpty()) {
+        log.warn(CommonConstant.LOG_PREFIX + ">>> KV write buffer closed with {} unflushed writes: {} <<<",
+            pending.size(), pending.keySet());
+        pending.clear();
+      }
+    }
+  }
+
+  /**
+   * 提交结束: 失败的写入放回缓冲，窗口期内已有更新的写入或提交期间被丢弃(discard)的写入不再放回
+   */
+  private synchronized void complete(Collection<PendingWrite> writes, List<PendingWrite> failed) {
+    for (PendingWrite write : failed) {
+      if (inFlight.get(write.key) == write) {
+        pending.putIfAbsent(write.key, write);
+      }
+    }
+    writes.forEach(write -> inFlight.remove(write.key, write));
+    if (!failed.isEmpty() && !pending.isEmpty() && !closed) {
+      scheduleFlush();
+    }
+  }
+
+  private void scheduleFlush() {
+    if (flushScheduled) {
+      return;
+    }
+
+    flushScheduled = true;
+    try {
+      scheduler.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+    } catch (Exception e) {
+      flushScheduled = false;
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Schedule KV write buffer flush failed: {} <<<", e.getMessage());
+    }
+  }
+
+  /**
+   * 一个已发出的事务
+   */
+  private static class SendingChunk {
+
+    private final Thread thread = Thread.currentThread();
+
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+  }
+
+  private static class PendingWrite {
+
+    private final String key;
+
+    private final byte[] value;
+
+    private final String token;
+
+    PendingWrite(String key, byte[] value, String token) {
+      this.key = Objects.requireNonNull(key);
+      this.value = value;
+      this.token = token;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.agent.model.Self;
+import com.ecwid.consul.v1.coordinate.model.Node;
+import com.ecwid.consul.v1.health.model.HealthService;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 节点网络坐标(Vivaldi)缓存
+ *
+ * 后台定期通过 CoordinateClient.getNodes 拉取全部节点坐标，以当前agent所在节点为本地节点估算到各节点的RTT，
+ * 服务发现据此对实例排序时只做内存计算。
+ *
+ * 多点注册时同一实例注册在每个agent上，HealthService.Node 是注册该副本的agent而不是实例所在的主机，
+ * 因此按实例自身的地址(Service.Address)在 CatalogClient.getCatalogNodes 中找到所在节点，再取该节点的坐标；
+ * 找不到节点(实例所在主机上没有agent或未填写地址)的实例视为没有坐标。
+ */
+@Slf4j
+public class NodeCoordinateCache {
+
+  private final ConsulClient client;
+
+  /**
+   * 本地节点名，取自当前agent的配置
+   */
+  @Getter
+  private volatile String localNode;
+
+  private volatile Map<String, Node.Coord> coordinates = Collections.emptyMap();
+
+  /**
+   * 节点地址 -> 节点名
+   */
+  private volatile Map<String, String> addressNodes = Collections.emptyMap();
+
+  public NodeCoordinateCache(ConsulClient client) {
+    this.client = client;
+  }
+
+  /**
+   * 刷新本地节点名、节点地址及全部节点坐标，失败时保留上一次的结果
+   */
+  public void refresh() {
+    try {
+      Self self = client.getAgentSelf().getValue();
+      List<Node> nodes = client.getNodes(QueryParams.DEFAULT).getValue();
+      List<com.ecwid.consul.v1.catalog.model.Node> catalogNodes = client.getCatalogNodes(QueryParams.DEFAULT)
+          .getValue();
+      Map<String, Node.Coord> tmpCoordinates = new HashMap<>();
+      if (nodes != null) {
+        for (Node node : nodes) {
+          if (node.getCoord() != null) {
+            tmpCoordinates.put(node.getNode(), node.getCoord());
+          }
+        }
+      }
+      Map<String, String> tmpAddressNodes = new HashMap<>();
+      if (catalogNodes != null) {
+        for (com.ecwid.consul.v1.catalog.model.Node node : catalogNodes) {
+          if (StringUtils.isNotEmpty(node.getAddress())) {
+            tmpAddressNodes.putIfAbsent(node.getAddress(), node.getNode());
+          }
+        }
+      }
+      this.localNode = self == null || self.getConfig() == null ? null : self.getConfig().getNodeName();
+      this.coordinates = tmpCoordinates;
+      this.addressNodes = tmpAddressNodes;
+      log.debug(CommonConstant.LOG_PREFIX + ">>> Node coordinates refreshed. local node: {}, nodes: {} <<<",
+          this.localNode, tmpCoordinates.size());
+    } catch (Exception e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Refresh node coordinates failed: {} <<<", e.getMessage());
+    }
+  }
+
+  /**
+   * 估算本地节点到给定节点的RTT(秒)，缺少坐标时返回 Double.MAX_VALUE
+   */
+  public double estimateRtt(String node) {
+    Map<String, Node.Coord> tmpCoordinates = this.coordinates;
+    Node.Coord local = this.localNode == null ? null : tmpCoordinates.get(this.localNode);
+    Node.Coord remote = node == null ? null : tmpCoordinates.get(node);
+    if (local == null || remote == null) {
+      return Double.MAX_VALUE;
+    }
+
+    return distance(local, remote);
+  }
+
+  /**
+   * 实例所在的节点，按实例自身的地址查找，找不到时返回null
+   */
+  public String hostNode(HealthService healthService) {
+    String address = healthService.getService() == null ? null : healthService.getService().getAddress();
+    return StringUtils.isEmpty(address) ? null : this.addressNodes.get(address);
+  }
+
+  /**
+   * 按实例所在节点估算的RTT稳定排序，没有坐标的实例保持原有顺序排在最后
+   */
+  public List<HealthService> sort(List<HealthService> healthServices) {
+    if (healthServices.size() < 2 || this.localNode == null) {
+      return healthServices;
+    }
+
+    Map<String, Double> rtts = new HashMap<>();
+    List<HealthService> sorted = new ArrayList<>(healthServices);
+    sorted.sort(Comparator.comparingDouble(service -> {
+      String node = hostNode(service);
+      return node == null ? Double.MAX_VALUE : rtts.computeIfAbsent(node, this::estimateRtt);
+    }));
+
+    return sorted;
+  }
+
+  /**
+   * 与 consul lib/coordinate 的 DistanceTo 一致: 欧氏距离 + 双方高度，再叠加为正时的adjustment
+   */
+  static double distance(Node.Coord a, Node.Coord b) {
+    List<Double> vecA = a.getVec();
+    List<Double> vecB = b.getVec();
+    double sum = 0;
+    for (int i = 0; i < Math.min(vecA.size(), vecB.size()); i++) {
+      double diff = vecA.get(i) - vecB.get(i);
+      sum += diff * diff;
+    }
+    double rtt = Math.sqrt(sum) + value(a.getHeight()) + value(b.getHeight());
+    double adjusted = rtt + value(a.getAdjustment()) + value(b.getAdjustment());
+
+    return adjusted > 0 ? adjusted : rtt;
+  }
+
+  private static double value(Double value) {
+    return value == null ? 0 : value;
+  }
+}
@@ -0,0 +1,37 @@
+package org.springframework.cloud.consul.cluster;
+
+/**
+ * ClusterConsulClient 方法的分类，重试、超时等策略按分类分别配置
+ */
+public enum OperationFamily {
+
+  /**
+   * KV读取: getKVValue(s)、getKVBinaryValue(s)、getKVKeysOnly
+   */
+  KV_READ,
+
+  /**
+   * KV写入: setKVValue、setKVBinaryValue、deleteKVValue(s)
+   */
+  KV_WRITE,
+
+  /**
+   * 服务发现: health、catalog查询及prepared query
+   */
+  DISCOVERY,
+
+  /**
+   * 服务与检查的注册、注销及维护模式
+   */
+  REGISTRATION,
+
+  /**
+   * session的创建、销毁、续约及查询
+   */
+  SESSION,
+
+  /**
+   * 其他方法
+   */
+  DEFAULT
+}
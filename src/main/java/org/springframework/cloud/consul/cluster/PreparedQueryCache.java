@@ -0,0 +1,248 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+
+import com.ecwid.consul.json.GsonFactory;
+import com.ecwid.consul.transport.HttpResponse;
+import com.ecwid.consul.v1.ConsulRawClient;
+import com.ecwid.consul.v1.OperationException;
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.query.model.QueryExecution;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * prepared query执行结果的缓存
+ *
+ * 以query和查询参数为key缓存结果，TTL取自query定义的DNS TTL，未定义时使用配置的默认值。
+ * 缓存项过了TTL的3/4后，下一次读取(或后台巡检发现其在本周期内被读取过)时在后台刷新，读取方继续使用当前结果，
+ * 因此持续被读取的query不会在调用线程上等待consul；刷新失败时保留当前结果到TTL结束。
+ * 只有未命中或已过期时才同步执行，同一个key的并发未命中只执行一次。
+ */
+@Slf4j
+public class PreparedQueryCache implements AutoCloseable {
+
+  private static final String QUERY_ENDPOINT = "/v1/query/";
+
+  private static final int STATUS_OK = 200;
+
+  /**
+   * 后台巡检的周期(毫秒)
+   */
+  private static final long SWEEP_INTERVAL = 1000;
+
+  private final BiFunction<String, QueryParams, Result> loader;
+
+  private final ScheduledExecutorService executor;
+
+  private final long defaultTtl;
+
+  private final int maxSize;
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+
+  private final ScheduledFuture<?> sweep;
+
+  /**
+   * @param loader - 执行query并返回结果及其DNS TTL
+   * @param defaultTtl - query没有定义DNS TTL时的TTL(毫秒)
+   * @param maxSize - 最多缓存的key数，超过时新的key不缓存
+   */
+  public PreparedQueryCache(BiFunction<String, QueryParams, Result> loader, ScheduledExecutorService executor,
+      long defaultTtl, int maxSize) {
+    this.loader = loader;
+    this.executor = executor;
+    this.defaultTtl = defaultTtl;
+    this.maxSize = maxSize;
+    this.sweep = executor.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  public Response<QueryExecution> get(String uuid, QueryParams queryParams) {
+    String key = key(uuid, queryParams);
+    Entry entry = entries.get(key);
+    long now = System.currentTimeMillis();
+    if (entry != null && now < entry.expiresAt) {
+      entry.lastAccess = now;
+      if (now >= entry.refreshAt) {
+        refreshAsync(entry);
+      }
+      return entry.response;
+    }
+
+    return load(key, uuid, queryParams).response;
+  }
+
+  public void invalidate(String uuid) {
+    entries.values().removeIf(entry -> entry.uuid.equals(uuid));
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  @Override
+  public void close() {
+    sweep.cancel(false);
+    entries.clear();
+  }
+
+  private Entry load(String key, String uuid, QueryParams queryParams) {
+    CompletableFuture<Entry> future = new CompletableFuture<>();
+    CompletableFuture<Entry> current = loading.putIfAbsent(key, future);
+    if (current != null) {
+      try {
+        return current.join();
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+      }
+    }
+
+    try {
+      Entry entry = fetch(key, uuid, queryParams);
+      future.complete(entry);
+      return entry;
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      loading.remove(key, future);
+    }
+  }
+
+  private Entry fetch(String key, String uuid, QueryParams queryParams) {
+    Result result = loader.apply(uuid, queryParams);
+    long ttl = result.getTtl() > 0 ? result.getTtl() : defaultTtl;
+    Entry entry = new Entry(uuid, queryParams, result.getResponse(), System.currentTimeMillis(), ttl);
+    if (ttl > 0 && (entries.size() < maxSize || entries.containsKey(key))) {
+      entries.put(key, entry);
+    }
+
+    return entry;
+  }
+
+  private void refreshAsync(Entry entry) {
+    if (!entry.refreshing.compareAndSet(false, true)) {
+      return;
+    }
+
+    String key = key(entry.uuid, entry.queryParams);
+    try {
+      executor.execute(() -> {
+        try {
+          fetch(key, entry.uuid, entry.queryParams);
+        } catch (Exception e) {
+          //保留当前结果，过一段时间后再刷新
+          entry.refreshAt = System.currentTimeMillis() + Math.max(1, (entry.expiresAt - entry.refreshAt) / 3);
+          entry.refreshing.set(false);
+          log.warn(CommonConstant.LOG_PREFIX + ">>> Refresh prepared query {} failed: {} <<<", entry.uuid,
+              e.getMessage());
+        }
+      });
+    } catch (Exception e) {
+      entry.refreshing.set(false);
+    }
+  }
+
+  /**
+   * 刷新本周期内被读取过的到期缓存项，移除已过期的缓存项
+   */
+  private void sweep() {
+    long now = System.currentTimeMillis();
+    entries.forEach((key, entry) -> {
+      if (now >= entry.expiresAt && !entry.refreshing.get()) {
+        entries.remove(key, entry);
+      } else if (now >= entry.refreshAt && entry.lastAccess > entry.loadedAt) {
+        refreshAsync(entry);
+      }
+    });
+  }
+
+  private static String key(String uuid, QueryParams queryParams) {
+    return queryParams == null ? uuid : uuid + "?" + String.join("&", queryParams.toUrlParameters());
+  }
+
+  /**
+   * 在单个节点上执行query，同时读取结果中的DNS TTL
+   *
+   * @throws OperationException 非200的响应，可重试其他节点
+   */
+  public static Result execute(ConsulRawClient rawClient, String uuid, QueryParams queryParams) {
+    HttpResponse httpResponse = rawClient.makeGetRequest(QUERY_ENDPOINT + uuid + "/execute", queryParams);
+    if (httpResponse.getStatusCode() != STATUS_OK) {
+      throw new OperationException(httpResponse);
+    }
+
+    JsonObject json = new JsonParser().parse(httpResponse.getContent()).getAsJsonObject();
+    QueryExecution execution = GsonFactory.getGson().fromJson(json, QueryExecution.class);
+    long ttl = 0;
+    JsonElement dns = json.get("DNS");
+    if (dns != null && dns.isJsonObject()) {
+      JsonElement dnsTtl = dns.getAsJsonObject().get("TTL");
+      ttl = dnsTtl == null || dnsTtl.isJsonNull() ? 0 : SessionRenewalManager.parseDuration(dnsTtl.getAsString());
+    }
+
+    return new Result(new Response<>(execution, httpResponse), ttl);
+  }
+
+  /**
+   * 一次执行的结果
+   */
+  @Getter
+  public static class Result {
+
+    private final Response<QueryExecution> response;
+
+    /**
+     * query定义的DNS TTL(毫秒)，未定义时为0
+     */
+    private final long ttl;
+
+    public Result(Response<QueryExecution> response, long ttl) {
+      this.response = response;
+      this.ttl = ttl;
+    }
+  }
+
+  private static class Entry {
+
+    private final String uuid;
+
+    private final QueryParams queryParams;
+
+    private final Response<QueryExecution> response;
+
+    private final long loadedAt;
+
+    private final long expiresAt;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile long refreshAt;
+
+    private volatile long lastAccess;
+
+    Entry(String uuid, QueryParams queryParams, Response<QueryExecution> response, long loadedAt, long ttl) {
+      this.uuid = uuid;
+      this.queryParams = queryParams;
+      this.response = response;
+      this.loadedAt = loadedAt;
+      this.expiresAt = loadedAt + ttl;
+      this.refreshAt = loadedAt + ttl * 3 / 4;
+      this.lastAccess = loadedAt;
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.Response;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 多点写入(注册、注销、维护模式)
+ *
+ * 并行向所有节点写入，W个节点确认后即返回，其余节点在后台完成；
+ * 失败的写入按节点和操作记录为待修复，节点恢复健康后由 repair 重放。
+ * 同一节点上同一操作的写入(包括重放)按提交顺序串行执行，后台完成的旧写入不会覆盖较新写入的结果或清除其待修复记录。
+ * 写入在专用线程池中执行，挂起的节点不占用定时任务的线程；重放与修复只组合future，不阻塞调用线程。
+ */
+@Slf4j
+public class QuorumRegistrar {
+
+  private final Executor executor;
+
+  /**
+   * 待修复的写入: clientId -> (操作标识(例如 service:serviceId) -> 写入)
+   */
+  private final Map<String, Map<String, Function<ConsulClient, Response<Void>>>> pendingRepairs = new ConcurrentHashMap<>();
+
+  /**
+   * 每个 clientId:操作 上最后提交的写入，后续写入在其完成后执行
+   */
+  private final Map<String, CompletableFuture<?>> tails = new HashMap<>();
+
+  /**
+   * 正在重放待修复写入的节点，上一次重放未完成时不再重复提交
+   */
+  private final Set<String> repairing = ConcurrentHashMap.newKeySet();
+
+  public QuorumRegistrar(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * 并行向给定节点写入，quorum个节点成功后返回
+   *
+   * @param operation - 操作标识，同一节点上同一操作的后续写入会覆盖或清除其待修复记录，
+   *                    因此同一服务的注册与注销使用相同的标识
+   * @param clients - 目标节点
+   * @param quorum - 需要确认的节点数，小于等于0或大于节点数时需要全部节点确认
+   * @param action - 在单个节点上的写入
+   * @return 最先确认的节点的响应，没有目标节点时返回null
+   */
+  public Response<Void> write(String operation, List<ConsulClientHolder> clients, int quorum,
+      Function<ConsulClient, Response<Void>> action) {
+    if (clients.isEmpty()) {
+      return null;
+    }
+
+    int required = quorum <= 0 || quorum > clients.size() ? clients.size() : quorum;
+    CompletableFuture<Response<Void>> result = new CompletableFuture<>();
+    AtomicInteger successes = new AtomicInteger();
+    AtomicInteger failures = new AtomicInteger();
+
+    for (ConsulClientHolder client : clients) {
+      submit(client.getClientId(), operation, () -> action.apply(client.getClient())).whenComplete((response, e) -> {
+        if (e == null) {
+          repaired(client.getClientId(), operation);
+          if (successes.incrementAndGet() == required) {
+            result.complete(response);
+          }
+          return;
+        }
+
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        pendingRepairs.computeIfAbsent(client.getClientId(), id -> new ConcurrentHashMap<>()).put(operation, action);
+        log.warn(CommonConstant.LOG_PREFIX + ">>> {} on ConsulClient[{}] failed, pending repair: {} <<<", operation,
+            client.getClientId(), cause.getMessage());
+        if (clients.size() - failures.incrementAndGet() < required) {
+          result.completeExceptionally(cause);
+        }
+      });
+    }
+
+    try {
+      return result.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * 节点上待修复的操作
+   */
+  public Set<String> getPendingRepairs(String clientId) {
+    Map<String, Function<ConsulClient, Response<Void>>> operations = pendingRepairs.get(clientId);
+    return operations == null ? Collections.emptySet() : Collections.unmodifiableSet(operations.keySet());
+  }
+
+  /**
+   * 所有存在待修复操作的节点
+   */
+  public Set<String> getPendingRepairAgents() {
+    return Collections.unmodifiableSet(pendingRepairs.keySet());
+  }
+
+  /**
+   * 在节点上重放待修复的写入，成功的写入清除其记录。各写入排在同一操作之前的写入之后执行，调用方不阻塞
+   *
+   * @return 是否全部修复
+   */
+  public CompletableFuture<Boolean> repair(ConsulClientHolder client) {
+    Map<String, Function<ConsulClient, Response<Void>>> operations = pendingRepairs.get(client.getClientId());
+    if (operations == null) {
+      return CompletableFuture.completedFuture(true);
+    }
+    if (!repairing.add(client.getClientId())) {
+      return CompletableFuture.completedFuture(false);
+    }
+
+    List<CompletableFuture<Boolean>> repairs = new ArrayList<>(operations.size());
+    for (Map.Entry<String, Function<ConsulClient, Response<Void>>> entry : operations.entrySet()) {
+      String operation = entry.getKey();
+      Function<ConsulClient, Response<Void>> action = entry.getValue();
+      //期间已被较新的写入取代时不再重放
+      repairs.add(submit(client.getClientId(), operation, () -> {
+        if (operations.get(operation) != action) {
+          return false;
+        }
+        action.apply(client.getClient());
+        return true;
+      }).handle((replayed, e) -> {
+        if (e != null) {
+          Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+          log.warn(CommonConstant.LOG_PREFIX + ">>> Repair {} on ConsulClient[{}] failed: {} <<<", operation,
+              client.getClientId(), cause.getMessage());
+          return false;
+        }
+        if (replayed) {
+          repaired(client.getClientId(), operation, action);
+          log.info(CommonConstant.LOG_PREFIX + ">>> Repaired {} on ConsulClient[{}] <<<", operation,
+              client.getClientId());
+        }
+        return true;
+      }));
+    }
+
+    return CompletableFuture.allOf(repairs.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+      repairing.remove(client.getClientId());
+      return repairs.stream().allMatch(CompletableFuture::join);
+    });
+  }
+
+  /**
+   * 节点上的操作已修复
+   */
+  public void repaired(String clientId, String operation) {
+    pendingRepairs.computeIfPresent(clientId, (id, operations) -> {
+      operations.remove(operation);
+      return operations.isEmpty() ? null : operations;
+    });
+  }
+
+  /**
+   * 待修复记录仍是给定的写入时才清除
+   */
+  private void repaired(String clientId, String operation, Function<ConsulClient, Response<Void>> action) {
+    pendingRepairs.computeIfPresent(clientId, (id, operations) -> {
+      operations.remove(operation, action);
+      return operations.isEmpty() ? null : operations;
+    });
+  }
+
+  /**
+   * 在同一节点同一操作之前提交的写入完成后(无论成败)执行。
+   * 注册日志的重放、反熵修复等绕过 write 的写入也经由这里提交，与正常写入保持顺序
+   *
+   * @param operation - 操作标识，与 write 的 operation 一致
+   */
+  public <T> CompletableFuture<T> submit(String clientId, String operation, Supplier<T> write) {
+    String key = clientId + CommonConstant.SEPARATOR_COLON + operation;
+    CompletableFuture<T> future;
+    CompletableFuture<?> tail;
+    synchronized (tails) {
+      CompletableFuture<?> previous = tails.get(key);
+      future = (previous == null ? CompletableFuture.completedFuture(null) : previous)
+          .thenApplyAsync(ignored -> write.get(), executor);
+      tail = future.handle((result, e) -> null);
+      tails.put(key, tail);
+    }
+    tail.whenComplete((result, e) -> {
+      synchronized (tails) {
+        tails.remove(key, tail);
+      }
+    });
+
+    return future;
+  }
+}
@@ -0,0 +1,165 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.agent.model.Check;
+import com.ecwid.consul.v1.agent.model.NewCheck;
+import com.ecwid.consul.v1.agent.model.NewService;
+import com.ecwid.consul.v1.agent.model.Service;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 注册信息的反熵修复
+ *
+ * 对比单个节点 getAgentServices()/getAgentChecks() 的结果与注册日志，只在该节点上修复不一致的部分：
+ * 重新注册缺失或已过期的服务，补注册缺失的检查，开启或关闭维护模式。
+ * 重新注册服务会清除该服务上单独注册的检查，因此被重新注册的服务连同其检查和维护模式一起重放。
+ * 用于发现节点重启后静默丢失注册信息、但集群节点列表并未变化的情况。
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class RegistrationAntiEntropy {
+
+  /**
+   * consul为维护模式中的服务添加的检查ID前缀
+   */
+  static final String SERVICE_MAINTENANCE_CHECK_PREFIX = "_service_maintenance:";
+
+  /**
+   * 在给定节点上修复注册信息。对比基于此刻读到的节点状态，修复的写入经由 QuorumRegistrar 与正常写入按节点和操作串行，
+   * 执行时再读取一次注册日志，期间已注销的服务或检查不会被重新注册回去
+   *
+   * @param client - 目标节点
+   * @param journal - 注册日志，即期望在每个节点上存在的服务、检查及维护模式
+   * @param registrar - 按节点和操作串行提交写入
+   * @return 修复的操作数，不等待写入完成
+   */
+  public static CompletableFuture<Integer> repair(ConsulClientHolder client, RegistrationJournal journal,
+      QuorumRegistrar registrar) {
+    if (journal.isEmpty()) {
+      return CompletableFuture.completedFuture(0);
+    }
+
+    ConsulClient consulClient = client.getClient();
+    Map<String, Service> actualServices = emptyIfNull(consulClient.getAgentServices().getValue());
+    Map<String, Check> actualChecks = emptyIfNull(consulClient.getAgentChecks().getValue());
+
+    List<CompletableFuture<Boolean>> repairs = new ArrayList<>();
+    Collection<NewService> expectedServices = journal.getServices();
+    //重新注册的服务: serviceId -> 注册完成，其检查及维护模式在其后写入
+    Map<String, CompletableFuture<Boolean>> reregistered = new HashMap<>();
+    for (NewService expected : expectedServices) {
+      Service actual = actualServices.get(expected.getId());
+      if (isSame(expected, actual)) {
+        continue;
+      }
+
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Service[{}] is {} on ConsulClient[{}], register again <<<",
+          expected.getId(), actual == null ? "missing" : "stale", client.getClientId());
+      CompletableFuture<Boolean> registered = write(client, registrar, "service:" + expected.getId(),
+          () -> journal.register(consulClient, expected.getId()));
+      reregistered.put(expected.getId(), registered);
+      repairs.add(registered);
+    }
+
+    for (NewCheck expected : journal.getChecks()) {
+      CompletableFuture<Boolean> serviceRegistered = expected.getServiceId() == null ? null
+          : reregistered.get(expected.getServiceId());
+      if (serviceRegistered == null && actualChecks.containsKey(expected.getId())) {
+        continue;
+      }
+
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Check[{}] is missing on ConsulClient[{}], register again <<<",
+          expected.getId(), client.getClientId());
+      repairs.add(after(serviceRegistered, () -> write(client, registrar, "check:" + expected.getId(),
+          () -> journal.registerCheck(consulClient, expected.getId()))));
+    }
+
+    Map<String, String> maintenances = journal.getMaintenances();
+    for (NewService expected : expectedServices) {
+      String serviceId = expected.getId();
+      CompletableFuture<Boolean> serviceRegistered = reregistered.get(serviceId);
+      boolean expectedMaintenance = maintenances.containsKey(serviceId);
+      boolean actualMaintenance = serviceRegistered == null
+          && actualChecks.containsKey(SERVICE_MAINTENANCE_CHECK_PREFIX + serviceId);
+      if (expectedMaintenance == actualMaintenance) {
+        continue;
+      }
+
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Maintenance of Service[{}] on ConsulClient[{}] is {}, set to {} <<<",
+          serviceId, client.getClientId(), actualMaintenance, expectedMaintenance);
+      repairs.add(after(serviceRegistered, () -> write(client, registrar, "maintenance:" + serviceId,
+          () -> journal.applyMaintenance(consulClient, serviceId))));
+    }
+
+    return CompletableFuture.allOf(repairs.toArray(new CompletableFuture[0]))
+        .thenApply(ignored -> (int) repairs.stream().filter(CompletableFuture::join).count());
+  }
+
+  /**
+   * 排在同一节点同一操作之前的写入之后执行一次修复，失败时记录日志并返回false
+   */
+  private static CompletableFuture<Boolean> write(ConsulClientHolder client, QuorumRegistrar registrar,
+      String operation, Supplier<Boolean> action) {
+    return registrar.submit(client.getClientId(), operation, action).handle((applied, e) -> {
+      if (e == null) {
+        return applied;
+      }
+
+      Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Repair {} on ConsulClient[{}] failed: {} <<<", operation,
+          client.getClientId(), cause.getMessage());
+      return false;
+    });
+  }
+
+  /**
+   * 服务重新注册成功后再执行，服务未重新注册时立即执行
+   */
+  private static CompletableFuture<Boolean> after(CompletableFuture<Boolean> serviceRegistered,
+      Supplier<CompletableFuture<Boolean>> repair) {
+    if (serviceRegistered == null) {
+      return repair.get();
+    }
+
+    return serviceRegistered.thenCompose(registered -> registered ? repair.get()
+        : CompletableFuture.completedFuture(false));
+  }
+
+  /**
+   * 节点上的服务与期望的注册信息是否一致(ID、名称、地址、端口、标签、元数据)
+   */
+  public static boolean isSame(NewService expected, Service actual) {
+    if (actual == null) {
+      return false;
+    }
+
+    return Objects.equals(expected.getId(), actual.getId())
+        && Objects.equals(expected.getName(), actual.getService())
+        && StringUtils.defaultString(expected.getAddress()).equals(StringUtils.defaultString(actual.getAddress()))
+        && Objects.equals(expected.getPort() == null ? 0 : expected.getPort(), actual.getPort() == null ? 0 : actual.getPort())
+        && emptyIfNull(expected.getTags()).equals(emptyIfNull(actual.getTags()))
+        && emptyIfNull(expected.getMeta()).equals(emptyIfNull(actual.getMeta()));
+  }
+
+  private static <T> List<T> emptyIfNull(List<T> list) {
+    return list == null ? Collections.emptyList() : list;
+  }
+
+  private static <K, V> Map<K, V> emptyIfNull(Map<K, V> map) {
+    return map == null ? Collections.emptyMap() : map;
+  }
+}
@@ -0,0 +1,226 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.agent.model.NewCheck;
+import com.ecwid.consul.v1.agent.model.NewService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 注册日志
+ *
+ * 按服务ID和检查ID记录本进程的注册、注销及维护模式状态，
+ * 节点重新加入集群时重放这些操作，使该节点上的注册信息与其他节点一致。
+ */
+@Slf4j
+public class RegistrationJournal {
+
+  private final Map<String, Registration<NewService>> services = new ConcurrentHashMap<>();
+
+  private final Map<String, Registration<NewCheck>> checks = new ConcurrentHashMap<>();
+
+  /**
+   * 处于维护模式的服务: serviceId -> reason(可为空字符串)
+   */
+  private final Map<String, String> maintenances = new ConcurrentHashMap<>();
+
+  public void serviceRegistered(NewService newService, String token) {
+    services.put(newService.getId(), new Registration<>(newService, token));
+  }
+
+  /**
+   * 注销服务时consul同时删除其检查及维护状态
+   */
+  public void serviceDeregistered(String serviceId) {
+    services.remove(serviceId);
+    maintenances.remove(serviceId);
+    checks.values().removeIf(check -> serviceId.equals(check.value.getServiceId()));
+  }
+
+  public void checkRegistered(NewCheck newCheck, String token) {
+    checks.put(newCheck.getId(), new Registration<>(newCheck, token));
+  }
+
+  public void checkDeregistered(String checkId) {
+    checks.remove(checkId);
+  }
+
+  public void maintenanceChanged(String serviceId, boolean maintenanceEnabled, String reason) {
+    if (maintenanceEnabled) {
+      maintenances.put(serviceId, StringUtils.defaultString(reason));
+    } else {
+      maintenances.remove(serviceId);
+    }
+  }
+
+  /**
+   * 期望在每个节点上存在的服务
+   */
+  public Collection<NewService> getServices() {
+    List<NewService> tmpServices = new ArrayList<>(services.size());
+    services.values().forEach(registration -> tmpServices.add(registration.value));
+    return tmpServices;
+  }
+
+  /**
+   * 期望在每个节点上存在的检查
+   */
+  public Collection<NewCheck> getChecks() {
+    List<NewCheck> tmpChecks = new ArrayList<>(checks.size());
+    checks.values().forEach(registration -> tmpChecks.add(registration.value));
+    return tmpChecks;
+  }
+
+  /**
+   * 处于维护模式的服务: serviceId -> reason
+   */
+  public Map<String, String> getMaintenances() {
+    return Collections.unmodifiableMap(new HashMap<>(maintenances));
+  }
+
+  /**
+   * 注册服务时使用的token，可为空
+   */
+  public String getToken(String serviceId) {
+    Registration<NewService> registration = services.get(serviceId);
+    return registration == null ? null : registration.token;
+  }
+
+  public boolean isEmpty() {
+    return services.isEmpty() && checks.isEmpty();
+  }
+
+  /**
+   * 按注册日志中当前的记录注册一个服务，使用其注册时的token
+   *
+   * @return 日志中已没有该服务(已注销)时不注册，返回false
+   */
+  public boolean register(ConsulClient client, String serviceId) {
+    Registration<NewService> registration = services.get(serviceId);
+    if (registration == null) {
+      return false;
+    }
+
+    if (StringUtils.isNotEmpty(registration.token)) {
+      client.agentServiceRegister(registration.value, registration.token);
+    } else {
+      client.agentServiceRegister(registration.value);
+    }
+    return true;
+  }
+
+  /**
+   * 按注册日志中当前的记录注册一个检查，使用其注册时的token
+   *
+   * @return 日志中已没有该检查(已注销)时不注册，返回false
+   */
+  public boolean registerCheck(ConsulClient client, String checkId) {
+    Registration<NewCheck> registration = checks.get(checkId);
+    if (registration == null) {
+      return false;
+    }
+
+    if (StringUtils.isNotEmpty(registration.token)) {
+      client.agentCheckRegister(registration.value, registration.token);
+    } else {
+      client.agentCheckRegister(registration.value);
+    }
+    return true;
+  }
+
+  /**
+   * 按注册日志中当前的状态开启或关闭服务的维护模式
+   *
+   * @return 日志中已没有该服务(已注销)时不写入，返回false
+   */
+  public boolean applyMaintenance(ConsulClient client, String serviceId) {
+    if (!services.containsKey(serviceId)) {
+      return false;
+    }
+
+    String reason = maintenances.get(serviceId);
+    client.agentServiceSetMaintenance(serviceId, reason != null, reason);
+    return true;
+  }
+
+  /**
+   * 在节点上按 服务 -> 检查 -> 维护模式 的顺序重放全部记录。
+   * 每个写入经由 QuorumRegistrar 排在同一节点同一操作之前的写入之后执行，执行时再读取一次日志，
+   * 期间已注销的记录不再写入，不会在注销之后把服务重新注册回去
+   *
+   * @return 失败的操作数
+   */
+  public CompletableFuture<Integer> replay(ConsulClientHolder client, QuorumRegistrar registrar) {
+    AtomicInteger replayed = new AtomicInteger();
+    AtomicInteger failures = new AtomicInteger();
+    List<String> serviceIds = new ArrayList<>(services.keySet());
+    List<String> checkIds = new ArrayList<>(checks.keySet());
+    List<String> maintenanceIds = new ArrayList<>(maintenances.keySet());
+
+    return apply(client, registrar, "service:", serviceIds, replayed, failures, this::register)
+        .thenCompose(ignored -> apply(client, registrar, "check:", checkIds, replayed, failures, this::registerCheck))
+        .thenCompose(ignored -> apply(client, registrar, "maintenance:", maintenanceIds, replayed, failures,
+            (consulClient, serviceId) -> {
+              String reason = maintenances.get(serviceId);
+              if (reason == null) {
+                return false;
+              }
+              consulClient.agentServiceSetMaintenance(serviceId, true, reason);
+              return true;
+            }))
+        .thenApply(ignored -> {
+          log.info(CommonConstant.LOG_PREFIX + ">>> Replayed registration journal on ConsulClient[{}]: {} services, "
+              + "{} checks, {} maintenances, {} replayed, {} failures <<<", client.getClientId(), serviceIds.size(),
+              checkIds.size(), maintenanceIds.size(), replayed.get(), failures.get());
+          return failures.get();
+        });
+  }
+
+  /**
+   * 并行提交一组同类的写入，全部完成(无论成败)后完成
+   */
+  private CompletableFuture<Void> apply(ConsulClientHolder client, QuorumRegistrar registrar, String prefix,
+      List<String> ids, AtomicInteger replayed, AtomicInteger failures, BiPredicate<ConsulClient, String> action) {
+    return CompletableFuture.allOf(ids.stream()
+        .map(id -> registrar.submit(client.getClientId(), prefix + id, () -> action.test(client.getClient(), id))
+            .handle((applied, e) -> {
+              if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                log.warn(CommonConstant.LOG_PREFIX + ">>> Replay {}{} on ConsulClient[{}] failed: {} <<<", prefix, id,
+                    client.getClientId(), cause.getMessage());
+                failures.incrementAndGet();
+              } else if (applied) {
+                replayed.incrementAndGet();
+              }
+              return null;
+            }))
+        .toArray(CompletableFuture[]::new));
+  }
+
+  /**
+   * 一条注册记录及其token
+   */
+  private static class Registration<T> {
+
+    private final T value;
+
+    private final String token;
+
+    Registration(T value, String token) {
+      this.value = value;
+      this.token = token;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 重试预算(令牌桶)
+ *
+ * 每个请求存入 ratio 个令牌，每次重试取走1个令牌，令牌数不超过 maxTokens。
+ * 长期来看重试次数不超过请求数的 ratio 倍(外加 maxTokens 的突发)，避免故障期间重试放大流量。
+ */
+public class RetryBudget {
+
+  /**
+   * 令牌以千分之一为单位计数
+   */
+  private static final long SCALE = 1000;
+
+  private final long deposit;
+
+  private final long capacity;
+
+  private final AtomicLong balance;
+
+  /**
+   * @param ratio - 每个请求可换取的重试次数，例如0.1即重试不超过请求的10%
+   * @param maxTokens - 令牌上限，也是初始令牌数
+   */
+  public RetryBudget(double ratio, int maxTokens) {
+    this.deposit = (long) (ratio * SCALE);
+    this.capacity = maxTokens * SCALE;
+    this.balance = new AtomicLong(this.capacity);
+  }
+
+  /**
+   * 每个请求调用一次
+   */
+  public void deposit() {
+    balance.getAndUpdate(current -> Math.min(capacity, current + deposit));
+  }
+
+  /**
+   * 尝试取走一次重试的令牌
+   *
+   * @return 预算不足时返回false
+   */
+  public boolean tryWithdraw() {
+    long current;
+    do {
+      current = balance.get();
+      if (current < SCALE) {
+        return false;
+      }
+    } while (!balance.compareAndSet(current, current - SCALE));
+
+    return true;
+  }
+
+  /**
+   * 当前可用的重试次数
+   */
+  public double available() {
+    return (double) balance.get() / SCALE;
+  }
+}
@@ -0,0 +1,304 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.ecwid.consul.v1.OperationException;
+import com.ecwid.consul.v1.QueryParams;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * session续约管理
+ *
+ * 所有session共用一个定时任务: 每个tick最多取出batchSize个到期(TTL/2)的session，
+ * 交给固定concurrency个线程续约；首次到期时间在TTL/4内随机错开，避免同时创建的session同时续约。
+ * 线程数和每个tick的请求数不随session数增长。续约返回404的session视为丢失，通知其监听者。
+ * consul没有批量续约的接口，这里的批量指按tick成批调度、并发受限的逐个续约。
+ */
+@Slf4j
+public class SessionRenewalManager implements AutoCloseable {
+
+  private static final int STATUS_NOT_FOUND = 404;
+
+  private static final Pattern DURATION = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|s|m|h)");
+
+  /**
+   * 最近丢失的session最多保留的个数
+   */
+  private static final int MAX_LOST_SESSIONS = 1000;
+
+  private final ClusterConsulClient client;
+
+  private final int batchSize;
+
+  private final ExecutorService renewExecutor;
+
+  private final ScheduledFuture<?> tick;
+
+  private final Map<String, ManagedSession> sessions = new ConcurrentHashMap<>();
+
+  private final Set<Consumer<String>> lostListeners = new CopyOnWriteArraySet<>();
+
+  private final List<String> lostSessions = Collections.synchronizedList(new ArrayList<>());
+
+  /**
+   * 最近一次续约相对于到期时间的延迟(毫秒)中的最大值，由 getStats 读取后清零
+   */
+  private final AtomicLong maxLag = new AtomicLong();
+
+  private final AtomicLong renewals = new AtomicLong();
+
+  private final AtomicLong failures = new AtomicLong();
+
+  public SessionRenewalManager(ClusterConsulClient client, ScheduledExecutorService scheduler, long tickInterval,
+      int batchSize, int concurrency) {
+    this.client = client;
+    this.batchSize = batchSize;
+    AtomicInteger threadIndex = new AtomicInteger();
+    this.renewExecutor = Executors.newFixedThreadPool(concurrency, runnable -> {
+      Thread thread = new Thread(runnable, "cluster-consul-session-renew-" + threadIndex.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.tick = scheduler.scheduleWithFixedDelay(this::renewDueSessions, tickInterval, tickInterval,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * 开始续约一个session
+   *
+   * @param ttl - session的TTL，例如 15s
+   * @param onLost - session丢失时的回调，可为null
+   */
+  public void register(String sessionId, String ttl, String token, Consumer<String> onLost) {
+    long ttlMillis = parseDuration(ttl);
+    if (sessionId == null || ttlMillis <= 0) {
+      return;
+    }
+
+    long interval = ttlMillis / 2;
+    long firstDue = System.currentTimeMillis() + interval - ThreadLocalRandom.current().nextLong(interval / 2 + 1);
+    sessions.put(sessionId, new ManagedSession(sessionId, token, interval, firstDue, onLost));
+  }
+
+  public void unregister(String sessionId) {
+    sessions.remove(sessionId);
+  }
+
+  public boolean isManaged(String sessionId) {
+    return sessions.containsKey(sessionId);
+  }
+
+  public void addLostListener(Consumer<String> listener) {
+    lostListeners.add(listener);
+  }
+
+  public void removeLostListener(Consumer<String> listener) {
+    lostListeners.remove(listener);
+  }
+
+  /**
+   * 最近丢失的session
+   */
+  public List<String> getLostSessions() {
+    synchronized (lostSessions) {
+      return new ArrayList<>(lostSessions);
+    }
+  }
+
+  /**
+   * 续约统计，maxLag为上次调用以来的最大续约延迟
+   */
+  public Stats getStats() {
+    return new Stats(sessions.size(), renewals.get(), failures.get(), lostSessions.size(), maxLag.getAndSet(0));
+  }
+
+  @Override
+  public void close() {
+    tick.cancel(false);
+    renewExecutor.shutdownNow();
+  }
+
+  /**
+   * 取出至多batchSize个到期的session提交续约，优先最早到期的
+   */
+  void renewDueSessions() {
+    long now = System.currentTimeMillis();
+    List<ManagedSession> due = new ArrayList<>();
+    for (ManagedSession session : sessions.values()) {
+      if (!session.inFlight && session.due <= now) {
+        due.add(session);
+      }
+    }
+    if (due.isEmpty()) {
+      return;
+    }
+
+    due.sort((left, right) -> Long.compare(left.due, right.due));
+    for (ManagedSession session : due.subList(0, Math.min(batchSize, due.size()))) {
+      session.inFlight = true;
+      try {
+        renewExecutor.execute(() -> renew(session));
+      } catch (Exception e) {
+        session.inFlight = false;
+        log.warn(CommonConstant.LOG_PREFIX + ">>> Submit session renewal failed: {} <<<", e.getMessage());
+        return;
+      }
+    }
+  }
+
+  private void renew(ManagedSession session) {
+    long start = System.currentTimeMillis();
+    maxLag.accumulateAndGet(start - session.due, Math::max);
+    try {
+      client.renewSession(session.id, QueryParams.DEFAULT, session.token);
+      renewals.incrementAndGet();
+      session.due = System.currentTimeMillis() + session.interval;
+    } catch (OperationException e) {
+      if (e.getStatusCode() == STATUS_NOT_FOUND) {
+        lost(session);
+      } else {
+        failed(session, e);
+      }
+    } catch (Exception e) {
+      failed(session, e);
+    } finally {
+      session.inFlight = false;
+    }
+  }
+
+  /**
+   * 续约失败(非404)时在间隔的1/4后重试
+   */
+  private void failed(ManagedSession session, Exception e) {
+    failures.incrementAndGet();
+    session.due = System.currentTimeMillis() + Math.max(1, session.interval / 4);
+    log.warn(CommonConstant.LOG_PREFIX + ">>> Renew session {} failed: {} <<<", session.id, e.getMessage());
+  }
+
+  private void lost(ManagedSession session) {
+    if (sessions.remove(session.id) == null) {
+      return;
+    }
+
+    log.warn(CommonConstant.LOG_PREFIX + ">>> Session {} is lost <<<", session.id);
+    synchronized (lostSessions) {
+      lostSessions.add(session.id);
+      if (lostSessions.size() > MAX_LOST_SESSIONS) {
+        lostSessions.remove(0);
+      }
+    }
+    if (session.onLost != null) {
+      notify(session.onLost, session.id);
+    }
+    lostListeners.forEach(listener -> notify(listener, session.id));
+  }
+
+  private static void notify(Consumer<String> listener, String sessionId) {
+    try {
+      listener.accept(sessionId);
+    } catch (Exception e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> Session lost listener failed: {} <<<", e.getMessage());
+    }
+  }
+
+  /**
+   * 解析consul的时长，例如 10s、1m30s、500ms；为空时返回0
+   */
+  static long parseDuration(String duration) {
+    if (duration == null || duration.trim().isEmpty()) {
+      return 0;
+    }
+
+    Matcher matcher = DURATION.matcher(duration.trim());
+    double millis = 0;
+    while (matcher.find()) {
+      double amount = Double.parseDouble(matcher.group(1));
+      switch (matcher.group(2)) {
+        case "ms":
+          millis += amount;
+          break;
+        case "s":
+          millis += amount * 1000;
+          break;
+        case "m":
+          millis += amount * 60000;
+          break;
+        default:
+          millis += amount * 3600000;
+      }
+    }
+    return (long) millis;
+  }
+
+  private static class ManagedSession {
+
+    private final String id;
+
+    private final String token;
+
+    private final long interval;
+
+    private final Consumer<String> onLost;
+
+    private volatile long due;
+
+    private volatile boolean inFlight;
+
+    ManagedSession(String id, String token, long interval, long due, Consumer<String> onLost) {
+      this.id = id;
+      this.token = token;
+      this.interval = interval;
+      this.due = due;
+      this.onLost = onLost;
+    }
+  }
+
+  /**
+   * 续约统计
+   */
+  @Getter
+  public static class Stats {
+
+    private final int sessions;
+
+    private final long renewals;
+
+    private final long failures;
+
+    private final int lostSessions;
+
+    private final long maxLagMillis;
+
+    Stats(int sessions, long renewals, long failures, int lostSessions, long maxLagMillis) {
+      this.sessions = sessions;
+      this.renewals = renewals;
+      this.failures = failures;
+      this.lostSessions = lostSessions;
+      this.maxLagMillis = maxLagMillis;
+    }
+
+    @Override
+    public String toString() {
+      return "sessions=" + sessions + ", renewals=" + renewals + ", failures=" + failures + ", lostSessions="
+          + lostSessions + ", maxLagMillis=" + maxLagMillis;
+    }
+  }
+}
@@ -0,0 +1,785 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.ecwid.consul.v1.OperationException;
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.agent.model.NewCheck;
+import com.ecwid.consul.v1.agent.model.NewService;
+import com.ecwid.consul.v1.event.model.EventParams;
+import com.ecwid.consul.v1.health.model.HealthService;
+import com.ecwid.consul.v1.kv.model.GetValue;
+import com.ecwid.consul.v1.query.model.QueryExecution;
+import com.ecwid.consul.v1.session.model.NewSession;
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.retry.RetryContext;
+
+/**
+ * ClusterConsulClient 故障切换、多点注册 单元测试(基于进程内伪consul集群)
+ */
+@Slf4j
+public class ClusterConsulClientTest {
+
+  private FakeConsulCluster cluster;
+
+  private ClusterConsulClient client;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    cluster = new FakeConsulCluster(3);
+    client = createClient(cluster);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    client.getConsulClientsExecutor().shutdownNow();
+    cluster.close();
+  }
+
+  @Test
+  public void testKvReadFailsOverWhenCurrentAgentStops() {
+    client.setKVValue("failover/key", "value");
+    ConsulClientHolder before = client.getCurrentClient();
+
+    cluster.findAgent(before.getClientId()).stop();
+
+    Assertions.assertEquals("value", client.getKVValue("failover/key").getValue().getDecodedValue());
+    Assertions.assertNotEquals(before.getClientId(), client.getCurrentClient().getClientId());
+    Assertions.assertFalse(before.isHealthy());
+  }
+
+  @Test
+  public void testKvReadFailsOverOnServerError() {
+    client.setKVValue("failover/key", "value");
+    FakeConsulAgent current = cluster.findAgent(client.getCurrentClient().getClientId());
+    current.setErrorStatus(500);
+
+    Assertions.assertEquals("value", client.getKVValue("failover/key").getValue().getDecodedValue());
+    Assertions.assertNotEquals(current.getConnect(), client.getCurrentClient().getClientId());
+  }
+
+  @Test
+  public void testRetryNeverHitsTheSameAgentTwice() {
+    client.setKVValue("failover/key", "value");
+    cluster.getAgents().forEach(agent -> agent.setErrorStatus(500));
+    List<Long> before = cluster.getAgents().stream().map(agent -> agent.getRequestCount("/v1/kv"))
+        .collect(Collectors.toList());
+
+    Assertions.assertThrows(OperationException.class, () -> client.getKVValue("failover/key"));
+
+    for (int i = 0; i < before.size(); i++) {
+      Assertions.assertTrue(cluster.getAgent(i).getRequestCount("/v1/kv") - before.get(i) <= 1);
+    }
+  }
+
+  @Test
+  public void testKvReadFailsFastWhenDeadlineIsSpent() {
+    client.setKVValue("deadline/key", "value");
+    cluster.getAgents().forEach(agent -> agent.setLatencyMillis(2000));
+
+    ClusterConsulProperties properties = client.getClusterConsulProperties();
+    ClusterConsulProperties.RetrySettings settings = new ClusterConsulProperties.RetrySettings();
+    settings.setDeadline(300);
+    properties.getOperationRetry().put(OperationFamily.KV_READ, settings);
+
+    //每个节点延迟2秒，期限用尽后立即失败而不是等待节点响应
+    CompletableFuture<Response<GetValue>> read = CompletableFuture.supplyAsync(() -> client.getKVValue("deadline/key"));
+    Awaitility.await().atMost(Duration.ofMillis(1500)).until(read::isDone);
+    CompletionException e = Assertions.assertThrows(CompletionException.class, read::join);
+    Assertions.assertTrue(e.getCause() instanceof DeadlineExceededException);
+    //期限用尽不标记节点不健康
+    Assertions.assertTrue(client.getConsulClients().stream().allMatch(ConsulClientHolder::isHealthy));
+  }
+
+  @Test
+  public void testServiceRegisterFansOutToAllAgents() {
+    NewService newService = new NewService();
+    newService.setId("demo-1");
+    newService.setName("demo");
+    newService.setAddress("10.0.0.1");
+    newService.setPort(8080);
+
+    client.agentServiceRegister(newService);
+
+    cluster.getAgents().forEach(agent -> Assertions.assertTrue(agent.getServices().containsKey("demo-1")));
+    List<HealthService> healthServices = client.getHealthServices("demo", false, QueryParams.DEFAULT).getValue();
+    Assertions.assertEquals(cluster.getAgents().size(), healthServices.size());
+  }
+
+  @Test
+  public void testQuorumRegisterReturnsBeforeSlowAgentAndRepairsFailures() {
+    client.getClusterConsulProperties().setRegistrationQuorum(2);
+    FakeConsulAgent hung = cluster.getAgent(0);
+    FakeConsulAgent failing = cluster.getAgent(1);
+    failing.failNext(1, 500);
+    NewService newService = new NewService();
+    newService.setId("demo-1");
+    newService.setName("demo");
+
+    client.agentServiceRegister(newService);
+    awaitPendingRepair(failing.getConnect());
+
+    client.repairPendingRegistrations().join();
+    Assertions.assertTrue(failing.getServices().containsKey("demo-1"));
+    Assertions.assertTrue(client.getQuorumRegistrar().getPendingRepairs(failing.getConnect()).isEmpty());
+
+    hung.hang();
+    try {
+      CompletableFuture<Response<Void>> register = CompletableFuture
+          .supplyAsync(() -> client.agentServiceRegister(newService));
+      Awaitility.await().atMost(Duration.ofSeconds(1)).until(register::isDone);
+      register.join();
+    } finally {
+      hung.releaseHang();
+    }
+  }
+
+  @Test
+  public void testFailedQuorumIsNotRetried() {
+    client.getClusterConsulProperties().setRegistrationQuorum(0);
+    FakeConsulAgent failing = cluster.getAgent(1);
+    failing.failNext(1, 500);
+    NewService newService = new NewService();
+    newService.setId("demo-1");
+    newService.setName("demo");
+
+    Assertions.assertThrows(OperationException.class, () -> client.agentServiceRegister(newService));
+    awaitPendingRepair(failing.getConnect());
+
+    //法定数失败时其余节点的写入可能仍在进行
+    Awaitility.await().pollDelay(Duration.ofMillis(200)).atMost(Duration.ofSeconds(2)).untilAsserted(() ->
+        cluster.getAgents().forEach(agent -> Assertions.assertEquals(1,
+            agent.getRequestCount("/v1/agent/service/register"))));
+  }
+
+  @Test
+  public void testAntiEntropyRepairsOnlyTheAgentThatLostRegistration() {
+    NewService newService = new NewService();
+    newService.setId("demo-1");
+    newService.setName("demo");
+    newService.setPort(8080);
+    client.agentServiceRegister(newService);
+
+    FakeConsulAgent restarted = cluster.getAgent(1);
+    restarted.forgetRegistrations();
+    long otherRegisters = cluster.getAgent(0).getRequestCount("/v1/agent/service/register");
+
+    client.repairRegistrations().join();
+
+    Assertions.assertTrue(restarted.getServices().containsKey("demo-1"));
+    Assertions.assertEquals(otherRegisters, cluster.getAgent(0).getRequestCount("/v1/agent/service/register"));
+
+    client.agentServiceDeregister("demo-1");
+    client.repairRegistrations().join();
+    cluster.getAgents().forEach(agent -> Assertions.assertFalse(agent.getServices().containsKey("demo-1")));
+  }
+
+  @Test
+  public void testAntiEntropyRepairsChecksAndMaintenance() {
+    client.agentServiceRegister(newService("demo-1"));
+    NewCheck newCheck = new NewCheck();
+    newCheck.setId("demo-1-ttl");
+    newCheck.setName("demo-1 ttl");
+    newCheck.setServiceId("demo-1");
+    newCheck.setTtl("30s");
+    client.agentCheckRegister(newCheck);
+    client.agentServiceSetMaintenance("demo-1", true, "upgrade");
+
+    //服务丢失时检查及维护模式随之丢失，需要一起重放
+    FakeConsulAgent restarted = cluster.getAgent(1);
+    restarted.forgetRegistrations();
+    //服务仍在，但检查丢失
+    FakeConsulAgent lostCheck = cluster.getAgent(2);
+    ConsulClientHolder lostCheckHolder = client.getConsulClients().stream()
+        .filter(consulClient -> consulClient.getClientId().equals(lostCheck.getConnect())).findFirst().get();
+    lostCheckHolder.getClient().agentCheckDeregister("demo-1-ttl");
+
+    client.repairRegistrations().join();
+
+    for (ConsulClientHolder holder : client.getConsulClients()) {
+      Set<String> checkIds = holder.getClient().getAgentChecks().getValue().keySet();
+      Assertions.assertTrue(checkIds.contains("demo-1-ttl"), holder.getClientId());
+      Assertions.assertTrue(checkIds.contains("_service_maintenance:demo-1"), holder.getClientId());
+    }
+
+    client.agentServiceSetMaintenance("demo-1", false);
+    lostCheckHolder.getClient().agentServiceSetMaintenance("demo-1", true, "stale");
+    client.repairRegistrations().join();
+    Assertions.assertFalse(lostCheckHolder.getClient().getAgentChecks().getValue()
+        .containsKey("_service_maintenance:demo-1"));
+  }
+
+  @Test
+  public void testJournalReplaysAllRegistrationsToRejoinedAgent() {
+    client.agentServiceRegister(newService("demo-1"));
+    client.agentServiceRegister(newService("demo-2"));
+    client.agentServiceRegister(newService("demo-3"));
+    client.agentServiceDeregister("demo-3");
+    NewCheck newCheck = new NewCheck();
+    newCheck.setId("demo-1-ttl");
+    newCheck.setName("demo-1 ttl");
+    newCheck.setServiceId("demo-1");
+    newCheck.setTtl("30s");
+    client.agentCheckRegister(newCheck);
+
+    FakeConsulAgent rejoined = cluster.getAgent(2);
+    rejoined.forgetRegistrations();
+    ConsulClientHolder holder = client.getConsulClients().stream()
+        .filter(consulClient -> consulClient.getClientId().equals(rejoined.getConnect())).findFirst().get();
+
+    client.replayRegistrationJournal(Collections.singletonList(holder)).join();
+
+    Assertions.assertEquals(new HashSet<>(Arrays.asList("demo-1", "demo-2")), rejoined.getServices().keySet());
+    Assertions.assertTrue(holder.getClient().getAgentChecks().getValue().containsKey("demo-1-ttl"));
+  }
+
+  @Test
+  public void testJournalReplayDoesNotResurrectDeregisteredService() {
+    client.getClusterConsulProperties().setRegistrationQuorum(2);
+    client.agentServiceRegister(newService("demo-1"));
+    FakeConsulAgent rejoined = cluster.getAgent(2);
+    ConsulClientHolder holder = client.getConsulClients().stream()
+        .filter(consulClient -> consulClient.getClientId().equals(rejoined.getConnect())).findFirst().get();
+
+    rejoined.hang();
+    CompletableFuture<Void> replay;
+    try {
+      //重放排在挂起节点上该服务进行中的写入之后，注销又排在重放之后
+      client.agentServiceRegister(newService("demo-1"));
+      replay = client.replayRegistrationJournal(Collections.singletonList(holder));
+      client.agentServiceDeregister("demo-1");
+    } finally {
+      rejoined.releaseHang();
+    }
+    replay.join();
+
+    //重放执行时日志中已没有该服务，不再注册
+    Awaitility.await().atMost(Duration.ofSeconds(5)).until(() -> !rejoined.getServices().containsKey("demo-1")
+        && rejoined.getRequestCount("/v1/agent/service/deregister") == 1);
+    Assertions.assertEquals(2, rejoined.getRequestCount("/v1/agent/service/register"));
+  }
+
+  @Test
+  public void testKvTxnKeepsCommittedChunksWhenLaterChunkFails() {
+    KVTxn txn = KVTxn.partial();
+    for (int i = 0; i < 100; i++) {
+      txn.set("txn/key-" + i, "value-" + i);
+    }
+    AtomicInteger attempts = new AtomicInteger();
+    ClusterConsulClient failingClient = new ClusterConsulClient(client.getClusterConsulProperties()) {
+      @Override
+      protected ConsulClientHolder getRetryConsulClientHolder(RetryContext context) {
+        //第二块被所有节点拒绝
+        if (attempts.incrementAndGet() == 2) {
+          cluster.getAgents().forEach(agent -> agent.failNext(1, 403));
+        }
+        return super.getRetryConsulClientHolder(context);
+      }
+    };
+    try {
+      KVTxnException e = Assertions.assertThrows(KVTxnException.class, () -> failingClient.executeKVTxn(txn));
+
+      Assertions.assertEquals(KVTxn.MAX_OPERATIONS, e.getFailedOffset());
+      Assertions.assertEquals(KVTxn.MAX_OPERATIONS, e.getPartialResponse().getCommitted());
+      Assertions.assertEquals(KVTxn.MAX_OPERATIONS, e.getPartialResponse().getResults().size());
+      Assertions.assertTrue(e.getCause() instanceof OperationException);
+    } finally {
+      failingClient.getConsulClientsExecutor().shutdownNow();
+    }
+  }
+
+  @Test
+  public void testKvTxnBatchesWritesIntoFewRequests() {
+    KVTxn txn = KVTxn.partial();
+    for (int i = 0; i < 100; i++) {
+      txn.set("txn/key-" + i, "value-" + i);
+    }
+    FakeConsulAgent current = cluster.findAgent(client.getCurrentClient().getClientId());
+    long before = current.getRequestCount("/v1/txn");
+
+    KVTxnResponse response = client.executeKVTxn(txn);
+
+    Assertions.assertTrue(response.isSuccess());
+    Assertions.assertEquals(100, response.getResults().size());
+    Assertions.assertEquals(2, current.getRequestCount("/v1/txn") - before);
+    Assertions.assertEquals("value-99", client.getKVValue("txn/key-99").getValue().getDecodedValue());
+  }
+
+  @Test
+  public void testKvTxnAtomicRollsBackOnFailedCheck() {
+    client.setKVValue("txn/guard", "v1");
+    long modifyIndex = client.getKVValue("txn/guard").getValue().getModifyIndex();
+    client.setKVValue("txn/guard", "v2");
+
+    KVTxnResponse response = client.executeKVTxn(KVTxn.atomic()
+        .set("txn/a", "a")
+        .checkIndex("txn/guard", modifyIndex)
+        .set("txn/b", "b"));
+
+    Assertions.assertFalse(response.isSuccess());
+    Assertions.assertEquals(1, response.getErrors().get(0).getOpIndex());
+    Assertions.assertNull(client.getKVValue("txn/a").getValue());
+    Assertions.assertNull(client.getKVValue("txn/b").getValue());
+    Assertions.assertThrows(IllegalArgumentException.class, () -> {
+      KVTxn tooLarge = KVTxn.atomic();
+      for (int i = 0; i <= KVTxn.MAX_OPERATIONS; i++) {
+        tooLarge.delete("txn/key-" + i);
+      }
+      client.executeKVTxn(tooLarge);
+    });
+  }
+
+  @Test
+  public void testKvTxnFailsOverOnServerError() {
+    FakeConsulAgent current = cluster.findAgent(client.getCurrentClient().getClientId());
+    current.setErrorStatus(500);
+
+    Assertions.assertTrue(client.executeKVTxn(KVTxn.atomic().set("txn/failover", "value")).isSuccess());
+    Assertions.assertEquals("value", client.getKVValue("txn/failover").getValue().getDecodedValue());
+  }
+
+  @Test
+  public void testKvTxnRecordsPlainTextConflictAsWholeTxnError() {
+    FakeConsulAgent current = cluster.findAgent(client.getCurrentClient().getClientId());
+    current.failNext(1, 409);
+
+    KVTxnResponse response = client.executeKVTxn(KVTxn.atomic().set("txn/conflict", "value"));
+
+    Assertions.assertFalse(response.isSuccess());
+    Assertions.assertEquals(KVTxnResponse.TxnError.WHOLE_TXN, response.getErrors().get(0).getOpIndex());
+  }
+
+  @Test
+  public void testKvTxnDoesNotRetryRequestErrors() {
+    cluster.getAgents().forEach(agent -> agent.failNext(1, 403));
+    long before = cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/txn")).sum();
+
+    Assertions.assertThrows(OperationException.class,
+        () -> client.executeKVTxn(KVTxn.atomic().set("txn/denied", "value")));
+    Assertions.assertEquals(1, cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/txn"))
+        .sum() - before);
+    Assertions.assertTrue(client.getConsulClients().stream().allMatch(ConsulClientHolder::isHealthy));
+  }
+
+  @Test
+  public void testKvWriteBufferCoalescesWritesToTheSameKey() {
+    ClusterConsulProperties properties = client.getClusterConsulProperties();
+    properties.setKvWriteBufferWindow(60000);
+    ClusterConsulClient bufferedClient = new ClusterConsulClient(properties);
+    try {
+      long kvBefore = cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/kv")).sum();
+      long txnBefore = cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/txn")).sum();
+      for (int i = 0; i < 100; i++) {
+        bufferedClient.setKVValue("buffer/counter", String.valueOf(i));
+        bufferedClient.setKVValue("buffer/status-" + (i % 3), "status-" + i);
+      }
+      Assertions.assertEquals(4, bufferedClient.getKvWriteBuffer().size());
+
+      Assertions.assertEquals(4, bufferedClient.getKvWriteBuffer().flush());
+      Assertions.assertEquals(kvBefore,
+          cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/kv")).sum());
+      Assertions.assertEquals(txnBefore + 1,
+          cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/txn")).sum());
+      Assertions.assertEquals("99", client.getKVValue("buffer/counter").getValue().getDecodedValue());
+
+      bufferedClient.setKVValue("buffer/drain", "pending");
+      bufferedClient.setKVValue("buffer/discarded", "stale");
+      bufferedClient.deleteKVValue("buffer/discarded");
+      bufferedClient.destroy();
+      Assertions.assertEquals("pending", client.getKVValue("buffer/drain").getValue().getDecodedValue());
+      Assertions.assertNull(client.getKVValue("buffer/discarded").getValue());
+    } finally {
+      bufferedClient.getConsulClientsExecutor().shutdownNow();
+    }
+  }
+
+  @Test
+  public void testPreparedQueryResultsAreCachedAndRefreshedAhead() {
+    ClusterConsulProperties properties = client.getClusterConsulProperties();
+    properties.setPreparedQueryCache(true);
+    ClusterConsulClient cachedClient = new ClusterConsulClient(properties);
+    try {
+      client.agentServiceRegister(newService("demo-1"));
+      String query = cluster.createPreparedQuery("demo", "1s");
+      long before = cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/query/")).sum();
+
+      Response<QueryExecution> first = cachedClient.executePreparedQuery(query, QueryParams.DEFAULT);
+      Assertions.assertNotNull(first.getValue());
+      for (int i = 0; i < 100; i++) {
+        Assertions.assertSame(first, cachedClient.executePreparedQuery(query, QueryParams.DEFAULT));
+      }
+      Assertions.assertEquals(before + 1,
+          cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/query/")).sum());
+
+      //过了TTL的3/4后读取仍返回当前结果，同时在后台刷新
+      Awaitility.await().pollDelay(Duration.ofMillis(800)).atMost(Duration.ofSeconds(1)).untilAsserted(
+          () -> Assertions.assertSame(first, cachedClient.executePreparedQuery(query, QueryParams.DEFAULT)));
+      Awaitility.await().atMost(Duration.ofSeconds(2)).pollInterval(Duration.ofMillis(10))
+          .until(() -> cachedClient.executePreparedQuery(query, QueryParams.DEFAULT) != first);
+      Assertions.assertEquals(before + 2,
+          cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/query/")).sum());
+    } finally {
+      cachedClient.destroy();
+      cachedClient.getConsulClientsExecutor().shutdownNow();
+    }
+  }
+
+  @Test
+  public void testAgentDiscoveryAddsAndRemovesMemberAgents() throws IOException {
+    ClusterConsulProperties properties = client.getClusterConsulProperties();
+    properties.setClusterNodes(cluster.getClusterNodes().subList(0, 2));
+    properties.setAgentDiscovery(true);
+    properties.setAgentDiscoveryInterval(60000);
+    ClusterConsulClient discoveringClient = new ClusterConsulClient(properties);
+    try {
+      String discovered = cluster.getAgent(2).getConnect();
+      discoveringClient.discoverAgents();
+      Assertions.assertEquals(Collections.singletonList(discovered),
+          discoveringClient.getAgentDiscovery().getDiscoveredNodes());
+      Assertions.assertTrue(discoveringClient.getConsulClients().stream()
+          .anyMatch(consulClient -> consulClient.getClientId().equals(discovered)));
+      //发现的agent只分担读请求，不写入注册信息
+      discoveringClient.agentServiceRegister(newService("demo-1"));
+      Assertions.assertTrue(cluster.getAgent(0).getServices().containsKey("demo-1"));
+      Assertions.assertFalse(cluster.getAgent(2).getServices().containsKey("demo-1"));
+
+      //让发现的agent成为当前节点
+      discoveringClient.getConsulClients().stream()
+          .filter(consulClient -> !consulClient.getClientId().equals(discovered))
+          .forEach(consulClient -> consulClient.setHealthy(false));
+      discoveringClient.chooseConsulClient();
+      Assertions.assertEquals(discovered, discoveringClient.getCurrentClient().getClientId());
+      discoveringClient.getConsulClients().forEach(consulClient -> consulClient.setHealthy(true));
+
+      cluster.getAgent(2).stop();
+      discoveringClient.discoverAgents();
+      Assertions.assertTrue(discoveringClient.getAgentDiscovery().getDiscoveredNodes().isEmpty());
+      Assertions.assertEquals(2, discoveringClient.getConsulClients().size());
+      //当前节点离开后重新选择，而不是继续使用已移除的节点
+      ConsulClientHolder current = discoveringClient.getCurrentClient();
+      Assertions.assertTrue(discoveringClient.getConsulClients().stream().anyMatch(consulClient -> consulClient == current));
+
+      properties.setAgentDiscoveryNodeMeta(Collections.singletonMap("pool", "edge"));
+      cluster.getAgent(2).start();
+      discoveringClient.discoverAgents();
+      Assertions.assertTrue(discoveringClient.getAgentDiscovery().getDiscoveredNodes().isEmpty());
+    } finally {
+      discoveringClient.destroy();
+      discoveringClient.getConsulClientsExecutor().shutdownNow();
+    }
+  }
+
+  @Test
+  public void testLargeValueIsChunkedAndReassembled() {
+    ClusterConsulProperties properties = client.getClusterConsulProperties();
+    properties.setKvChunkSize(1024);
+    ClusterConsulClient chunkedClient = new ClusterConsulClient(properties);
+    try {
+      byte[] first = new byte[10 * 1024 + 1];
+      new Random(1).nextBytes(first);
+      byte[] second = new byte[5 * 1024];
+      new Random(2).nextBytes(second);
+
+      chunkedClient.setKVLargeValue("large/value", first);
+      Assertions.assertArrayEquals(first, chunkedClient.getKVLargeValue("large/value"));
+      Assertions.assertArrayEquals(first, chunkedClient.getKVLargeValue("large/value", null, true));
+      Assertions.assertEquals(11, chunkedClient.getKVKeysOnly("large/value.chunks/").getValue().size());
+
+      chunkedClient.setKVLargeValue("large/value", second);
+      Assertions.assertArrayEquals(second, chunkedClient.getKVLargeValue("large/value"));
+      Assertions.assertEquals(5, chunkedClient.getKVKeysOnly("large/value.chunks/").getValue().size());
+
+      chunkedClient.deleteKVLargeValue("large/value");
+      Assertions.assertNull(chunkedClient.getKVLargeValue("large/value"));
+      Assertions.assertNull(chunkedClient.getKVKeysOnly("large/value.chunks/").getValue());
+    } finally {
+      chunkedClient.getConsulClientsExecutor().shutdownNow();
+    }
+  }
+
+  @Test
+  public void testMalformedManifestIsReadAsPlainValue() {
+    ClusterConsulProperties properties = client.getClusterConsulProperties();
+    properties.setKvChunkSize(1024);
+    ClusterConsulClient chunkedClient = new ClusterConsulClient(properties);
+    try {
+      byte[] malformed = {0, 'C', 'K', 'M', 'g', ';', 'x', ';', '1'};
+      chunkedClient.setKVBinaryValue("large/malformed", malformed);
+
+      Assertions.assertArrayEquals(malformed, chunkedClient.getKVLargeValue("large/malformed"));
+      chunkedClient.setKVLargeValue("large/malformed", new byte[]{1, 2, 3});
+      Assertions.assertArrayEquals(new byte[]{1, 2, 3}, chunkedClient.getKVLargeValue("large/malformed"));
+    } finally {
+      chunkedClient.getConsulClientsExecutor().shutdownNow();
+    }
+  }
+
+  @Test
+  public void testIterateKvPrefixLazilyInBatches() {
+    List<String> keys = Arrays.asList("iterate/a", "iterate/b/", "iterate/b/c", "iterate/b/d/e", "iterate/f",
+        "iterate/g");
+    keys.forEach(key -> client.setKVValue(key, key));
+    client.setKVValue("iterated", "outside");
+    FakeConsulAgent current = cluster.findAgent(client.getCurrentClient().getClientId());
+    long before = current.getRequestCount("/v1/txn");
+
+    List<String> iterated = client.streamKVValues("iterate/", CommonConstant.SEPARATOR_VIRGULE, null, 2)
+        .map(GetValue::getDecodedValue).collect(Collectors.toList());
+
+    Assertions.assertEquals(keys, iterated);
+    Assertions.assertEquals(3, current.getRequestCount("/v1/txn") - before);
+    Assertions.assertFalse(client.iterateKVValues("missing/").hasNext());
+  }
+
+  @Test
+  public void testIncrementalSnapshotFetchesOnlyChangedKeys() {
+    for (int i = 0; i < 100; i++) {
+      client.setKVValue("config/app/key" + i, "value" + i);
+    }
+    IncrementalKVSnapshot snapshot = new IncrementalKVSnapshot(client, "config/app/", null);
+    Assertions.assertEquals(100, snapshot.load().getChanged().size());
+
+    client.setKVValue("config/app/key1", "changed1");
+    client.setKVValue("config/app/key2", "changed2");
+    client.deleteKVValue("config/app/key3");
+    client.setKVValue("config/app/added", "added");
+    long kvBefore = cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/kv")).sum();
+    long txnBefore = cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/txn")).sum();
+    IncrementalKVSnapshot.Delta delta = snapshot.poll(1);
+    //一次变化只需一次递归查询
+    Assertions.assertEquals(kvBefore + 1,
+        cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/kv")).sum());
+    Assertions.assertEquals(txnBefore,
+        cluster.getAgents().stream().mapToLong(agent -> agent.getRequestCount("/v1/txn")).sum());
+
+    Assertions.assertEquals(new HashSet<>(Arrays.asList("config/app/key1", "config/app/key2", "config/app/added")),
+        delta.getChanged().keySet());
+    Assertions.assertEquals("changed1", delta.getChanged().get("config/app/key1").getDecodedValue());
+    Assertions.assertEquals(Collections.singleton("config/app/key3"), delta.getRemoved());
+    Assertions.assertEquals(99, snapshot.getKeys().size());
+    Assertions.assertEquals("key1.sub", ClusterConsulConfigWatch.toPropertyName("config/app/", "config/app/key1/sub"));
+  }
+
+  @Test
+  public void testLockSurvivesAgentFailureAndHandsOffOnRelease() throws InterruptedException {
+    ClusterConsulLock holder = client.createLock("locks/demo");
+    holder.setSessionTtl(1);
+    ClusterConsulLock waiter = client.createLock("locks/demo");
+    try {
+      Assertions.assertTrue(holder.tryLock());
+      Assertions.assertFalse(waiter.tryLock(100, TimeUnit.MILLISECONDS));
+
+      //session只使用TTL，续约切换到其他节点后锁仍被持有
+      cluster.findAgent(client.getCurrentClient().getClientId()).stop();
+      //超过两倍session TTL后仍持有锁
+      Awaitility.await().during(Duration.ofMillis(2500)).atMost(Duration.ofSeconds(4)).until(holder::isLocked);
+      Assertions.assertFalse(waiter.tryLock());
+
+      //释放后等待者在一次阻塞查询的往返内获得锁，而不是等到超时
+      CompletableFuture<Boolean> acquired = CompletableFuture.supplyAsync(() -> {
+        try {
+          return waiter.tryLock(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      });
+      client.getConsulClientsExecutor().schedule(holder::unlock, 300, TimeUnit.MILLISECONDS);
+      Awaitility.await().atMost(Duration.ofSeconds(2)).until(acquired::isDone);
+      Assertions.assertTrue(acquired.join());
+      Assertions.assertFalse(holder.tryLock());
+    } finally {
+      holder.close();
+      waiter.close();
+    }
+  }
+
+  @Test
+  public void testSessionRenewalManagerKeepsSessionsAliveAndReportsLoss() {
+    client.getClusterConsulProperties().setSessionAutoRenew(true);
+    List<String> sessionIds = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      NewSession newSession = new NewSession();
+      newSession.setName("renew-" + i);
+      newSession.setTtl("1s");
+      newSession.setChecks(Collections.emptyList());
+      sessionIds.add(client.sessionCreate(newSession, QueryParams.DEFAULT).getValue());
+    }
+    List<String> lost = new CopyOnWriteArrayList<>();
+    client.getSessionRenewalManager().addLostListener(lost::add);
+
+    //每个session至少续约两次(已超过TTL)后仍然存在
+    Awaitility.await().atMost(Duration.ofSeconds(5))
+        .until(() -> client.getSessionRenewalManager().getStats().getRenewals() >= 400);
+    for (String sessionId : sessionIds) {
+      Assertions.assertNotNull(client.getSessionInfo(sessionId, QueryParams.DEFAULT).getValue());
+    }
+    Assertions.assertEquals(200, client.getSessionRenewalManager().getStats().getSessions());
+
+    //绕过ClusterConsulClient销毁session，续约时发现丢失
+    client.getCurrentClient().getClient().sessionDestroy(sessionIds.get(0), QueryParams.DEFAULT);
+    Awaitility.await().atMost(Duration.ofSeconds(3)).until(() -> !lost.isEmpty());
+    Assertions.assertEquals(Collections.singletonList(sessionIds.get(0)), lost);
+    Assertions.assertEquals(Collections.singletonList(sessionIds.get(0)),
+        client.getSessionRenewalManager().getLostSessions());
+    //session不存在(404)是请求本身的错误，不切换节点也不标记节点不健康
+    Assertions.assertTrue(client.getConsulClients().stream().allMatch(ConsulClientHolder::isHealthy));
+    client.sessionDestroy(sessionIds.get(1), QueryParams.DEFAULT);
+    Assertions.assertFalse(client.getSessionRenewalManager().isManaged(sessionIds.get(1)));
+  }
+
+  @Test
+  public void testLeaderElectionHandsOffWithIncreasingFencingToken() throws InterruptedException {
+    ClusterConsulLeaderElection first = client.createLeaderElection("leader/demo");
+    ClusterConsulLeaderElection second = client.createLeaderElection("leader/demo");
+    BlockingQueue<Long> granted = new LinkedBlockingQueue<>();
+    BlockingQueue<String> revoked = new LinkedBlockingQueue<>();
+    first.addListener(new ClusterConsulLeaderElection.Listener() {
+      @Override
+      public void granted(long fencingToken) {
+        granted.add(fencingToken);
+      }
+
+      @Override
+      public void revoked() {
+        revoked.add("first");
+      }
+    });
+    second.addListener(new ClusterConsulLeaderElection.Listener() {
+      @Override
+      public void granted(long fencingToken) {
+        granted.add(fencingToken);
+      }
+
+      @Override
+      public void revoked() {
+        revoked.add("second");
+      }
+    });
+    try {
+      first.start();
+      Long firstToken = granted.poll(5, TimeUnit.SECONDS);
+      Assertions.assertNotNull(firstToken);
+      second.start();
+      Awaitility.await().during(Duration.ofMillis(300)).atMost(Duration.ofSeconds(1)).until(granted::isEmpty);
+      Assertions.assertTrue(first.isLeader());
+      Assertions.assertFalse(second.isLeader());
+
+      //主动放弃后另一个候选者在一次阻塞查询的往返内接任，而不是等到阻塞查询超时
+      first.close();
+      Awaitility.await().atMost(Duration.ofSeconds(1)).until(() -> !granted.isEmpty());
+      Long secondToken = granted.poll();
+      Assertions.assertTrue(secondToken > firstToken);
+      Assertions.assertEquals("first", revoked.poll());
+      Assertions.assertTrue(second.isLeader());
+    } finally {
+      first.close();
+      second.close();
+    }
+  }
+
+  @Test
+  public void testEventWatcherDispatchesEachNewEventOnce() throws InterruptedException {
+    client.eventFire("cache-invalidate", "before", new EventParams(), QueryParams.DEFAULT);
+    BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    try (ClusterConsulEventWatcher watcher = client.createEventWatcher("cache-invalidate")) {
+      watcher.addListener(event -> received.add(event.getId()));
+      watcher.start();
+      Awaitility.await().atMost(Duration.ofSeconds(5)).until(() -> watcher.getWatermark() >= 0);
+
+      String first = client.eventFire("cache-invalidate", "a", new EventParams(), QueryParams.DEFAULT).getValue()
+          .getId();
+      client.eventFire("other", "x", new EventParams(), QueryParams.DEFAULT);
+      String second = client.eventFire("cache-invalidate", "b", new EventParams(), QueryParams.DEFAULT).getValue()
+          .getId();
+
+      Assertions.assertEquals(first, received.poll(2, TimeUnit.SECONDS));
+      Assertions.assertEquals(second, received.poll(2, TimeUnit.SECONDS));
+      Awaitility.await().during(Duration.ofMillis(300)).atMost(Duration.ofSeconds(1)).until(received::isEmpty);
+    }
+  }
+
+  @Test
+  public void testStaleBackgroundWriteDoesNotClearNewerPendingRepair() {
+    QuorumRegistrar registrar = new QuorumRegistrar(Executors.newCachedThreadPool());
+    List<ConsulClientHolder> clients = client.getConsulClients().subList(0, 2);
+    ConsulClientHolder slow = clients.get(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger newerAttempts = new AtomicInteger();
+
+    //旧写入在慢节点上后台完成之前，新写入已返回
+    registrar.write("service:demo-1", clients, 1, consul -> {
+      if (consul == slow.getClient()) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return null;
+    });
+    registrar.write("service:demo-1", clients, 1, consul -> {
+      if (consul == slow.getClient()) {
+        newerAttempts.incrementAndGet();
+        throw new IllegalStateException("agent down");
+      }
+      return null;
+    });
+
+    //同一节点同一操作串行执行，新写入排在旧写入之后
+    Awaitility.await().during(Duration.ofMillis(200)).atMost(Duration.ofSeconds(1))
+        .until(() -> newerAttempts.get() == 0);
+    release.countDown();
+    Awaitility.await().atMost(Duration.ofSeconds(5))
+        .until(() -> !registrar.getPendingRepairs(slow.getClientId()).isEmpty());
+    Assertions.assertEquals(1, newerAttempts.get());
+    Assertions.assertEquals(Collections.singleton("service:demo-1"), registrar.getPendingRepairs(slow.getClientId()));
+  }
+
+  private static NewService newService(String id) {
+    NewService newService = new NewService();
+    newService.setId(id);
+    newService.setName("demo");
+    return newService;
+  }
+
+  private void awaitPendingRepair(String clientId) {
+    Awaitility.await().atMost(Duration.ofSeconds(5))
+        .until(() -> !client.getQuorumRegistrar().getPendingRepairs(clientId).isEmpty());
+    Assertions.assertEquals(Collections.singleton("service:demo-1"),
+        client.getQuorumRegistrar().getPendingRepairs(clientId));
+  }
+
+  static ClusterConsulClient createClient(FakeConsulCluster cluster) {
+    ClusterConsulProperties properties = new ClusterConsulProperties();
+    properties.setClusterNodes(cluster.getClusterNodes());
+    properties.setClusterClientKey("127.0.0.1");
+    properties.setHealthCheckInterval(60000);
+
+    return new ClusterConsulClient(properties);
+  }
+}
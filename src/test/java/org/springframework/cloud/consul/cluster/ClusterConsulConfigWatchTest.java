@@ -0,0 +1,71 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+/**
+ * 增量刷新consul配置 单元测试(基于进程内伪consul集群)
+ */
+public class ClusterConsulConfigWatchTest {
+
+  private static final String CONTEXT = "config/demo/";
+
+  private FakeConsulCluster cluster;
+
+  private ClusterConsulClient client;
+
+  private ClusterConsulConfigWatch configWatch;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    cluster = new FakeConsulCluster(3);
+    client = ClusterConsulClientTest.createClient(cluster);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    if (configWatch != null) {
+      configWatch.destroy();
+    }
+    client.getConsulClientsExecutor().shutdownNow();
+    cluster.close();
+  }
+
+  @Test
+  public void testDeletedKeyIsRemovedFromEnvironment() {
+    client.setKVValue(CONTEXT + "demo/name", "first");
+    client.setKVValue(CONTEXT + "demo/size", "10");
+
+    //与bootstrap阶段 ConsulPropertySourceLocator 加载的配置源一致
+    StandardEnvironment environment = new StandardEnvironment();
+    Map<String, Object> bootstrapProperties = new HashMap<>();
+    bootstrapProperties.put("demo.name", "first");
+    bootstrapProperties.put("demo.size", "10");
+    environment.getPropertySources().addLast(new MapPropertySource(
+        ClusterConsulConfigWatch.BOOTSTRAP_PROPERTY_SOURCE_NAME, bootstrapProperties));
+
+    configWatch = new ClusterConsulConfigWatch(client, Collections.singletonList(CONTEXT), null, 1, environment,
+        event -> {
+        });
+    configWatch.afterPropertiesSet();
+    Assertions.assertFalse(environment.getPropertySources()
+        .contains(ClusterConsulConfigWatch.BOOTSTRAP_PROPERTY_SOURCE_NAME));
+
+    client.setKVValue(CONTEXT + "demo/name", "second");
+    client.deleteKVValue(CONTEXT + "demo/size");
+
+    Awaitility.await().atMost(Duration.ofSeconds(5)).until(() -> "second".equals(environment.getProperty("demo.name"))
+        && environment.getProperty("demo.size") == null);
+  }
+}
@@ -0,0 +1,159 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.ecwid.consul.v1.agent.model.NewService;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.commons.util.InetUtils;
+import org.springframework.cloud.commons.util.InetUtilsProperties;
+import org.springframework.cloud.consul.discovery.ConsulDiscoveryProperties;
+import reactor.core.Disposable;
+
+/**
+ * ClusterConsulInstanceCache 及 ClusterConsulServiceInstanceListSupplier 单元测试(基于进程内伪consul集群)
+ */
+public class ClusterConsulInstanceCacheTest {
+
+  private FakeConsulCluster cluster;
+
+  private ClusterConsulClient client;
+
+  private ClusterConsulInstanceCache instanceCache;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    cluster = new FakeConsulCluster(3);
+    client = ClusterConsulClientTest.createClient(cluster);
+    ConsulDiscoveryProperties properties = new ConsulDiscoveryProperties(new InetUtils(new InetUtilsProperties()));
+    instanceCache = new ClusterConsulInstanceCache(client, properties, 1);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    instanceCache.destroy();
+    client.getConsulClientsExecutor().shutdownNow();
+    cluster.close();
+  }
+
+  @Test
+  public void testFirstAccessReturnsLoadedInstances() {
+    client.agentServiceRegister(newService("demo-1", 8080));
+
+    List<ServiceInstance> instances = instanceCache.getInstances("demo");
+
+    Assertions.assertEquals(1, instances.size());
+    Assertions.assertEquals(8080, instances.get(0).getPort());
+  }
+
+  @Test
+  public void testSubscriberReceivesCurrentInstancesThenOnlyChanges() throws InterruptedException {
+    client.agentServiceRegister(newService("demo-1", 8080));
+    BlockingQueue<List<ServiceInstance>> emitted = new LinkedBlockingQueue<>();
+    Disposable subscription = new ClusterConsulServiceInstanceListSupplier("demo", instanceCache).get()
+        .subscribe(emitted::add);
+    try {
+      Assertions.assertEquals(1, emitted.poll(5, TimeUnit.SECONDS).size());
+
+      //其他服务的变化不影响该服务的实例集合，不发出
+      client.agentServiceRegister(otherService());
+      Awaitility.await().during(Duration.ofMillis(500)).atMost(Duration.ofSeconds(2)).until(emitted::isEmpty);
+
+      client.agentServiceRegister(newService("demo-2", 8081));
+      Assertions.assertEquals(2, emitted.poll(5, TimeUnit.SECONDS).size());
+    } finally {
+      subscription.dispose();
+    }
+  }
+
+  @Test
+  public void testDisposedSubscriberIsRemoved() throws InterruptedException {
+    client.agentServiceRegister(newService("demo-1", 8080));
+    ClusterConsulServiceInstanceListSupplier supplier = new ClusterConsulServiceInstanceListSupplier("demo",
+        instanceCache);
+    BlockingQueue<List<ServiceInstance>> disposed = new LinkedBlockingQueue<>();
+    BlockingQueue<List<ServiceInstance>> active = new LinkedBlockingQueue<>();
+    Disposable disposedSubscription = supplier.get().subscribe(disposed::add);
+    Disposable activeSubscription = supplier.get().subscribe(active::add);
+    try {
+      Assertions.assertNotNull(disposed.poll(5, TimeUnit.SECONDS));
+      Assertions.assertNotNull(active.poll(5, TimeUnit.SECONDS));
+      disposedSubscription.dispose();
+
+      client.agentServiceRegister(newService("demo-2", 8081));
+
+      Assertions.assertEquals(2, active.poll(5, TimeUnit.SECONDS).size());
+      Assertions.assertTrue(disposed.isEmpty());
+    } finally {
+      activeSubscription.dispose();
+    }
+  }
+
+  @Test
+  public void testSubscribeDoesNotWaitForInitialLoad() throws InterruptedException {
+    client.agentServiceRegister(newService("demo-1", 8080));
+    cluster.getAgents().forEach(FakeConsulAgent::hang);
+    BlockingQueue<List<ServiceInstance>> emitted = new LinkedBlockingQueue<>();
+    Disposable subscription = null;
+    try {
+      //首次加载挂起时订阅仍立即返回
+      subscription = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5),
+          () -> new ClusterConsulServiceInstanceListSupplier("demo", instanceCache).get().subscribe(emitted::add));
+      Assertions.assertTrue(emitted.isEmpty());
+    } finally {
+      cluster.getAgents().forEach(FakeConsulAgent::releaseHang);
+    }
+    try {
+      Assertions.assertEquals(1, emitted.poll(5, TimeUnit.SECONDS).size());
+    } finally {
+      subscription.dispose();
+    }
+  }
+
+  @Test
+  public void testIdleServiceStopsBeingWatched() {
+    client.agentServiceRegister(newService("demo-1", 8080));
+    ConsulDiscoveryProperties properties = new ConsulDiscoveryProperties(new InetUtils(new InetUtilsProperties()));
+    ClusterConsulInstanceCache idleCache = new ClusterConsulInstanceCache(client, properties, 1, 200);
+    try {
+      Assertions.assertEquals(1, idleCache.getInstances("demo").size());
+      Assertions.assertEquals(1, idleCache.getWatchedServiceCount());
+      Awaitility.await().atMost(Duration.ofSeconds(5)).until(() -> idleCache.getWatchedServiceCount() == 0);
+
+      //有监听者的服务不被淘汰
+      idleCache.addListener("demo", instances -> {
+      });
+      Awaitility.await().during(Duration.ofMillis(1500)).atMost(Duration.ofSeconds(3))
+          .until(() -> idleCache.getWatchedServiceCount() == 1);
+      //淘汰后再次访问重新加载
+      Assertions.assertEquals(1, idleCache.getInstances("demo").size());
+    } finally {
+      idleCache.destroy();
+    }
+  }
+
+  private static NewService newService(String id, int port) {
+    NewService newService = new NewService();
+    newService.setId(id);
+    newService.setName("demo");
+    newService.setAddress("10.0.0.1");
+    newService.setPort(port);
+    return newService;
+  }
+
+  private static NewService otherService() {
+    NewService newService = new NewService();
+    newService.setId("other-1");
+    newService.setName("other");
+    return newService;
+  }
+}
@@ -26,4 +26,35 @@ public class ConsulClientUtilTest {
     }
     Assertions.assertEquals(1, chooses.size());
   }
+
+  @Test
+  public void testChooseLocalityClient() {
+    String localIp = "172.16.18.174";
+    List<String[]> clients = Arrays.asList(new String[]{"172.16.94.32", "zone-a"},
+        new String[]{"172.16.94.39", "zone-b"}, new String[]{"172.16.94.40", "zone-b"});
+
+    // 没有本机节点时，选择同可用区节点
+    String[] zoneA = ConsulClientUtil.chooseClient(localIp, clients, client -> tier(client, localIp, "zone-a"));
+    Assertions.assertEquals(ConsulClientUtil.TIER_ZONE, tier(zoneA, localIp, "zone-a"));
+    Assertions.assertEquals("172.16.94.32", zoneA[0]);
+
+    // 本机节点优先于同可用区节点
+    List<String[]> withLocal = Arrays.asList(clients.get(0), clients.get(1), new String[]{"127.0.0.1", null});
+    String[] local = ConsulClientUtil.chooseClient(localIp, withLocal, client -> tier(client, localIp, "zone-a"));
+    Assertions.assertEquals(ConsulClientUtil.TIER_LOCAL, tier(local, localIp, "zone-a"));
+    Assertions.assertEquals("127.0.0.1", local[0]);
+
+    // 同可用区有多个节点时，在组内一致性哈希
+    String[] zoneB = ConsulClientUtil.chooseClient(localIp, clients, client -> tier(client, localIp, "zone-b"));
+    Assertions.assertEquals(ConsulClientUtil.TIER_ZONE, tier(zoneB, localIp, "zone-b"));
+    Assertions.assertSame(ConsulClientUtil.chooseClient(localIp, clients.subList(1, 3)), zoneB);
+
+    // 没有本机及同可用区节点时，在全部远程节点中选择
+    String[] remote = ConsulClientUtil.chooseClient(localIp, clients, client -> tier(client, localIp, "zone-c"));
+    Assertions.assertEquals(ConsulClientUtil.TIER_REMOTE, tier(remote, localIp, "zone-c"));
+  }
+
+  private static int tier(String[] client, String localIp, String localZone) {
+    return ConsulClientUtil.localityTier(client[0], client[1], localIp, localZone);
+  }
 }
@@ -0,0 +1,101 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.health.model.Check;
+import com.ecwid.consul.v1.health.model.Check.CheckStatus;
+import com.ecwid.consul.v1.health.model.HealthService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.commons.util.InetUtils;
+import org.springframework.cloud.commons.util.InetUtilsProperties;
+import org.springframework.cloud.consul.discovery.ConsulDiscoveryProperties;
+import org.springframework.cloud.consul.discovery.ConsulServer;
+
+/**
+ * 自定义ConsulServerList增量刷新 单元测试
+ */
+public class CustomConsulServerListTest {
+
+  private CustomConsulServerList serverList;
+
+  @BeforeEach
+  public void setUp() {
+    ConsulDiscoveryProperties properties = new ConsulDiscoveryProperties(new InetUtils(new InetUtilsProperties()));
+    serverList = new CustomConsulServerList(new ConsulClient("localhost", 8500), properties);
+  }
+
+  @Test
+  public void testUnchangedResponseReturnsTheSameList() {
+    List<ConsulServer> first = serverList.transformResponse(Arrays.asList(
+        healthService("a", 1, CheckStatus.PASSING), healthService("b", 1, CheckStatus.PASSING)));
+
+    List<ConsulServer> second = serverList.transformResponse(Arrays.asList(
+        healthService("a", 1, CheckStatus.PASSING), healthService("b", 1, CheckStatus.PASSING)));
+
+    Assertions.assertSame(first, second);
+  }
+
+  @Test
+  public void testOnlyChangedInstanceIsRebuilt() {
+    List<ConsulServer> first = serverList.transformResponse(Arrays.asList(
+        healthService("a", 1, CheckStatus.PASSING), healthService("b", 1, CheckStatus.PASSING),
+        healthService("c", 1, CheckStatus.PASSING)));
+
+    //b的服务定义变化，c的健康状态变化
+    List<ConsulServer> second = serverList.transformResponse(Arrays.asList(
+        healthService("a", 1, CheckStatus.PASSING), healthService("b", 2, CheckStatus.PASSING),
+        healthService("c", 1, CheckStatus.CRITICAL)));
+
+    Assertions.assertNotSame(first, second);
+    Assertions.assertSame(first.get(0), second.get(0));
+    Assertions.assertNotSame(first.get(1), second.get(1));
+    Assertions.assertNotSame(first.get(2), second.get(2));
+    Assertions.assertFalse(second.get(2).isPassingChecks());
+  }
+
+  @Test
+  public void testReorderIsAChange() {
+    List<ConsulServer> first = serverList.transformResponse(Arrays.asList(
+        healthService("a", 1, CheckStatus.PASSING), healthService("b", 1, CheckStatus.PASSING)));
+
+    List<ConsulServer> second = serverList.transformResponse(Arrays.asList(
+        healthService("b", 1, CheckStatus.PASSING), healthService("a", 1, CheckStatus.PASSING)));
+
+    Assertions.assertNotSame(first, second);
+    //顺序变化不重建 ConsulServer
+    Assertions.assertSame(first.get(0), second.get(1));
+    Assertions.assertSame(first.get(1), second.get(0));
+  }
+
+  private static HealthService healthService(String instanceId, long modifyIndex, CheckStatus status) {
+    HealthService.Node node = new HealthService.Node();
+    node.setNode("agent-0");
+    node.setAddress("10.0.0.1");
+
+    HealthService.Service service = new HealthService.Service();
+    service.setId(instanceId);
+    service.setService("demo");
+    service.setAddress("10.0.1.1");
+    service.setPort(8080);
+    service.setModifyIndex(modifyIndex);
+    service.setTags(Collections.emptyList());
+    service.setMeta(Collections.emptyMap());
+
+    Check check = new Check();
+    check.setNode("agent-0");
+    check.setCheckId("service:" + instanceId);
+    check.setStatus(status);
+
+    HealthService healthService = new HealthService();
+    healthService.setNode(node);
+    healthService.setService(service);
+    healthService.setChecks(Collections.singletonList(check));
+
+    return healthService;
+  }
+}
@@ -0,0 +1,88 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.ecwid.consul.v1.health.model.Check;
+import com.ecwid.consul.v1.health.model.Check.CheckStatus;
+import com.ecwid.consul.v1.health.model.HealthService;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 多点注册结果集去重 单元测试
+ */
+@Slf4j
+public class HealthServiceDeduplicatorTest {
+
+  @Test
+  public void testDeduplicateKeepsFirstOccurrenceOrder() {
+    List<HealthService> healthServices = Arrays.asList(
+        healthService("b", "agent-0", CheckStatus.PASSING),
+        healthService("a", "agent-0", CheckStatus.PASSING),
+        healthService("b", "agent-1", CheckStatus.PASSING),
+        healthService("c", "agent-1", CheckStatus.PASSING),
+        healthService("a", "agent-1", CheckStatus.PASSING));
+
+    List<HealthService> distinct = new HealthServiceDeduplicator(HealthServiceDeduplicator.MergeRule.ANY_PASSING, 2)
+        .deduplicate(healthServices);
+
+    Assertions.assertEquals(Arrays.asList("b", "a", "c"),
+        distinct.stream().map(service -> service.getService().getId()).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testAnyPassingPrefersPassingCopy() {
+    List<HealthService> healthServices = Arrays.asList(
+        healthService("a", "agent-0", CheckStatus.CRITICAL),
+        healthService("a", "agent-1", CheckStatus.CRITICAL),
+        healthService("a", "agent-2", CheckStatus.PASSING));
+
+    HealthService merged = new HealthServiceDeduplicator(HealthServiceDeduplicator.MergeRule.ANY_PASSING, 3)
+        .deduplicate(healthServices).get(0);
+
+    Assertions.assertEquals("agent-2", merged.getNode().getNode());
+    Assertions.assertTrue(HealthServiceDeduplicator.isPassing(merged));
+  }
+
+  @Test
+  public void testMajorityRequiresMostCopiesPassing() {
+    List<HealthService> healthServices = Arrays.asList(
+        healthService("a", "agent-0", CheckStatus.CRITICAL),
+        healthService("a", "agent-1", CheckStatus.CRITICAL),
+        healthService("a", "agent-2", CheckStatus.PASSING),
+        healthService("b", "agent-0", CheckStatus.CRITICAL),
+        healthService("b", "agent-1", CheckStatus.PASSING),
+        healthService("b", "agent-2", CheckStatus.PASSING));
+
+    List<HealthService> distinct = new HealthServiceDeduplicator(HealthServiceDeduplicator.MergeRule.MAJORITY, 3)
+        .deduplicate(healthServices);
+
+    Assertions.assertFalse(HealthServiceDeduplicator.isPassing(distinct.get(0)));
+    Assertions.assertTrue(HealthServiceDeduplicator.isPassing(distinct.get(1)));
+  }
+
+  private static HealthService healthService(String instanceId, String nodeName, CheckStatus status) {
+    HealthService.Node node = new HealthService.Node();
+    node.setNode(nodeName);
+
+    HealthService.Service service = new HealthService.Service();
+    service.setId(instanceId);
+    service.setService("demo");
+
+    Check check = new Check();
+    check.setNode(nodeName);
+    check.setCheckId("service:" + instanceId);
+    check.setStatus(status);
+
+    HealthService healthService = new HealthService();
+    healthService.setNode(node);
+    healthService.setService(service);
+    healthService.setChecks(Collections.singletonList(check));
+
+    return healthService;
+  }
+}
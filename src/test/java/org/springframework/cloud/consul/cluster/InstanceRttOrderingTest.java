@@ -0,0 +1,182 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.ecwid.consul.json.GsonFactory;
+import com.ecwid.consul.v1.ConsulClient;
+import com.ecwid.consul.v1.QueryParams;
+import com.ecwid.consul.v1.Response;
+import com.ecwid.consul.v1.agent.model.Self;
+import com.ecwid.consul.v1.coordinate.model.Node;
+import com.ecwid.consul.v1.health.model.HealthService;
+import com.google.gson.reflect.TypeToken;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 按网络RTT排序实例(InstanceRttOrdering、NodeCoordinateCache) 单元测试
+ */
+public class InstanceRttOrderingTest {
+
+  /**
+   * /v1/coordinate/nodes 的响应: local 与 near 的欧氏距离为0.001，与 far 的欧氏距离为0.005
+   */
+  private static final String COORDINATES = "["
+      + "{\"Node\":\"local\",\"Coord\":{\"Adjustment\":0.00002,\"Error\":0.2,\"Height\":0.0001,"
+      + "\"Vec\":[0.0012,-0.0031,0.0006,0,0,0,0,0]}},"
+      + "{\"Node\":\"far\",\"Coord\":{\"Adjustment\":-0.00001,\"Error\":0.2,\"Height\":0.0002,"
+      + "\"Vec\":[0.0042,0.0009,0.0006,0,0,0,0,0]}},"
+      + "{\"Node\":\"near\",\"Coord\":{\"Adjustment\":0,\"Error\":0.2,\"Height\":0.0001,"
+      + "\"Vec\":[0.0012,-0.0021,0.0006,0,0,0,0,0]}}]";
+
+  /**
+   * /v1/catalog/nodes 的响应: 节点地址
+   */
+  private static final String CATALOG_NODES = "["
+      + "{\"Node\":\"local\",\"Address\":\"10.0.0.1\"},"
+      + "{\"Node\":\"far\",\"Address\":\"10.0.0.2\"},"
+      + "{\"Node\":\"near\",\"Address\":\"10.0.0.3\"}]";
+
+  @Test
+  public void testDistanceMatchesConsulDistanceTo() {
+    List<Node> nodes = nodes();
+    Node.Coord local = nodes.get(0).getCoord();
+    Node.Coord far = nodes.get(1).getCoord();
+
+    //0.005 + 高度(0.0001 + 0.0002) + adjustment(0.00002 - 0.00001)
+    Assertions.assertEquals(0.00531, NodeCoordinateCache.distance(local, far), 1e-12);
+    Assertions.assertEquals(NodeCoordinateCache.distance(local, far), NodeCoordinateCache.distance(far, local), 1e-12);
+
+    //adjustment使结果不为正时忽略adjustment
+    Node.Coord negative = GsonFactory.getGson().fromJson(
+        "{\"Adjustment\":-0.001,\"Height\":0,\"Vec\":[0.0012,-0.0031,0.0006,0,0,0,0,0]}", Node.Coord.class);
+    Node.Coord zero = GsonFactory.getGson().fromJson(
+        "{\"Adjustment\":0,\"Height\":0,\"Vec\":[0.0012,-0.0031,0.0006,0,0,0,0,0]}", Node.Coord.class);
+    Assertions.assertEquals(0, NodeCoordinateCache.distance(negative, zero), 1e-12);
+  }
+
+  @Test
+  public void testSortIsStableWhenCoordinatesAreMissing() {
+    InstanceRttOrdering ordering = coordinatesOrdering();
+
+    List<HealthService> sorted = ordering.sort(Arrays.asList(healthService("x-1", "local", "10.9.0.1"),
+        healthService("f", "local", "10.0.0.2"), healthService("x-2", "local", null),
+        healthService("n", "local", "10.0.0.3"), healthService("x-3", "local", "10.9.0.1")));
+
+    Assertions.assertEquals(Arrays.asList("n", "f", "x-1", "x-2", "x-3"),
+        sorted.stream().map(service -> service.getService().getId()).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testMultiAgentCopiesAreOrderedByInstanceHost() {
+    InstanceRttOrdering ordering = coordinatesOrdering();
+
+    //与多点注册一致: 每个实例在 far、local 两个agent上各有一份副本，far 上的副本在前
+    List<HealthService> healthServices = new ArrayList<>();
+    for (String agent : Arrays.asList("far", "local")) {
+      healthServices.add(healthService("on-far", agent, "10.0.0.2"));
+      healthServices.add(healthService("on-local", agent, "10.0.0.1"));
+      healthServices.add(healthService("on-near", agent, "10.0.0.3"));
+    }
+    List<HealthService> distinct = new HealthServiceDeduplicator(HealthServiceDeduplicator.MergeRule.ANY_PASSING, 2)
+        .deduplicate(healthServices);
+
+    //保留的副本都来自far，排序按实例自身所在的节点而不是注册副本的agent
+    Assertions.assertTrue(distinct.stream().allMatch(service -> "far".equals(service.getNode().getNode())));
+    Assertions.assertEquals(Arrays.asList("on-local", "on-near", "on-far"), ordering.sort(distinct).stream()
+        .map(service -> service.getService().getId()).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testNearAgentQueryParams() {
+    InstanceRttOrdering nearAgent = new InstanceRttOrdering(ClusterConsulProperties.RttOrdering.NEAR_AGENT, null);
+
+    Assertions.assertTrue(nearAgent.createQueryParams(null, -1, -1).toUrlParameters()
+        .contains("near=" + InstanceRttOrdering.NEAR_AGENT));
+    List<String> blocking = nearAgent.createQueryParams("dc2", 10, 5).toUrlParameters();
+    Assertions.assertTrue(blocking.contains("near=" + InstanceRttOrdering.NEAR_AGENT));
+    Assertions.assertTrue(blocking.contains("dc=dc2"));
+    Assertions.assertTrue(blocking.contains("index=5"));
+
+    InstanceRttOrdering none = new InstanceRttOrdering(ClusterConsulProperties.RttOrdering.NONE, null);
+    Assertions.assertSame(QueryParams.DEFAULT, none.createQueryParams(null, -1, -1));
+    //没有坐标缓存时 COORDINATES 退化为不排序
+    List<HealthService> healthServices = Arrays.asList(healthService("b", "far", "10.0.0.2"),
+        healthService("a", "near", "10.0.0.3"));
+    Assertions.assertSame(healthServices,
+        new InstanceRttOrdering(ClusterConsulProperties.RttOrdering.COORDINATES, null).sort(healthServices));
+  }
+
+  @Test
+  public void testNearAgentIsDisabledForMultiAgentRegistration() {
+    ClusterConsulProperties properties = new ClusterConsulProperties();
+    properties.setRttOrdering(ClusterConsulProperties.RttOrdering.NEAR_AGENT);
+    properties.setClusterNodes(Collections.singletonList("10.0.0.1:8500"));
+    Assertions.assertEquals(ClusterConsulProperties.RttOrdering.NEAR_AGENT,
+        InstanceRttOrdering.effectiveMode(properties));
+
+    properties.setClusterNodes(Arrays.asList("10.0.0.1:8500", "10.0.0.2:8500"));
+    Assertions.assertEquals(ClusterConsulProperties.RttOrdering.NONE, InstanceRttOrdering.effectiveMode(properties));
+    properties.setRttOrdering(ClusterConsulProperties.RttOrdering.COORDINATES);
+    Assertions.assertEquals(ClusterConsulProperties.RttOrdering.COORDINATES,
+        InstanceRttOrdering.effectiveMode(properties));
+  }
+
+  private static InstanceRttOrdering coordinatesOrdering() {
+    NodeCoordinateCache coordinateCache = new NodeCoordinateCache(coordinateClient());
+    coordinateCache.refresh();
+    return new InstanceRttOrdering(ClusterConsulProperties.RttOrdering.COORDINATES, coordinateCache);
+  }
+
+  private static List<Node> nodes() {
+    return GsonFactory.getGson().fromJson(COORDINATES, new TypeToken<List<Node>>() {
+    }.getType());
+  }
+
+  private static ConsulClient coordinateClient() {
+    return new ConsulClient("localhost", 8500) {
+      @Override
+      public Response<Self> getAgentSelf() {
+        return new Response<>(GsonFactory.getGson().fromJson("{\"Config\":{\"NodeName\":\"local\"}}", Self.class),
+            null, null, null);
+      }
+
+      @Override
+      public Response<List<Node>> getNodes(QueryParams queryParams) {
+        return new Response<>(nodes(), null, null, null);
+      }
+
+      @Override
+      public Response<List<com.ecwid.consul.v1.catalog.model.Node>> getCatalogNodes(QueryParams queryParams) {
+        return new Response<>(GsonFactory.getGson().fromJson(CATALOG_NODES,
+            new TypeToken<List<com.ecwid.consul.v1.catalog.model.Node>>() {
+            }.getType()), null, null, null);
+      }
+    };
+  }
+
+  /**
+   * @param agent - 注册该副本的agent
+   * @param address - 实例自身的地址
+   */
+  private static HealthService healthService(String instanceId, String agent, String address) {
+    HealthService.Node node = new HealthService.Node();
+    node.setNode(agent);
+
+    HealthService.Service service = new HealthService.Service();
+    service.setId(instanceId);
+    service.setService("demo");
+    service.setAddress(address);
+
+    HealthService healthService = new HealthService();
+    healthService.setNode(node);
+    healthService.setService(service);
+    healthService.setChecks(Collections.emptyList());
+
+    return healthService;
+  }
+}
@@ -0,0 +1,61 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * KV二进制值编解码 单元测试
+ */
+public class KVValueCodecTest {
+
+  private static final byte[] LARGE_VALUE = StringUtils.repeat("routes:\n  - path: /api/demo\n", 2000)
+      .getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void testLargeValueRoundTrips() {
+    for (ClusterConsulProperties.KvCompression compression : ClusterConsulProperties.KvCompression.values()) {
+      KVValueCodec codec = new KVValueCodec(compression, 1024);
+      byte[] encoded = codec.encode(LARGE_VALUE);
+
+      Assertions.assertTrue(encoded.length < LARGE_VALUE.length / 10, compression.name());
+      Assertions.assertArrayEquals(LARGE_VALUE, codec.decode(encoded), compression.name());
+    }
+  }
+
+  @Test
+  public void testSmallAndUncompressedValuesPassThrough() {
+    KVValueCodec codec = new KVValueCodec(ClusterConsulProperties.KvCompression.GZIP, 1024);
+    byte[] small = "small".getBytes(StandardCharsets.UTF_8);
+
+    Assertions.assertSame(small, codec.encode(small));
+    Assertions.assertSame(LARGE_VALUE, codec.decode(LARGE_VALUE));
+    //关闭压缩的读取方仍可读取压缩过的值
+    Assertions.assertArrayEquals(LARGE_VALUE,
+        new KVValueCodec(ClusterConsulProperties.KvCompression.GZIP, 0).decode(codec.encode(LARGE_VALUE)));
+  }
+
+  @Test
+  public void testCorruptLengthHeaderIsNotTrusted() {
+    KVValueCodec codec = new KVValueCodec(ClusterConsulProperties.KvCompression.GZIP, 1024);
+    for (int length : new int[]{-1, Integer.MAX_VALUE}) {
+      byte[] encoded = codec.encode(LARGE_VALUE);
+      ByteBuffer.wrap(encoded, 5, 4).putInt(length);
+
+      Assertions.assertSame(encoded, codec.decode(encoded), String.valueOf(length));
+    }
+  }
+
+  @Test
+  public void testDecompressionStopsAtHeaderLength() {
+    KVValueCodec codec = new KVValueCodec(ClusterConsulProperties.KvCompression.GZIP, 1024);
+    byte[] encoded = codec.encode(LARGE_VALUE);
+    //头部声明的长度小于实际解压后的长度(例如压缩炸弹)，超出后即停止解压
+    ByteBuffer.wrap(encoded, 5, 4).putInt(16);
+
+    Assertions.assertSame(encoded, codec.decode(encoded));
+  }
+}
@@ -0,0 +1,138 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * KV写缓冲 单元测试
+ */
+public class KVWriteBufferTest {
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @AfterEach
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void testRejectedWriteIsDroppedAndTheRestRetried() {
+    AtomicInteger calls = new AtomicInteger();
+    KVWriteBuffer buffer = createBuffer((txn, token) -> {
+      KVTxnResponse response = new KVTxnResponse();
+      if (calls.getAndIncrement() == 0) {
+        response.addError(new KVTxnResponse.TxnError(1, "Permission denied"));
+      } else {
+        response.addResults(Collections.emptyList(), txn.getOperations().size());
+      }
+      return response;
+    });
+    buffer.write("a", bytes("a"), null);
+    buffer.write("denied", bytes("denied"), null);
+    buffer.write("c", bytes("c"), null);
+
+    Assertions.assertEquals(0, buffer.flush());
+    Assertions.assertEquals(2, buffer.size());
+    Assertions.assertEquals(2, buffer.flush());
+    Assertions.assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void testOnlyTheFailedChunkIsRequeued() {
+    List<Integer> chunkSizes = new ArrayList<>();
+    KVWriteBuffer buffer = createBuffer((txn, token) -> {
+      chunkSizes.add(txn.getOperations().size());
+      if (chunkSizes.size() == 2) {
+        throw new IllegalStateException("agent down");
+      }
+      KVTxnResponse response = new KVTxnResponse();
+      response.addResults(Collections.emptyList(), txn.getOperations().size());
+      return response;
+    });
+    for (int i = 0; i < 100; i++) {
+      buffer.write("key" + i, bytes("value" + i), null);
+    }
+
+    Assertions.assertEquals(KVTxn.MAX_OPERATIONS, buffer.flush());
+    Assertions.assertEquals(100 - KVTxn.MAX_OPERATIONS, buffer.size());
+  }
+
+  @Test
+  public void testWriteDiscardedDuringFlushIsNotRequeued() {
+    List<KVWriteBuffer> holder = new ArrayList<>();
+    KVWriteBuffer buffer = createBuffer((txn, token) -> {
+      //提交期间绕过缓冲直接写入了该key
+      holder.get(0).discard("key");
+      throw new IllegalStateException("agent down");
+    });
+    holder.add(buffer);
+    buffer.write("key", bytes("stale"), null);
+
+    Assertions.assertEquals(0, buffer.flush());
+    Assertions.assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void testDiscardWaitsForTheChunkInFlight() throws InterruptedException {
+    CountDownLatch sent = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<List<String>> sentKeys = new CopyOnWriteArrayList<>();
+    KVWriteBuffer buffer = createBuffer((txn, token) -> {
+      sentKeys.add(txn.getOperations().stream().map(KVTxn.Operation::getKey).collect(Collectors.toList()));
+      sent.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      KVTxnResponse response = new KVTxnResponse();
+      response.addResults(Collections.emptyList(), txn.getOperations().size());
+      return response;
+    });
+    for (int i = 0; i < KVTxn.MAX_OPERATIONS + 1; i++) {
+      buffer.write("key" + i, bytes("value" + i), null);
+    }
+
+    CompletableFuture<Integer> flush = CompletableFuture.supplyAsync(buffer::flush);
+    Assertions.assertTrue(sent.await(5, TimeUnit.SECONDS));
+    //key0所在的事务已发出，直接写入前等待其结束，旧值不会在直接写入之后落地
+    CompletableFuture<Void> discardSent = CompletableFuture.runAsync(() -> buffer.discard("key0"));
+    Awaitility.await().during(Duration.ofMillis(200)).atMost(Duration.ofSeconds(1))
+        .until(() -> !discardSent.isDone());
+    //第二个事务尚未发出，其中的写入直接移除，不必等待
+    buffer.discard("key" + KVTxn.MAX_OPERATIONS);
+
+    release.countDown();
+    Awaitility.await().atMost(Duration.ofSeconds(5)).until(discardSent::isDone);
+    Assertions.assertEquals(KVTxn.MAX_OPERATIONS, (int) flush.join());
+    //第二个事务只剩被丢弃的写入，不再发出
+    Assertions.assertEquals(1, sentKeys.size());
+    Assertions.assertTrue(sentKeys.get(0).contains("key0"));
+    Assertions.assertEquals(0, buffer.size());
+  }
+
+  private KVWriteBuffer createBuffer(BiFunction<KVTxn, String, KVTxnResponse> txnExecutor) {
+    return new KVWriteBuffer(txnExecutor, scheduler, 60000);
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,34 @@
+package org.springframework.cloud.consul.cluster;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 重试预算 单元测试
+ */
+public class RetryBudgetTest {
+
+  @Test
+  public void testBurstIsCappedByMaxTokens() {
+    RetryBudget budget = new RetryBudget(0.1, 3);
+    Assertions.assertTrue(budget.tryWithdraw());
+    Assertions.assertTrue(budget.tryWithdraw());
+    Assertions.assertTrue(budget.tryWithdraw());
+    Assertions.assertFalse(budget.tryWithdraw());
+  }
+
+  @Test
+  public void testRetriesAreLimitedToRatioOfRequests() {
+    RetryBudget budget = new RetryBudget(0.1, 1);
+    Assertions.assertTrue(budget.tryWithdraw());
+
+    int retries = 0;
+    for (int i = 0; i < 1000; i++) {
+      budget.deposit();
+      if (budget.tryWithdraw()) {
+        retries++;
+      }
+    }
+    Assertions.assertEquals(100, retries);
+  }
+}
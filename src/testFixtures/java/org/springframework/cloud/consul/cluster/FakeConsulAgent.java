@@ -0,0 +1,902 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 进程内的伪consul agent, 基于JDK自带的HttpServer
+ *
+ * 实现了本starter用到的接口(status, catalog, health, kv, agent service/check, session, event)，
+ * 并且可以按实例编排故障: 延迟、错误码、挂起、停止/恢复以及阻塞查询的索引行为。
+ *
+ * 多个agent通过 FakeConsulCluster 组成集群。
+ */
+@Slf4j
+public class FakeConsulAgent implements AutoCloseable {
+
+  private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+
+  private static final long DEFAULT_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  /**
+   * 阻塞查询的索引行为
+   */
+  public enum BlockingIndexMode {
+    /**
+     * 与consul一致: 等待索引变化或超时
+     */
+    NORMAL,
+    /**
+     * 忽略index参数立即返回
+     */
+    RETURN_IMMEDIATELY,
+    /**
+     * 立即返回且X-Consul-Index回退为1(模拟server重建快照后索引变小)
+     */
+    RESET_INDEX
+  }
+
+  private final FakeConsulCluster cluster;
+
+  @Getter
+  private final String nodeName;
+
+  @Getter
+  private final int port;
+
+  private HttpServer server;
+
+  private ExecutorService executor;
+
+  @Getter
+  private volatile boolean running;
+
+  /**
+   * 每个请求的附加延迟(毫秒)
+   */
+  @Getter
+  @Setter
+  private volatile long latencyMillis;
+
+  /**
+   * 大于0时所有请求都返回该状态码
+   */
+  @Getter
+  @Setter
+  private volatile int errorStatus;
+
+  @Getter
+  @Setter
+  private volatile BlockingIndexMode blockingIndexMode = BlockingIndexMode.NORMAL;
+
+  private final AtomicInteger failNextCount = new AtomicInteger();
+
+  private volatile int failNextStatus = 500;
+
+  private volatile CountDownLatch hangLatch;
+
+  private final AtomicLong requestCount = new AtomicLong();
+
+  private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+
+  /**
+   * 本agent上注册的服务与检查, 由cluster的监视器保护
+   */
+  private final Map<String, RegisteredService> services = new LinkedHashMap<>();
+
+  private final Map<String, LocalCheck> checks = new LinkedHashMap<>();
+
+  FakeConsulAgent(FakeConsulCluster cluster, String nodeName) throws IOException {
+    this.cluster = cluster;
+    this.nodeName = nodeName;
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    this.port = this.server.getAddress().getPort();
+    startServer();
+  }
+
+  public String getConnect() {
+    return "127.0.0.1" + CommonConstant.SEPARATOR_COLON + port;
+  }
+
+  /**
+   * 停止agent: 端口不再监听, 挂起中的请求被中断
+   */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    releaseHang();
+    server.stop(0);
+    executor.shutdownNow();
+    cluster.agentStopped(nodeName);
+    log.info(CommonConstant.LOG_PREFIX + ">>> fake consul agent {} stopped <<<", getConnect());
+  }
+
+  /**
+   * 在原端口上恢复agent, 注册信息保留(与consul agent重启后从本地状态恢复一致)
+   */
+  public synchronized void start() throws IOException {
+    if (running) {
+      return;
+    }
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+    startServer();
+    log.info(CommonConstant.LOG_PREFIX + ">>> fake consul agent {} started <<<", getConnect());
+  }
+
+  /**
+   * 模拟agent重启后丢失了所有注册信息
+   */
+  public void forgetRegistrations() {
+    synchronized (cluster) {
+      services.clear();
+      checks.clear();
+      cluster.nextIndex();
+    }
+  }
+
+  /**
+   * 接下来的count个请求返回status
+   */
+  public void failNext(int count, int status) {
+    this.failNextStatus = status;
+    this.failNextCount.set(count);
+  }
+
+  /**
+   * 之后的请求全部挂起, 直到 releaseHang() 或 stop()
+   */
+  public void hang() {
+    this.hangLatch = new CountDownLatch(1);
+  }
+
+  public void releaseHang() {
+    CountDownLatch latch = this.hangLatch;
+    this.hangLatch = null;
+    if (latch != null) {
+      latch.countDown();
+    }
+  }
+
+  /**
+   * 清除所有故障编排
+   */
+  public void heal() {
+    this.latencyMillis = 0;
+    this.errorStatus = 0;
+    this.failNextCount.set(0);
+    this.blockingIndexMode = BlockingIndexMode.NORMAL;
+    releaseHang();
+  }
+
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * 以路径前缀统计的请求数, 例如 "/v1/agent/service/register"
+   */
+  public long getRequestCount(String pathPrefix) {
+    return requestCounts.entrySet().stream().filter(entry -> entry.getKey().startsWith(pathPrefix))
+        .mapToLong(entry -> entry.getValue().get()).sum();
+  }
+
+  public Map<String, RegisteredService> getServices() {
+    synchronized (cluster) {
+      return new LinkedHashMap<>(services);
+    }
+  }
+
+  @Override
+  public void close() {
+    stop();
+  }
+
+  private void startServer() {
+    this.executor = Executors.newCachedThreadPool();
+    this.server.createContext("/", this::handle);
+    this.server.setExecutor(executor);
+    this.server.start();
+    this.running = true;
+  }
+
+  /**
+   * 处理一个HTTP请求: 先执行故障脚本，未被故障接管时再按路径分发
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String path = exchange.getRequestURI().getPath();
+      requestCount.incrementAndGet();
+      requestCounts.computeIfAbsent(path, key -> new AtomicLong()).incrementAndGet();
+
+      if (!applyFaults(exchange)) {
+        Request request = new Request(exchange);
+        route(request);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      log.warn(CommonConstant.LOG_PREFIX + ">>> fake consul agent {} failed: {} <<<", nodeName, e.getMessage());
+      respondText(exchange, 500, String.valueOf(e.getMessage()), cluster.currentIndex());
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * @return 已经以故障响应时返回true
+   */
+  private boolean applyFaults(HttpExchange exchange) throws IOException, InterruptedException {
+    CountDownLatch latch = this.hangLatch;
+    if (latch != null) {
+      latch.await();
+    }
+    if (latencyMillis > 0) {
+      Thread.sleep(latencyMillis);
+    }
+    if (failNextCount.getAndUpdate(count -> count > 0 ? count - 1 : 0) > 0) {
+      respondText(exchange, failNextStatus, "scripted failure", cluster.currentIndex());
+      return true;
+    }
+    if (errorStatus > 0) {
+      respondText(exchange, errorStatus, "scripted failure", cluster.currentIndex());
+      return true;
+    }
+
+    return false;
+  }
+
+  private void route(Request request) throws IOException {
+    String path = request.path;
+    if (path.startsWith("/v1/kv/")) {
+      handleKv(request, path.substring("/v1/kv/".length()));
+    } else if (path.startsWith("/v1/health/service/")) {
+      handleHealthService(request, path.substring("/v1/health/service/".length()));
+    } else if (path.startsWith("/v1/catalog/")) {
+      handleCatalog(request, path.substring("/v1/catalog/".length()));
+    } else if (path.startsWith("/v1/agent/")) {
+      handleAgent(request, path.substring("/v1/agent/".length()));
+    } else if (path.startsWith("/v1/session/")) {
+      handleSession(request, path.substring("/v1/session/".length()));
+    } else if (path.startsWith("/v1/event/")) {
+      handleEvent(request, path.substring("/v1/event/".length()));
+    } else if (path.startsWith("/v1/query/")) {
+      handleQuery(request, path.substring("/v1/query/".length()));
+    } else if ("/v1/txn".equals(path)) {
+      handleTxn(request);
+    } else if ("/v1/status/leader".equals(path)) {
+      request.json(200, "127.0.0.1:8300", cluster.currentIndex());
+    } else if ("/v1/status/peers".equals(path)) {
+      request.json(200, Collections.singletonList("127.0.0.1:8300"), cluster.currentIndex());
+    } else {
+      request.text(404, "Not found: " + path, cluster.currentIndex());
+    }
+  }
+
+  /**
+   * /v1/kv/{key} 的读取、写入及删除
+   */
+  private void handleKv(Request request, String key) throws IOException {
+    switch (request.method) {
+      case "GET":
+        boolean keysOnly = request.params.containsKey("keys");
+        boolean recurse = keysOnly || request.params.containsKey("recurse");
+        long index = block(request, () -> cluster.kvIndex(key, recurse));
+        if (keysOnly) {
+          List<String> keys = listKeys(key, request.params.get("separator"));
+          request.json(keys.isEmpty() ? 404 : 200, keys.isEmpty() ? null : keys, index);
+        } else if (recurse) {
+          List<Map<String, Object>> entries = cluster.getKvPrefix(key).stream()
+              .map(FakeConsulCluster.KvEntry::toJson).collect(Collectors.toList());
+          request.json(entries.isEmpty() ? 404 : 200, entries.isEmpty() ? null : entries, index);
+        } else {
+          FakeConsulCluster.KvEntry entry = cluster.getKv(key);
+          request.json(entry == null ? 404 : 200,
+              entry == null ? null : Collections.singletonList(entry.toJson()), index);
+        }
+        break;
+      case "PUT":
+        boolean result = cluster.putKv(key, request.body, request.longParam("flags"), request.longParam("cas"),
+            request.params.get("acquire"), request.params.get("release"));
+        request.json(200, result, cluster.currentIndex());
+        break;
+      case "DELETE":
+        boolean deleted = cluster.deleteKv(key, request.params.containsKey("recurse"), request.longParam("cas"));
+        request.json(200, deleted, cluster.currentIndex());
+        break;
+      default:
+        request.text(405, "method not allowed", cluster.currentIndex());
+    }
+  }
+
+  private void handleTxn(Request request) throws IOException {
+    List<Map<String, Object>> operations = GSON.fromJson(new String(request.body, StandardCharsets.UTF_8),
+        new TypeToken<List<Map<String, Object>>>() {
+        }.getType());
+    if (operations.size() > 64) {
+      request.text(413, "Transaction contains too many operations (" + operations.size() + " > 64)",
+          cluster.currentIndex());
+      return;
+    }
+
+    Map<String, Object> response = cluster.txn(operations);
+    request.json(response.get("Errors") == null ? 200 : 409, response, cluster.currentIndex());
+  }
+
+  private List<String> listKeys(String prefix, String separator) {
+    List<String> keys = new ArrayList<>();
+    for (FakeConsulCluster.KvEntry entry : cluster.getKvPrefix(prefix)) {
+      String key = entry.key;
+      if (separator != null && !separator.isEmpty()) {
+        int separatorIndex = key.indexOf(separator, prefix.length());
+        if (separatorIndex >= 0) {
+          key = key.substring(0, separatorIndex + separator.length());
+        }
+      }
+      if (keys.isEmpty() || !keys.get(keys.size() - 1).equals(key)) {
+        keys.add(key);
+      }
+    }
+
+    return keys;
+  }
+
+  /**
+   * /v1/health/service/{service}
+   */
+  private void handleHealthService(Request request, String serviceName) throws IOException {
+    long index = block(request, cluster::currentIndex);
+    request.json(200, healthEntries(serviceName, request.params.get("tag"), request.params.containsKey("passing")),
+        index);
+  }
+
+  private List<Map<String, Object>> healthEntries(String serviceName, String tag, boolean passing) {
+    List<Map<String, Object>> entries = new ArrayList<>();
+    synchronized (cluster) {
+      for (RegisteredService service : cluster.registeredServices()) {
+        if (!service.name.equals(serviceName) || (tag != null && !service.tags.contains(tag))) {
+          continue;
+        }
+        List<Map<String, Object>> serviceChecks = service.agent.healthChecks(service.id);
+        boolean allPassing = serviceChecks.stream().allMatch(check -> "passing".equals(check.get("Status")));
+        if (passing && !allPassing) {
+          continue;
+        }
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("Node", service.agent.nodeJson());
+        entry.put("Service", service.toJson());
+        entry.put("Checks", serviceChecks);
+        entries.add(entry);
+      }
+    }
+
+    return entries;
+  }
+
+  /**
+   * /v1/query/{id}/execute
+   */
+  private void handleQuery(Request request, String endpoint) throws IOException {
+    String[] parts = endpoint.split(CommonConstant.SEPARATOR_VIRGULE, 2);
+    Map<String, Object> query = cluster.getPreparedQuery(parts[0]);
+    if (query == null || parts.length < 2 || !"execute".equals(parts[1])) {
+      request.text(404, "Not found: " + endpoint, cluster.currentIndex());
+      return;
+    }
+
+    String serviceName = (String) query.get("Service");
+    Map<String, Object> dns = new LinkedHashMap<>();
+    dns.put("TTL", query.get("DnsTtl"));
+    Map<String, Object> execution = new LinkedHashMap<>();
+    execution.put("Service", serviceName);
+    execution.put("Nodes", healthEntries(serviceName, null, false));
+    execution.put("DNS", dns);
+    execution.put("Datacenter", FakeConsulCluster.DATACENTER);
+    execution.put("Failovers", 0);
+    request.json(200, execution, cluster.currentIndex());
+  }
+
+  private void handleCatalog(Request request, String endpoint) throws IOException {
+    long index = block(request, cluster::currentIndex);
+    if ("services".equals(endpoint)) {
+      request.json(200, cluster.catalogServices(), index);
+    } else if ("datacenters".equals(endpoint)) {
+      request.json(200, Collections.singletonList(FakeConsulCluster.DATACENTER), index);
+    } else if ("nodes".equals(endpoint)) {
+      List<Map<String, Object>> nodes = cluster.getAgents().stream().filter(FakeConsulAgent::isRunning)
+          .map(FakeConsulAgent::nodeJson).collect(Collectors.toList());
+      request.json(200, nodes, index);
+    } else if (endpoint.startsWith("service/")) {
+      String serviceName = endpoint.substring("service/".length());
+      List<Map<String, Object>> entries = new ArrayList<>();
+      for (RegisteredService service : cluster.registeredServices()) {
+        if (service.name.equals(serviceName)) {
+          entries.add(service.toCatalogJson());
+        }
+      }
+      request.json(200, entries, index);
+    } else {
+      request.text(404, "Not found: " + endpoint, index);
+    }
+  }
+
+  /**
+   * /v1/agent/* 的服务、检查及维护模式
+   */
+  private void handleAgent(Request request, String endpoint) throws IOException {
+    if ("services".equals(endpoint)) {
+      Map<String, Object> result = new LinkedHashMap<>();
+      synchronized (cluster) {
+        services.values().forEach(service -> result.put(service.id, service.toAgentJson()));
+      }
+      request.json(200, result, cluster.currentIndex());
+    } else if ("checks".equals(endpoint)) {
+      Map<String, Object> result = new LinkedHashMap<>();
+      synchronized (cluster) {
+        checks.values().forEach(check -> result.put(check.id, check.toJson()));
+      }
+      request.json(200, result, cluster.currentIndex());
+    } else if ("members".equals(endpoint)) {
+      request.json(200, cluster.getAgents().stream().map(FakeConsulAgent::memberJson)
+          .collect(Collectors.toList()), cluster.currentIndex());
+    } else if ("self".equals(endpoint)) {
+      Map<String, Object> config = new LinkedHashMap<>();
+      config.put("Datacenter", FakeConsulCluster.DATACENTER);
+      config.put("NodeName", nodeName);
+      config.put("Server", false);
+      config.put("Version", "1.7.2");
+      Map<String, Object> self = new LinkedHashMap<>();
+      self.put("Config", config);
+      self.put("Member", memberJson());
+      request.json(200, self, cluster.currentIndex());
+    } else if ("service/register".equals(endpoint)) {
+      registerService(request.jsonBody());
+      request.text(200, "", cluster.currentIndex());
+    } else if (endpoint.startsWith("service/deregister/")) {
+      deregisterService(endpoint.substring("service/deregister/".length()));
+      request.text(200, "", cluster.currentIndex());
+    } else if (endpoint.startsWith("service/maintenance/")) {
+      String serviceId = endpoint.substring("service/maintenance/".length());
+      setMaintenance(serviceId, Boolean.parseBoolean(request.params.get("enable")), request.params.get("reason"));
+      request.text(200, "", cluster.currentIndex());
+    } else if ("check/register".equals(endpoint)) {
+      registerCheck(request.jsonBody());
+      request.text(200, "", cluster.currentIndex());
+    } else if (endpoint.startsWith("check/deregister/")) {
+      synchronized (cluster) {
+        checks.remove(endpoint.substring("check/deregister/".length()));
+        cluster.nextIndex();
+      }
+      request.text(200, "", cluster.currentIndex());
+    } else if (endpoint.startsWith("check/pass/") || endpoint.startsWith("check/warn/")
+        || endpoint.startsWith("check/fail/")) {
+      String[] parts = endpoint.split(CommonConstant.SEPARATOR_VIRGULE, 3);
+      String status = "pass".equals(parts[1]) ? "passing" : "warn".equals(parts[1]) ? "warning" : "critical";
+      boolean updated = updateCheck(parts[2], status, request.params.get("note"));
+      request.text(updated ? 200 : 500, updated ? "" : "Unknown check \"" + parts[2] + "\"", cluster.currentIndex());
+    } else if ("reload".equals(endpoint)) {
+      request.text(200, "", cluster.currentIndex());
+    } else {
+      request.text(404, "Not found: " + endpoint, cluster.currentIndex());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void registerService(Map<String, Object> json) {
+    String name = (String) json.get("Name");
+    String id = json.get("ID") != null ? (String) json.get("ID") : name;
+    synchronized (cluster) {
+      RegisteredService existing = services.get(id);
+      RegisteredService service = new RegisteredService(this, id, name);
+      service.tags = json.get("Tags") != null ? (List<String>) json.get("Tags") : Collections.emptyList();
+      service.address = json.get("Address") != null ? (String) json.get("Address") : "";
+      service.port = json.get("Port") != null ? ((Number) json.get("Port")).intValue() : 0;
+      service.meta = json.get("Meta") != null ? (Map<String, String>) json.get("Meta") : Collections.emptyMap();
+      long index = cluster.nextIndex();
+      service.createIndex = existing != null ? existing.createIndex : index;
+      service.modifyIndex = index;
+      services.put(id, service);
+
+      List<Map<String, Object>> serviceChecks = new ArrayList<>();
+      if (json.get("Check") instanceof Map) {
+        serviceChecks.add((Map<String, Object>) json.get("Check"));
+      }
+      if (json.get("Checks") instanceof List) {
+        serviceChecks.addAll((List<Map<String, Object>>) json.get("Checks"));
+      }
+      checks.values().removeIf(check -> id.equals(check.serviceId) && !check.id.startsWith("_service_maintenance"));
+      for (int i = 0; i < serviceChecks.size(); i++) {
+        Map<String, Object> checkJson = serviceChecks.get(i);
+        String checkId = checkJson.get("CheckID") != null ? (String) checkJson.get("CheckID")
+            : "service:" + id + (serviceChecks.size() > 1 ? ":" + (i + 1) : "");
+        LocalCheck check = new LocalCheck(checkId, "Service '" + name + "' check", id, name);
+        check.status = initialStatus(checkJson);
+        checks.put(checkId, check);
+      }
+    }
+  }
+
+  private void deregisterService(String serviceId) {
+    synchronized (cluster) {
+      services.remove(serviceId);
+      checks.values().removeIf(check -> serviceId.equals(check.serviceId));
+      cluster.nextIndex();
+    }
+  }
+
+  private void setMaintenance(String serviceId, boolean enable, String reason) {
+    synchronized (cluster) {
+      RegisteredService service = services.get(serviceId);
+      String checkId = "_service_maintenance:" + serviceId;
+      if (enable && service != null) {
+        LocalCheck check = new LocalCheck(checkId, "Service Maintenance Mode", serviceId, service.name);
+        check.status = "critical";
+        check.notes = reason;
+        checks.put(checkId, check);
+      } else {
+        checks.remove(checkId);
+      }
+      cluster.nextIndex();
+    }
+  }
+
+  private void registerCheck(Map<String, Object> json) {
+    String name = (String) json.get("Name");
+    String id = json.get("ID") != null ? (String) json.get("ID") : name;
+    String serviceId = (String) json.get("ServiceID");
+    synchronized (cluster) {
+      RegisteredService service = serviceId != null ? services.get(serviceId) : null;
+      LocalCheck check = new LocalCheck(id, name, serviceId, service != null ? service.name : "");
+      check.status = initialStatus(json);
+      checks.put(id, check);
+      cluster.nextIndex();
+    }
+  }
+
+  private boolean updateCheck(String checkId, String status, String note) {
+    synchronized (cluster) {
+      LocalCheck check = checks.get(checkId);
+      if (check == null) {
+        return false;
+      }
+      if (!status.equals(check.status)) {
+        check.status = status;
+        cluster.nextIndex();
+      }
+      check.output = note;
+      return true;
+    }
+  }
+
+  private static String initialStatus(Map<String, Object> checkJson) {
+    if (checkJson.get("Status") != null) {
+      return (String) checkJson.get("Status");
+    }
+    return checkJson.get("TTL") != null ? "critical" : "passing";
+  }
+
+  /**
+   * 某个服务实例在本节点上的健康检查(含serfHealth)
+   */
+  private List<Map<String, Object>> healthChecks(String serviceId) {
+    List<Map<String, Object>> result = new ArrayList<>();
+    Map<String, Object> serf = new LocalCheck("serfHealth", "Serf Health Status", "", "").toJson();
+    serf.put("Status", "passing");
+    result.add(serf);
+    checks.values().stream().filter(check -> serviceId.equals(check.serviceId))
+        .forEach(check -> result.add(check.toJson()));
+
+    return result;
+  }
+
+  List<RegisteredService> localServices() {
+    return new ArrayList<>(services.values());
+  }
+
+  Map<String, Object> nodeJson() {
+    Map<String, Object> node = new LinkedHashMap<>();
+    node.put("ID", "");
+    node.put("Node", nodeName);
+    node.put("Address", "127.0.0.1");
+    node.put("Datacenter", FakeConsulCluster.DATACENTER);
+    node.put("TaggedAddresses", Collections.singletonMap("lan", "127.0.0.1"));
+    //与在agent上配置了 node_meta { http_port = "..." } 一致，供自动发现使用
+    node.put("Meta", Collections.singletonMap(AgentDiscovery.HTTP_PORT_META, String.valueOf(port)));
+
+    return node;
+  }
+
+  Map<String, Object> memberJson() {
+    Map<String, Object> tags = new LinkedHashMap<>();
+    tags.put("role", "node");
+    tags.put("dc", FakeConsulCluster.DATACENTER);
+    Map<String, Object> member = new LinkedHashMap<>();
+    member.put("Name", nodeName);
+    member.put("Addr", "127.0.0.1");
+    member.put("Port", 8301);
+    member.put("Tags", tags);
+    member.put("Status", running ? 1 : 4);
+
+    return member;
+  }
+
+  /**
+   * /v1/session/* 的创建、销毁、续约及查询
+   */
+  private void handleSession(Request request, String endpoint) throws IOException {
+    if ("create".equals(endpoint)) {
+      Map<String, Object> json = request.body.length == 0 ? new LinkedHashMap<>() : request.jsonBody();
+      request.json(200, cluster.createSession(nodeName, json), cluster.currentIndex());
+    } else if (endpoint.startsWith("destroy/")) {
+      cluster.destroySession(endpoint.substring("destroy/".length()));
+      request.json(200, true, cluster.currentIndex());
+    } else if (endpoint.startsWith("renew/")) {
+      Map<String, Object> session = cluster.renewSession(endpoint.substring("renew/".length()));
+      if (session == null) {
+        request.text(404, "Session id '" + endpoint.substring("renew/".length()) + "' not found", cluster.currentIndex());
+      } else {
+        request.json(200, Collections.singletonList(session), cluster.currentIndex());
+      }
+    } else if (endpoint.startsWith("info/")) {
+      long index = block(request, cluster::currentIndex);
+      Map<String, Object> session = cluster.sessionInfo(endpoint.substring("info/".length()));
+      request.json(200, session == null ? Collections.emptyList() : Collections.singletonList(session), index);
+    } else if (endpoint.startsWith("node/")) {
+      request.json(200, cluster.sessionList(endpoint.substring("node/".length())), cluster.currentIndex());
+    } else if ("list".equals(endpoint)) {
+      request.json(200, cluster.sessionList(null), cluster.currentIndex());
+    } else {
+      request.text(404, "Not found: " + endpoint, cluster.currentIndex());
+    }
+  }
+
+  private void handleEvent(Request request, String endpoint) throws IOException {
+    if (endpoint.startsWith("fire/")) {
+      request.json(200, cluster.fireEvent(endpoint.substring("fire/".length()), request.body, request.params),
+          cluster.currentIndex());
+    } else if ("list".equals(endpoint)) {
+      long index = block(request, cluster::eventIndex);
+      request.json(200, cluster.listEvents(request.params.get("name")), index);
+    } else {
+      request.text(404, "Not found: " + endpoint, cluster.currentIndex());
+    }
+  }
+
+  /**
+   * 按 index/wait 参数执行阻塞查询
+   *
+   * @return 响应中的 X-Consul-Index
+   */
+  private long block(Request request, FakeConsulCluster.IndexSupplier indexSupplier) {
+    Long minIndex = request.longParam("index");
+    if (minIndex != null && minIndex > 0 && blockingIndexMode == BlockingIndexMode.NORMAL) {
+      cluster.awaitIndex(indexSupplier, minIndex, parseWait(request.params.get("wait")));
+    }
+
+    return blockingIndexMode == BlockingIndexMode.RESET_INDEX ? 1 : indexSupplier.get();
+  }
+
+  private static long parseWait(String wait) {
+    if (wait == null || wait.isEmpty()) {
+      return DEFAULT_WAIT_MILLIS;
+    }
+    if (wait.endsWith("ms")) {
+      return Long.parseLong(wait.substring(0, wait.length() - 2));
+    }
+    if (wait.endsWith("m")) {
+      return TimeUnit.MINUTES.toMillis(Long.parseLong(wait.substring(0, wait.length() - 1)));
+    }
+
+    return TimeUnit.SECONDS.toMillis(Long.parseLong(wait.replace("s", "")));
+  }
+
+  private static void respondText(HttpExchange exchange, int status, String body, long index) throws IOException {
+    respond(exchange, status, body.getBytes(StandardCharsets.UTF_8), "text/plain", index);
+  }
+
+  private static void respond(HttpExchange exchange, int status, byte[] body, String contentType, long index)
+      throws IOException {
+    exchange.getResponseHeaders().add("Content-Type", contentType);
+    exchange.getResponseHeaders().add("X-Consul-Index", String.valueOf(index));
+    exchange.getResponseHeaders().add("X-Consul-Knownleader", "true");
+    exchange.getResponseHeaders().add("X-Consul-Lastcontact", "0");
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    if (body.length > 0) {
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+
+  /**
+   * 一个HTTP请求
+   */
+  private static class Request {
+
+    final HttpExchange exchange;
+    final String method;
+    final String path;
+    final Map<String, String> params;
+    final byte[] body;
+
+    Request(HttpExchange exchange) throws IOException {
+      this.exchange = exchange;
+      this.method = exchange.getRequestMethod();
+      this.path = exchange.getRequestURI().getPath();
+      this.params = parseQuery(exchange.getRequestURI().getRawQuery());
+      this.body = readAll(exchange.getRequestBody());
+    }
+
+    Long longParam(String name) {
+      String value = params.get(name);
+      return value == null || value.isEmpty() ? null : Long.valueOf(value);
+    }
+
+    Map<String, Object> jsonBody() {
+      return GSON.fromJson(new String(body, StandardCharsets.UTF_8), new TypeToken<Map<String, Object>>() {
+      }.getType());
+    }
+
+    void json(int status, Object value, long index) throws IOException {
+      byte[] bytes = value == null ? new byte[0] : GSON.toJson(value).getBytes(StandardCharsets.UTF_8);
+      respond(exchange, status, bytes, "application/json", index);
+    }
+
+    void text(int status, String value, long index) throws IOException {
+      respondText(exchange, status, value, index);
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+      Map<String, String> params = new LinkedHashMap<>();
+      if (rawQuery == null || rawQuery.isEmpty()) {
+        return params;
+      }
+      for (String pair : rawQuery.split(CommonConstant.SEPARATOR_AMPERSAND)) {
+        int separator = pair.indexOf(CommonConstant.SEPARATOR_EQUAL_SIGN);
+        String name = URLDecoder.decode(separator < 0 ? pair : pair.substring(0, separator), CommonConstant.UTF8);
+        String value = separator < 0 ? "" : URLDecoder.decode(pair.substring(separator + 1), CommonConstant.UTF8);
+        params.put(name, value);
+      }
+
+      return params;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+
+      return out.toByteArray();
+    }
+  }
+
+  /**
+   * 注册在agent上的服务实例
+   */
+  @Getter
+  public static class RegisteredService {
+
+    private final FakeConsulAgent agent;
+    private final String id;
+    private final String name;
+    private List<String> tags = Collections.emptyList();
+    private String address = "";
+    private int port;
+    private Map<String, String> meta = Collections.emptyMap();
+    private long createIndex;
+    private long modifyIndex;
+
+    RegisteredService(FakeConsulAgent agent, String id, String name) {
+      this.agent = agent;
+      this.id = id;
+      this.name = name;
+    }
+
+    Map<String, Object> toAgentJson() {
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("ID", id);
+      json.put("Service", name);
+      json.put("Tags", tags);
+      json.put("Address", address);
+      json.put("Meta", meta);
+      json.put("Port", port);
+      json.put("EnableTagOverride", false);
+
+      return json;
+    }
+
+    Map<String, Object> toJson() {
+      Map<String, Object> json = toAgentJson();
+      json.put("CreateIndex", createIndex);
+      json.put("ModifyIndex", modifyIndex);
+
+      return json;
+    }
+
+    Map<String, Object> toCatalogJson() {
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("Node", agent.nodeName);
+      json.put("Address", "127.0.0.1");
+      json.put("Datacenter", FakeConsulCluster.DATACENTER);
+      json.put("ServiceID", id);
+      json.put("ServiceName", name);
+      json.put("ServiceTags", tags);
+      json.put("ServiceAddress", address);
+      json.put("ServiceMeta", meta);
+      json.put("ServicePort", port);
+      json.put("CreateIndex", createIndex);
+      json.put("ModifyIndex", modifyIndex);
+
+      return json;
+    }
+  }
+
+  /**
+   * 注册在agent上的检查
+   */
+  private class LocalCheck {
+
+    final String id;
+    final String name;
+    final String serviceId;
+    final String serviceName;
+    String status = "passing";
+    String notes = "";
+    String output = "";
+
+    LocalCheck(String id, String name, String serviceId, String serviceName) {
+      this.id = id;
+      this.name = name;
+      this.serviceId = serviceId;
+      this.serviceName = serviceName;
+    }
+
+    Map<String, Object> toJson() {
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("Node", nodeName);
+      json.put("CheckID", id);
+      json.put("Name", name);
+      json.put("Status", status);
+      json.put("Notes", notes);
+      json.put("Output", output);
+      json.put("ServiceID", serviceId);
+      json.put("ServiceName", serviceName);
+      json.put("ServiceTags", Collections.emptyList());
+
+      return json;
+    }
+  }
+}
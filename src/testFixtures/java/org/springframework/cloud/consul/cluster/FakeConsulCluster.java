@@ -0,0 +1,570 @@
+package org.springframework.cloud.consul.cluster;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 进程内的伪consul集群
+ *
+ * 多个 FakeConsulAgent 共享同一份"server端"状态(KV、session、event、raft index)，
+ * 而服务及检查与真实consul一样注册在各自的agent上，agent停止后其上注册的服务随之从目录中消失。
+ *
+ * 所有状态由集群对象自身的监视器保护，阻塞查询在该监视器上等待索引变化。
+ */
+@Slf4j
+public class FakeConsulCluster implements AutoCloseable {
+
+  public static final String DATACENTER = "dc1";
+
+  @Getter
+  private final List<FakeConsulAgent> agents = new ArrayList<>();
+
+  /**
+   * raft index, 任何写操作都会递增
+   */
+  private long index = 1;
+
+  private final NavigableMap<String, KvEntry> kv = new TreeMap<>();
+
+  /**
+   * 被删除key的索引, 用于计算前缀的阻塞查询索引
+   */
+  private final NavigableMap<String, Long> kvTombstones = new TreeMap<>();
+
+  private final Map<String, SessionEntry> sessions = new LinkedHashMap<>();
+
+  private final List<Map<String, Object>> events = new ArrayList<>();
+
+  private long eventLTime;
+
+  private final Map<String, Map<String, Object>> preparedQueries = new LinkedHashMap<>();
+
+  public FakeConsulCluster(int agentCount) throws IOException {
+    for (int i = 0; i < agentCount; i++) {
+      this.agents.add(new FakeConsulAgent(this, "fake-agent-" + i));
+    }
+  }
+
+  public FakeConsulAgent getAgent(int i) {
+    return agents.get(i);
+  }
+
+  /**
+   * spring.cloud.consul.cluster.nodes 格式的节点列表
+   */
+  public List<String> getClusterNodes() {
+    return agents.stream().map(FakeConsulAgent::getConnect).collect(Collectors.toList());
+  }
+
+  /**
+   * 根据 ConsulClientHolder.getClientId() 查找agent
+   */
+  public FakeConsulAgent findAgent(String clientId) {
+    return agents.stream().filter(agent -> agent.getConnect().equals(clientId)).findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("Unknown agent " + clientId));
+  }
+
+  @Override
+  public void close() {
+    agents.forEach(FakeConsulAgent::close);
+  }
+
+  /**
+   * 集群的raft index，每次写入递增
+   */
+  synchronized long currentIndex() {
+    return index;
+  }
+
+  synchronized long nextIndex() {
+    index++;
+    notifyAll();
+    return index;
+  }
+
+  /**
+   * 阻塞查询: 等待直到 indexSupplier 的值大于 minIndex 或超时
+   */
+  synchronized void awaitIndex(IndexSupplier indexSupplier, long minIndex, long waitMillis) {
+    long deadline = System.currentTimeMillis() + waitMillis;
+    long remaining = waitMillis;
+    while (indexSupplier.get() <= minIndex && remaining > 0) {
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      remaining = deadline - System.currentTimeMillis();
+    }
+  }
+
+  interface IndexSupplier {
+
+    long get();
+  }
+
+  /**
+   * 读取一个KV，读取前先使过期的session失效
+   */
+  synchronized KvEntry getKv(String key) {
+    expireSessions();
+    return kv.get(key);
+  }
+
+  synchronized List<KvEntry> getKvPrefix(String prefix) {
+    expireSessions();
+    return new ArrayList<>(prefixMap(kv, prefix).values());
+  }
+
+  synchronized long kvIndex(String prefix, boolean recurse) {
+    long result = 0;
+    if (recurse) {
+      for (KvEntry entry : prefixMap(kv, prefix).values()) {
+        result = Math.max(result, entry.modifyIndex);
+      }
+      for (Long tombstone : prefixMap(kvTombstones, prefix).values()) {
+        result = Math.max(result, tombstone);
+      }
+    } else {
+      KvEntry entry = kv.get(prefix);
+      result = entry != null ? entry.modifyIndex : kvTombstones.getOrDefault(prefix, 0L);
+    }
+
+    return result > 0 ? result : index;
+  }
+
+  /**
+   * @param cas - null表示不做CAS检查
+   * @param acquire - 获取锁的session
+   * @param release - 释放锁的session
+   */
+  synchronized boolean putKv(String key, byte[] value, Long flags, Long cas, String acquire, String release) {
+    expireSessions();
+    KvEntry existing = kv.get(key);
+    if (cas != null) {
+      long current = existing == null ? 0 : existing.modifyIndex;
+      if (current != cas) {
+        return false;
+      }
+    }
+
+    KvEntry entry = existing == null ? new KvEntry(key) : existing;
+    if (acquire != null) {
+      if (!sessions.containsKey(acquire)) {
+        return false;
+      }
+      if (entry.session != null && !entry.session.equals(acquire)) {
+        return false;
+      }
+      if (entry.session == null) {
+        entry.lockIndex++;
+      }
+      entry.session = acquire;
+    }
+    if (release != null) {
+      if (entry.session == null || !entry.session.equals(release)) {
+        return false;
+      }
+      entry.session = null;
+    }
+
+    long newIndex = nextIndex();
+    if (existing == null) {
+      entry.createIndex = newIndex;
+      kv.put(key, entry);
+    }
+    entry.value = value;
+    if (flags != null) {
+      entry.flags = flags;
+    }
+    entry.modifyIndex = newIndex;
+    kvTombstones.remove(key);
+
+    return true;
+  }
+
+  synchronized boolean deleteKv(String key, boolean recurse, Long cas) {
+    if (recurse) {
+      List<String> keys = new ArrayList<>(prefixMap(kv, key).keySet());
+      if (!keys.isEmpty()) {
+        long newIndex = nextIndex();
+        keys.forEach(deleted -> {
+          kv.remove(deleted);
+          kvTombstones.put(deleted, newIndex);
+        });
+      }
+      return true;
+    }
+
+    KvEntry existing = kv.get(key);
+    if (cas != null && (existing == null || existing.modifyIndex != cas)) {
+      return false;
+    }
+    if (existing != null) {
+      kv.remove(key);
+      kvTombstones.put(key, nextIndex());
+    }
+
+    return true;
+  }
+
+  /**
+   * /v1/txn: 先校验全部操作，任一失败则不做任何修改；全部通过后以同一个索引提交
+   *
+   * @return Results 或 Errors，Errors非空时对应409
+   */
+  @SuppressWarnings("unchecked")
+  synchronized Map<String, Object> txn(List<Map<String, Object>> operations) {
+    expireSessions();
+    List<Map<String, Object>> errors = new ArrayList<>();
+    for (int i = 0; i < operations.size(); i++) {
+      Map<String, Object> op = (Map<String, Object>) operations.get(i).get("KV");
+      String verb = (String) op.get("Verb");
+      String key = (String) op.get("Key");
+      KvEntry existing = kv.get(key);
+      long opIndex = op.get("Index") == null ? 0 : ((Number) op.get("Index")).longValue();
+      String what = null;
+      switch (verb) {
+        case "get":
+          what = existing == null ? "key \"" + key + "\" doesn't exist" : null;
+          break;
+        case "check-not-exists":
+          what = existing != null ? "key \"" + key + "\" exists" : null;
+          break;
+        case "check-index":
+          what = existing == null || existing.modifyIndex != opIndex ? "current modify index for \"" + key + "\" mismatch" : null;
+          break;
+        case "cas":
+        case "delete-cas":
+          long current = existing == null ? 0 : existing.modifyIndex;
+          what = current != opIndex ? "failed to set key \"" + key + "\", index is stale" : null;
+          break;
+        case "set":
+        case "delete":
+        case "delete-tree":
+          break;
+        default:
+          what = "unknown KV verb \"" + verb + "\"";
+      }
+      if (what != null) {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("OpIndex", i);
+        error.put("What", what);
+        errors.add(error);
+      }
+    }
+    if (!errors.isEmpty()) {
+      Map<String, Object> response = new LinkedHashMap<>();
+      response.put("Results", null);
+      response.put("Errors", errors);
+      return response;
+    }
+
+    long newIndex = nextIndex();
+    List<Map<String, Object>> results = new ArrayList<>();
+    for (Map<String, Object> operation : operations) {
+      Map<String, Object> op = (Map<String, Object>) operation.get("KV");
+      String verb = (String) op.get("Verb");
+      String key = (String) op.get("Key");
+      switch (verb) {
+        case "set":
+        case "cas":
+          KvEntry entry = kv.computeIfAbsent(key, newKey -> {
+            KvEntry created = new KvEntry(newKey);
+            created.createIndex = newIndex;
+            return created;
+          });
+          entry.value = op.get("Value") == null ? null : Base64.getDecoder().decode((String) op.get("Value"));
+          entry.modifyIndex = newIndex;
+          kvTombstones.remove(key);
+          Map<String, Object> result = entry.toJson();
+          result.put("Value", null);
+          results.add(Collections.singletonMap("KV", result));
+          break;
+        case "get":
+        case "check-index":
+          results.add(Collections.singletonMap("KV", kv.get(key).toJson()));
+          break;
+        case "delete":
+        case "delete-cas":
+          if (kv.remove(key) != null) {
+            kvTombstones.put(key, newIndex);
+          }
+          break;
+        case "delete-tree":
+          new ArrayList<>(prefixMap(kv, key).keySet()).forEach(deleted -> {
+            kv.remove(deleted);
+            kvTombstones.put(deleted, newIndex);
+          });
+          break;
+        default:
+      }
+    }
+    notifyAll();
+
+    Map<String, Object> response = new LinkedHashMap<>();
+    response.put("Results", results);
+    response.put("Errors", null);
+    return response;
+  }
+
+  private static <V> NavigableMap<String, V> prefixMap(NavigableMap<String, V> map, String prefix) {
+    if (prefix.isEmpty()) {
+      return map;
+    }
+    return map.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+  }
+
+  /**
+   * 创建session，请求中Checks为空列表时session不绑定节点的serfHealth
+   */
+  synchronized Map<String, Object> createSession(String node, Map<String, Object> request) {
+    SessionEntry session = new SessionEntry();
+    session.id = UUID.randomUUID().toString();
+    session.node = node;
+    session.name = (String) request.getOrDefault("Name", "");
+    session.behavior = (String) request.getOrDefault("Behavior", "release");
+    session.ttl = (String) request.get("TTL");
+    session.lockDelay = request.get("LockDelay");
+    Object checks = request.get("Checks");
+    session.serfBound = checks == null || !((List<?>) checks).isEmpty();
+    session.createIndex = nextIndex();
+    session.renewedAt = System.currentTimeMillis();
+    sessions.put(session.id, session);
+
+    return Collections.singletonMap("ID", session.id);
+  }
+
+  synchronized Map<String, Object> renewSession(String id) {
+    expireSessions();
+    SessionEntry session = sessions.get(id);
+    if (session == null) {
+      return null;
+    }
+    session.renewedAt = System.currentTimeMillis();
+
+    return session.toJson();
+  }
+
+  synchronized Map<String, Object> sessionInfo(String id) {
+    expireSessions();
+    SessionEntry session = sessions.get(id);
+
+    return session == null ? null : session.toJson();
+  }
+
+  synchronized List<Map<String, Object>> sessionList(String node) {
+    expireSessions();
+    return sessions.values().stream().filter(session -> node == null || node.equals(session.node))
+        .map(SessionEntry::toJson).collect(Collectors.toList());
+  }
+
+  synchronized void destroySession(String id) {
+    invalidateSession(id);
+  }
+
+  /**
+   * agent停止: 绑定serfHealth的session失效(consul中节点失联的效果)
+   */
+  synchronized void agentStopped(String node) {
+    List<String> bound = sessions.values().stream()
+        .filter(session -> session.serfBound && node.equals(session.node))
+        .map(session -> session.id).collect(Collectors.toList());
+    bound.forEach(this::invalidateSession);
+    nextIndex();
+  }
+
+  private void invalidateSession(String id) {
+    SessionEntry session = sessions.remove(id);
+    if (session == null) {
+      return;
+    }
+    long newIndex = nextIndex();
+    Iterator<Map.Entry<String, KvEntry>> iterator = kv.entrySet().iterator();
+    while (iterator.hasNext()) {
+      KvEntry entry = iterator.next().getValue();
+      if (id.equals(entry.session)) {
+        if ("delete".equals(session.behavior)) {
+          iterator.remove();
+          kvTombstones.put(entry.key, newIndex);
+        } else {
+          entry.session = null;
+          entry.modifyIndex = newIndex;
+        }
+      }
+    }
+  }
+
+  private void expireSessions() {
+    long now = System.currentTimeMillis();
+    List<String> expired = sessions.values().stream()
+        .filter(session -> session.ttlMillis() > 0 && now - session.renewedAt > session.ttlMillis() * 2)
+        .map(session -> session.id).collect(Collectors.toList());
+    expired.forEach(this::invalidateSession);
+  }
+
+  /**
+   * 触发一个用户事件
+   */
+  synchronized Map<String, Object> fireEvent(String name, byte[] payload, Map<String, String> params) {
+    Map<String, Object> event = new LinkedHashMap<>();
+    event.put("ID", UUID.randomUUID().toString());
+    event.put("Name", name);
+    event.put("Payload", payload == null || payload.length == 0 ? null : Base64.getEncoder().encodeToString(payload));
+    event.put("NodeFilter", params.getOrDefault("node", ""));
+    event.put("ServiceFilter", params.getOrDefault("service", ""));
+    event.put("TagFilter", params.getOrDefault("tag", ""));
+    event.put("Version", 1);
+    event.put("LTime", ++eventLTime);
+    events.add(event);
+    nextIndex();
+
+    return event;
+  }
+
+  synchronized List<Map<String, Object>> listEvents(String name) {
+    return events.stream().filter(event -> name == null || name.equals(event.get("Name")))
+        .collect(Collectors.toList());
+  }
+
+  synchronized long eventIndex() {
+    return eventLTime + 1;
+  }
+
+  /**
+   * 创建一个查询指定服务的prepared query
+   *
+   * @param dnsTtl - 定义中的DNS TTL，例如 10s，可为空
+   * @return query的ID
+   */
+  public synchronized String createPreparedQuery(String service, String dnsTtl) {
+    String id = UUID.randomUUID().toString();
+    Map<String, Object> query = new LinkedHashMap<>();
+    query.put("Service", service);
+    query.put("DnsTtl", dnsTtl == null ? "" : dnsTtl);
+    preparedQueries.put(id, query);
+    nextIndex();
+
+    return id;
+  }
+
+  synchronized Map<String, Object> getPreparedQuery(String id) {
+    return preparedQueries.get(id);
+  }
+
+  /**
+   * 所有运行中agent上注册的服务实例, 按节点、服务ID排序(与consul一致)
+   */
+  synchronized List<FakeConsulAgent.RegisteredService> registeredServices() {
+    List<FakeConsulAgent.RegisteredService> result = new ArrayList<>();
+    for (FakeConsulAgent agent : agents) {
+      if (agent.isRunning()) {
+        result.addAll(agent.localServices());
+      }
+    }
+
+    return result;
+  }
+
+  synchronized Map<String, List<String>> catalogServices() {
+    Map<String, List<String>> services = new TreeMap<>();
+    services.put("consul", new ArrayList<>());
+    for (FakeConsulAgent.RegisteredService service : registeredServices()) {
+      List<String> tags = services.computeIfAbsent(service.getName(), name -> new ArrayList<>());
+      service.getTags().stream().filter(tag -> !tags.contains(tag)).forEach(tags::add);
+    }
+
+    return services;
+  }
+
+  /**
+   * KV中的一条记录
+   */
+  static class KvEntry {
+
+    final String key;
+    byte[] value;
+    long flags;
+    long createIndex;
+    long modifyIndex;
+    long lockIndex;
+    String session;
+
+    KvEntry(String key) {
+      this.key = key;
+    }
+
+    Map<String, Object> toJson() {
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("LockIndex", lockIndex);
+      json.put("Key", key);
+      json.put("Flags", flags);
+      json.put("Value", value == null ? null : Base64.getEncoder().encodeToString(value));
+      json.put("CreateIndex", createIndex);
+      json.put("ModifyIndex", modifyIndex);
+      if (session != null) {
+        json.put("Session", session);
+      }
+
+      return json;
+    }
+  }
+
+  /**
+   * 一个session
+   */
+  static class SessionEntry {
+
+    String id;
+    String node;
+    String name;
+    String behavior;
+    String ttl;
+    Object lockDelay;
+    boolean serfBound;
+    long createIndex;
+    long renewedAt;
+
+    long ttlMillis() {
+      if (ttl == null || ttl.isEmpty()) {
+        return 0;
+      }
+      if (ttl.endsWith("ms")) {
+        return Long.parseLong(ttl.substring(0, ttl.length() - 2));
+      }
+      if (ttl.endsWith("m")) {
+        return (long) (Double.parseDouble(ttl.substring(0, ttl.length() - 1)) * 60000);
+      }
+      return (long) (Double.parseDouble(ttl.replace("s", "")) * 1000);
+    }
+
+    Map<String, Object> toJson() {
+      Map<String, Object> json = new HashMap<>();
+      json.put("ID", id);
+      json.put("Name", name);
+      json.put("Node", node);
+      json.put("Behavior", behavior);
+      json.put("TTL", ttl);
+      json.put("LockDelay", lockDelay);
+      json.put("Checks", serfBound ? Collections.singletonList("serfHealth") : Collections.emptyList());
+      json.put("CreateIndex", createIndex);
+
+      return json;
+    }
+  }
+}